@@ -0,0 +1,534 @@
+import java.io.IOException;
+import java.util.Arrays;
+import tester.*;
+
+// Finds a win with the fewest pushes, like PushSolver, by searching from both
+// ends at once: forward from the start by pushes, and backward from the won
+// level by pulls, the player stepping back and dragging an item after it. A
+// level is won once every target holds a trophy of its color, so when each
+// color has exactly as many trophies as targets, and there are no boxes,
+// there is only one way the items can end up, and the backward search starts
+// from it with the player in each area it could be left in. The two searches
+// take turns, each doing a whole layer (one more push or pull) at a time,
+// whichever has fewer states waiting, and stop once a state one reached is
+// found by the other. Each search ends up only about half as deep, so far
+// fewer states are stored.
+//
+// States are the items plus the region the player can walk to, with the
+// player put in the region's top-left cell, as in PushSolver. Ice and holes
+// make moves that can't be pulled back in one step (a slide can stop short
+// of where it started, and a hole swallows what falls in), so levels with
+// either, or with boxes, or with more trophies of a color than targets, are
+// solved by PushSolver alone.
+//
+// Run with: java BidirectionalSolver <contents file> <ground file> [most states to store]
+class BidirectionalSolver {
+  Board board; // the level, as given
+  Simulator sim; // plays the pushes and pulls of the state being expanded
+  Deadlocks deadlocks; // finds states that can't be won, which forward skips
+  StateCodec codec; // packs states for the two searches
+  long[] packed; // the state just reached, packed
+  PlayerRegion here; // where the player can walk in the state being expanded
+  PlayerRegion next; // where the player can walk in a state just reached
+  long maxStates; // states stored, by both searches together, before giving up
+  boolean forwardOnly; // whether the level needs PushSolver alone
+  PushTree forward; // states reached by pushes from the start
+  PushTree backward; // states reached by pulls from the won level
+  int bestPushes; // pushes in the shortest way through a meeting found so far
+  long forwardMeeting; // index in forward of the state met in on that way, or -1
+  long backwardMeeting; // index in backward of the same state, or -1
+  boolean full; // whether a table had no room for a state, which ends the search
+  int status; // outcome once solve has been called (see Solver), or -1 before
+  String solution; // moves that win, once solved
+  int pushes; // number of pushes in the solution
+  long states; // number of states stored
+
+  // Convenience constructor with the default limit on states
+  BidirectionalSolver(Board board) {
+    this(board, PushSolver.DEFAULT_MAX_STATES);
+  }
+
+  // Constructor for solving the given board, giving up once the given number
+  // of states are stored. The board itself is not changed.
+  BidirectionalSolver(Board board, long maxStates) {
+    if (maxStates < 1) {
+      throw new IllegalArgumentException("The solver must be allowed to store a state");
+    }
+    this.board = board;
+    this.sim = new Simulator(board.grid().copy(), board.playerCell());
+    this.deadlocks = this.sim.grid.deadlocks();
+    this.codec = new StateCodec(this.sim.grid, this.sim.playerCell);
+    this.packed = new long[this.codec.words];
+    this.here = new PlayerRegion(this.sim.grid.contents.length);
+    this.next = new PlayerRegion(this.sim.grid.contents.length);
+    this.maxStates = maxStates;
+    this.forwardOnly = !BidirectionalSolver.canPull(this.sim.grid, this.codec);
+    this.forward = new PushTree(this.codec.words);
+    this.backward = new PushTree(this.codec.words);
+    this.bestPushes = Integer.MAX_VALUE;
+    this.forwardMeeting = -1;
+    this.backwardMeeting = -1;
+    this.full = false;
+    this.status = -1;
+    this.solution = null;
+    this.pushes = 0;
+    this.states = 0;
+  }
+
+  // Determines if the level on the given grid, whose changing cells are those
+  // of the given codec, can be searched backward: it has no ice or holes
+  // there, no boxes, and every color has as many trophies as targets there,
+  // with the targets elsewhere already won
+  static boolean canPull(BoardGrid grid, StateCodec codec) {
+    int[] trophies = new int[ItemColor.values().length];
+    int[] targets = new int[ItemColor.values().length];
+    for (int cell = 0; cell < grid.contents.length; cell += 1) {
+      byte content = grid.contents[cell];
+      byte ground = grid.grounds[cell];
+      boolean changes = codec.slots[cell] != -1;
+      if (changes && (ground == CellCodes.ICE || content == CellCodes.HOLE
+          || content == CellCodes.BOX)) {
+        return false;
+      }
+      if (changes && CellCodes.isTrophy(content)) {
+        trophies[content - CellCodes.TROPHY] += 1;
+      }
+      if (changes && CellCodes.isTarget(ground)) {
+        targets[ground - CellCodes.TARGET] += 1;
+      }
+      if (!changes && !CellCodes.completedCell(content, ground)) {
+        return false;
+      }
+    }
+    return Arrays.equals(trophies, targets);
+  }
+
+  // Returns moves that win the level with the fewest pushes, or null if it
+  // can't be won or the limit on states was reached first (see status)
+  String solve() {
+    if (this.status != -1) {
+      return this.solution;
+    }
+    if (this.forwardOnly) {
+      PushSolver solver = new PushSolver(this.board, this.maxStates);
+      this.solution = solver.solve();
+      this.status = solver.status;
+      this.pushes = solver.pushes;
+      this.states = solver.states.size;
+      return this.solution;
+    }
+    int start = this.sim.status();
+    if (start == Simulator.WON) {
+      this.status = Solver.SOLVED;
+      this.solution = "";
+      return this.solution;
+    }
+    if (this.deadlocks.isDeadlocked(this.sim.grid, this.sim.playerCell)) {
+      this.status = Solver.NO_SOLUTION;
+      return this.solution;
+    }
+    this.addGoals();
+    this.here.fill(this.sim);
+    this.codec.encode(this.sim.grid, this.here.min, this.packed, 0);
+    this.reach(this.forward, this.backward, -1, -1);
+    this.forward.nextLayer();
+    while (this.status == -1) {
+      if (this.forwardMeeting != -1) {
+        this.status = Solver.SOLVED;
+        this.solution = this.movesThrough(this.forwardMeeting, this.backwardMeeting);
+      }
+      else if (this.forward.waiting() == 0 || this.backward.waiting() == 0) {
+        this.status = Solver.NO_SOLUTION;
+      }
+      else if (this.full || this.states >= this.maxStates) {
+        this.status = Solver.GAVE_UP;
+      }
+      else if (this.forward.waiting() <= this.backward.waiting()) {
+        this.expandForward();
+      }
+      else {
+        this.expandBackward();
+      }
+    }
+    return this.solution;
+  }
+
+  // Adds the won level to the backward search, once for each area of floor
+  // the player could be left standing in
+  void addGoals() {
+    BoardGrid grid = this.sim.grid;
+    byte player = grid.contents[this.sim.playerCell];
+    byte[] goal = this.codec.base.clone();
+    for (int cell : this.codec.domain) {
+      if (CellCodes.isTarget(grid.grounds[cell])) {
+        goal[cell] = (byte) (CellCodes.TROPHY + grid.grounds[cell] - CellCodes.TARGET);
+      }
+    }
+    boolean[] covered = new boolean[goal.length];
+    for (int cell : this.codec.domain) {
+      if (!covered[cell] && goal[cell] == CellCodes.BLANK) {
+        goal[cell] = player;
+        grid.load(goal);
+        goal[cell] = CellCodes.BLANK;
+        this.sim.playerCell = cell;
+        this.here.fill(this.sim);
+        for (int i = 0; i < this.here.size; i += 1) {
+          covered[this.here.cells[i]] = true;
+        }
+        this.codec.encode(grid, this.here.min, this.packed, 0);
+        this.reach(this.backward, this.forward, -1, -1);
+      }
+    }
+    this.backward.nextLayer();
+    this.loadStart();
+  }
+
+  // Loads the start onto the simulator
+  void loadStart() {
+    this.sim.grid.load(this.board.grid().contents);
+    this.sim.playerCell = this.board.playerCell();
+  }
+
+  // Loads the given state of the given search onto the simulator
+  void load(PushTree tree, long state) {
+    tree.states.get(state, this.packed, 0);
+    int player = this.codec.player(this.packed, 0);
+    this.codec.decode(this.packed, 0, this.sim.grid, player);
+    this.sim.playerCell = player;
+  }
+
+  // Records that the packed state was reached by the given search from the
+  // given state by the push (or pull) recorded as the given number (see
+  // PushTree), unless it already had been, and checks whether the other
+  // search has reached it too. The tables keep each state's index in its
+  // search, so a meeting is found without looking through the searches.
+  void reach(PushTree tree, PushTree other, long parent, int push) {
+    int visit = tree.seen.visit(this.packed, 0, tree.depth + 1, tree.states.size);
+    if (visit == StateTable.UNSTORED) {
+      this.full = true;
+    }
+    else if (visit == StateTable.NEW) {
+      long index = tree.add(this.packed, parent, push);
+      this.states += 1;
+      int met = other.seen.get(this.packed, 0);
+      if (met != -1 && tree.depth + 1 + met < this.bestPushes) {
+        this.bestPushes = tree.depth + 1 + met;
+        long there = other.seen.value(this.packed, 0);
+        if (tree == this.forward) {
+          this.forwardMeeting = index;
+          this.backwardMeeting = there;
+        }
+        else {
+          this.forwardMeeting = there;
+          this.backwardMeeting = index;
+        }
+      }
+    }
+  }
+
+  // Tries every push from every state in the forward search's last layer
+  void expandForward() {
+    for (long state = this.forward.layerStart; state < this.forward.layerEnd; state += 1) {
+      this.load(this.forward, state);
+      this.here.fill(this.sim);
+      for (int i = 0; i < this.here.pushes; i += 1) {
+        int cell = this.here.pushCells[i];
+        int direction = this.here.pushDirections[i];
+        this.sim.placePlayer(cell);
+        if (this.sim.move(direction)) {
+          int status = this.sim.status();
+          if (status == Simulator.WON || status == Simulator.ONGOING
+              && !this.deadlocks.isDeadlocked(this.sim.grid, this.sim.playerCell)) {
+            this.next.fill(this.sim);
+            this.codec.encode(this.sim.grid, this.next.min, this.packed, 0);
+            this.reach(this.forward, this.backward, state, cell * 4 + direction);
+          }
+          this.sim.undo();
+        }
+      }
+    }
+    this.forward.nextLayer();
+  }
+
+  // Tries every pull from every state in the backward search's last layer:
+  // from a cell of the region with an item on one side and floor on the
+  // other, the player steps onto the floor and the item follows. A pull
+  // undoes a push from the cell the player ends in, in the direction of the
+  // item, which is what the backward search records.
+  void expandBackward() {
+    BoardGrid grid = this.sim.grid;
+    for (long state = this.backward.layerStart; state < this.backward.layerEnd;
+        state += 1) {
+      this.load(this.backward, state);
+      this.here.fill(this.sim);
+      for (int i = 0; i < this.here.size; i += 1) {
+        int cell = this.here.cells[i];
+        for (int direction = 0; direction < 4; direction += 1) {
+          int itemCell = grid.neighbor(cell, direction);
+          int back = grid.neighbor(cell, CellCodes.OPPOSITE[direction]);
+          if (itemCell != -1 && back != -1 && CellCodes.canBePushed(grid.contents[itemCell])
+              && CellCodes.canBeMovedOnto(grid.contents[back])) {
+            this.sim.placePlayer(cell);
+            this.pull(itemCell, cell, back);
+            this.next.fill(this.sim);
+            this.codec.encode(grid, this.next.min, this.packed, 0);
+            this.reach(this.backward, this.forward, state, back * 4 + direction);
+            this.unpull(itemCell, cell, back);
+          }
+        }
+      }
+    }
+    this.backward.nextLayer();
+  }
+
+  // Pulls the item in the first given cell into the second, which the
+  // player is in, and moves the player to the third
+  void pull(int itemCell, int cell, int back) {
+    BoardGrid grid = this.sim.grid;
+    byte item = grid.contents[itemCell];
+    int itemEntity = grid.entityAt[itemCell];
+    byte player = grid.contents[cell];
+    int playerEntity = grid.entityAt[cell];
+    grid.setContent(itemCell, CellCodes.BLANK, -1);
+    grid.setContent(cell, item, itemEntity);
+    grid.setContent(back, player, playerEntity);
+    this.sim.playerCell = back;
+  }
+
+  // Undoes pull with the same cells
+  void unpull(int itemCell, int cell, int back) {
+    BoardGrid grid = this.sim.grid;
+    byte item = grid.contents[cell];
+    int itemEntity = grid.entityAt[cell];
+    byte player = grid.contents[back];
+    int playerEntity = grid.entityAt[back];
+    grid.setContent(back, CellCodes.BLANK, -1);
+    grid.setContent(cell, player, playerEntity);
+    grid.setContent(itemCell, item, itemEntity);
+    this.sim.playerCell = cell;
+  }
+
+  // Returns the moves that win through the state at the given indices of the
+  // forward and backward searches, which both reached it: the pushes from
+  // the start to it, then the pushes undoing the pulls that reached it from
+  // the won level, with the walks in between. The pushes are counted along
+  // the parents actually followed.
+  String movesThrough(long forwardState, long backwardState) {
+    int forwardPushes = this.forward.pushesTo(forwardState);
+    this.pushes = forwardPushes + this.backward.pushesTo(backwardState);
+    int[] path = new int[this.pushes];
+    int i = forwardPushes;
+    for (long s = forwardState; this.forward.states.parent(s) != -1;
+        s = this.forward.states.parent(s)) {
+      i -= 1;
+      path[i] = this.forward.states.via(s);
+    }
+    i = forwardPushes;
+    for (long s = backwardState; this.backward.states.parent(s) != -1;
+        s = this.backward.states.parent(s)) {
+      path[i] = this.backward.states.via(s);
+      i += 1;
+    }
+    this.loadStart();
+    StringBuilder moves = new StringBuilder();
+    for (int push : path) {
+      this.here.fill(this.sim);
+      moves.append(this.here.walkTo(push / 4)).append("UDLR".charAt(push % 4));
+      this.sim.placePlayer(push / 4);
+      this.sim.move(push % 4);
+    }
+    return moves.toString();
+  }
+
+  // Solves the level in the given files (contents then ground) and prints
+  // moves that win it with the fewest pushes
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2 && args.length != 3) {
+      System.out.println(
+          "Usage: java BidirectionalSolver <contents file> <ground file> [most states to store]");
+      return;
+    }
+    long maxStates = PushSolver.DEFAULT_MAX_STATES;
+    if (args.length == 3) {
+      maxStates = Long.parseLong(args[2]);
+    }
+    Board board = new Board(TerminalPlay.readLevel(args[0]), TerminalPlay.readLevel(args[1]));
+    BidirectionalSolver solver = new BidirectionalSolver(board, maxStates);
+    String moves = solver.solve();
+    if (solver.status == Solver.SOLVED) {
+      System.out.println("Solved in " + solver.pushes + " pushes, " + moves.length()
+          + " moves: " + moves);
+    }
+    else if (solver.status == Solver.NO_SOLUTION) {
+      System.out.println("No solution");
+    }
+    else {
+      System.out.println("Gave up after " + solver.states + " states");
+    }
+  }
+}
+
+// The states one of BidirectionalSolver's searches has reached, packed, in
+// the order reached, each with the state it was reached from and the push
+// that joins the two (for the backward search, the push that undoes the pull
+// that reached it), kept outside the heap in a StateList
+class PushTree {
+  StateList states; // each state, with the cell pushed from times 4 plus the direction
+  long layerStart; // index of the first state of the last layer
+  long layerEnd; // index after the last state of the last layer
+  int depth; // pushes to the states of the last layer
+  StateTable seen; // the states reached, each with its pushes from the first and its index
+
+  // Constructor for an empty search of states of the given number of longs
+  PushTree(int words) {
+    this.states = new StateList(words);
+    this.layerStart = 0;
+    this.layerEnd = 0;
+    this.depth = -1;
+    this.seen = new StateTable(words, StateTable.DEFAULT_MAX_BYTES / 2, true);
+  }
+
+  // Adds the given packed state, reached from the given state by the push
+  // recorded as the given number, and returns its index
+  long add(long[] state, long parent, int push) {
+    return this.states.add(state, 0, parent, push);
+  }
+
+  // Makes the states added since the last layer the new last layer
+  void nextLayer() {
+    this.layerStart = this.layerEnd;
+    this.layerEnd = this.states.size;
+    this.depth += 1;
+  }
+
+  // Returns the number of states in the last layer, still to be expanded
+  long waiting() {
+    return this.layerEnd - this.layerStart;
+  }
+
+  // Returns the number of pushes from the first state to the given one,
+  // following its parents
+  int pushesTo(long state) {
+    int pushes = 0;
+    for (long s = state; this.states.parent(s) != -1; s = this.states.parent(s)) {
+      pushes += 1;
+    }
+    return pushes;
+  }
+}
+
+// Examples for BidirectionalSolver and PushTree
+class ExamplesBidirectionalSolver {
+  Board intro = new Board(TerminalPlay.DEFAULT_CONTENTS, TerminalPlay.DEFAULT_GROUND);
+  String open = "WWWWWWW\nW>____W\nW__r__W\nW_____W\nWWWWWWW";
+  String openGround = "_______\n_______\n_____R_\n_______\n_______";
+
+  // test that the searches meet in the middle of a level with two colors,
+  // and that the moves found win with the fewest pushes, storing fewer states
+  // than searching forward alone on the intro level
+  boolean testSolve(Tester t) {
+    Board twoColors = new Board("WWWWWWWW\nW>_____W\nW_r__b_W\nW______W\nW______W\nWWWWWWWW",
+        "________\n________\n________\n___B____\n_____R__\n________");
+    BidirectionalSolver met = new BidirectionalSolver(twoColors);
+    String metMoves = met.solve();
+    PushSolver metForward = new PushSolver(twoColors);
+    metForward.solve();
+    BidirectionalSolver solver = new BidirectionalSolver(this.intro);
+    String moves = solver.solve();
+    PushSolver forward = new PushSolver(this.intro);
+    forward.solve();
+    return t.checkExpect(met.forwardOnly, false) && t.checkExpect(met.pushes, 8)
+        && t.checkExpect(metForward.pushes, 8)
+        && t.checkExpect(met.forward.pushesTo(met.forwardMeeting), 5)
+        && t.checkExpect(met.backward.pushesTo(met.backwardMeeting), 3)
+        && t.checkExpect(new PlayLevel(twoColors).replay(metMoves).board.levelWon(), true)
+        && t.checkExpect(solver.status, Solver.SOLVED)
+        && t.checkExpect(solver.pushes, forward.pushes)
+        && t.checkExpect(new PlayLevel(this.intro).replay(moves).board.levelWon(), true)
+        && t.checkExpect(solver.states < forward.states.size / 2, true)
+        && t.checkExpect(solver.forward.states.size + solver.backward.states.size,
+            solver.states);
+  }
+
+  // test that the way through a meeting follows the parents of the copies
+  // the tables point to, even when a state was added twice
+  boolean testMeeting(Tester t) {
+    PushTree tree = new PushTree(1);
+    tree.add(new long[] { 1 }, -1, -1);
+    tree.add(new long[] { 2 }, 0, 5);
+    tree.add(new long[] { 3 }, 1, 6);
+    tree.add(new long[] { 2 }, 2, 7);
+    BidirectionalSolver solver = new BidirectionalSolver(this.intro);
+    solver.solve();
+    solver.forward.states.get(solver.forwardMeeting, solver.packed, 0);
+    long[] met = solver.packed.clone();
+    solver.backward.states.get(solver.backwardMeeting, solver.packed, 0);
+    return t.checkExpect(tree.pushesTo(3), 3) && t.checkExpect(tree.pushesTo(1), 1)
+        && t.checkExpect(tree.states.via(3), 7)
+        && t.checkExpect(solver.packed, met)
+        && t.checkExpect(solver.forward.seen.value(met, 0), solver.forwardMeeting)
+        && t.checkExpect(solver.backward.seen.value(met, 0), solver.backwardMeeting)
+        && t.checkExpect(solver.forward.pushesTo(solver.forwardMeeting)
+            + solver.backward.pushesTo(solver.backwardMeeting), solver.pushes);
+  }
+
+  // test for which levels can be searched backward
+  boolean testCanPull(Tester t) {
+    Board icy = new Board(this.open, "_______\n_______\n_____R_\n__I____\n_______");
+    Board hole = new Board("WWWWWWW\nW>___HW\nW__r__W\nW_____W\nWWWWWWW", this.openGround);
+    Board box = new Board("WWWWWWW\nW>_B__W\nW__r__W\nW_____W\nWWWWWWW", this.openGround);
+    Board extra = new Board("WWWWWWW\nW>_r__W\nW__r__W\nW_____W\nWWWWWWW", this.openGround);
+    Board walledOff = new Board("WWWWWWW\nW>____W\nW__r__W\nWWWWWWW\nW_g__WW",
+        "_______\n_______\n_____R_\n_______\n__G____");
+    Board notWon = new Board("WWWWWWW\nW>____W\nW__r__W\nWWWWWWW\nWg___WW",
+        "_______\n_______\n_____R_\n_______\n__G____");
+    return t.checkExpect(new BidirectionalSolver(this.intro).forwardOnly, false)
+        && t.checkExpect(new BidirectionalSolver(icy).forwardOnly, true)
+        && t.checkExpect(new BidirectionalSolver(hole).forwardOnly, true)
+        && t.checkExpect(new BidirectionalSolver(box).forwardOnly, true)
+        && t.checkExpect(new BidirectionalSolver(extra).forwardOnly, true)
+        && t.checkExpect(new BidirectionalSolver(walledOff).forwardOnly, false)
+        && t.checkExpect(new BidirectionalSolver(notWon).forwardOnly, true);
+  }
+
+  // test that levels with ice fall back to searching forward alone
+  boolean testFallback(Tester t) {
+    Board slide = new Board("WWWWWWW\nW>r___W\nWWWWWWW", "_______\n__IIIR_\n_______");
+    Board icy = new Board(this.open, "_______\n_______\n_____R_\n__I____\n_______");
+    BidirectionalSolver slideSolver = new BidirectionalSolver(slide);
+    BidirectionalSolver icySolver = new BidirectionalSolver(icy);
+    PushSolver forward = new PushSolver(icy);
+    return t.checkExpect(slideSolver.solve(), "R") && t.checkExpect(slideSolver.pushes, 1)
+        && t.checkExpect(icySolver.solve(), forward.solve())
+        && t.checkExpect(icySolver.states, forward.states.size)
+        && t.checkExpect(icySolver.backward.states.size, 0L);
+  }
+
+  // test that a pull moves the item after the player and can be undone
+  boolean testPull(Tester t) {
+    BidirectionalSolver solver = new BidirectionalSolver(new Board(this.open, this.openGround));
+    BoardGrid before = solver.sim.grid.copy();
+    solver.sim.placePlayer(16);
+    solver.pull(17, 16, 15);
+    String pulled = solver.sim.contents();
+    int player = solver.sim.playerCell;
+    solver.unpull(17, 16, 15);
+    solver.sim.placePlayer(8);
+    return t.checkExpect(pulled, "WWWWWWW\nW_____W\nW>r___W\nW_____W\nWWWWWWW")
+        && t.checkExpect(player, 15)
+        && t.checkExpect(solver.sim.grid, before);
+  }
+
+  // test for levels that can't be won and the limits on states
+  boolean testNoSolutionAndLimits(Tester t) {
+    BidirectionalSolver stuck = new BidirectionalSolver(new Board("WWWWWW\nW>_r_W\nWWWWWW",
+        "______\n_R____\n______"));
+    BidirectionalSolver limited = new BidirectionalSolver(this.intro, 10);
+    return t.checkExpect(stuck.solve(), null) && t.checkExpect(stuck.status, Solver.NO_SOLUTION)
+        && t.checkExpect(limited.solve(), null)
+        && t.checkExpect(limited.status, Solver.GAVE_UP)
+        && t.checkConstructorException(
+            new IllegalArgumentException("The solver must be allowed to store a state"),
+            "BidirectionalSolver", this.intro, 0L);
+  }
+}
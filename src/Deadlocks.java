@@ -0,0 +1,383 @@
+import java.util.Arrays;
+import tester.*;
+
+// Finds states of a level that can never be won, so the solvers can skip
+// them and the game can tell the player they are stuck. Every check only
+// says a state is deadlocked when it truly can't be won; anything it can't
+// be sure of (a hole that might be filled, a slide that something might stop
+// early) is taken to be possible. There are four checks:
+// - Dead squares: cells from which a trophy of some color can never be pushed
+// onto a target of that color, worked out once from the walls and ground.
+// - Counting: a color with fewer trophies that could still reach its targets
+// (because the rest fell into holes, are on dead squares or are frozen) than
+// it has targets.
+// - Freezing: an item that can never be pushed again (a wall or another
+// frozen item on one side both across and along) sitting on a target it
+// doesn't satisfy.
+// - Sealed corrals: a target that isn't satisfied in a part of the level
+// closed off from the player by walls and frozen items, which nothing can
+// ever get into.
+class Deadlocks {
+  static final int FAR = 1 << 20; // push distance from a cell that can't reach a target
+
+  int width; // number of columns
+  int size; // number of cells
+  boolean[] walls; // per cell, whether it is a wall
+  int[] targetCells; // cell of each target, in order
+  int[][] distances; // per target then cell, fewest pushes to bring an item there onto it
+  boolean[][] live; // per color then cell, whether a trophy there can reach a target
+  int[] targets; // per color, number of targets
+
+  // Scratch space for the checks, kept so they don't allocate on every call.
+  // Because of it a Deadlocks can only be used by one thread at a time (see
+  // copy).
+  int[] usable; // per color, trophies that could still reach a target
+  boolean[] barrier; // per cell, whether the player can never pass it
+  boolean[] asWall; // per cell, whether it is being checked for freezing
+  boolean[] reached; // per cell, whether the player can reach it
+  int[] queue; // cells the player reaches, in the order reached
+
+  // Constructor for the deadlocks of the given grid's level. Walls and
+  // ground never change, so this can be used for every state of the level.
+  Deadlocks(BoardGrid grid) {
+    this.width = grid.width;
+    this.size = grid.contents.length;
+    this.walls = new boolean[this.size];
+    int count = 0;
+    for (int i = 0; i < this.size; i += 1) {
+      this.walls[i] = grid.contents[i] == CellCodes.WALL;
+      if (CellCodes.isTarget(grid.grounds[i]) && !this.walls[i]) {
+        count += 1;
+      }
+    }
+    this.targetCells = new int[count];
+    this.distances = new int[count][];
+    this.live = new boolean[ItemColor.values().length][this.size];
+    this.targets = new int[ItemColor.values().length];
+    int target = 0;
+    for (int i = 0; i < this.size; i += 1) {
+      if (CellCodes.isTarget(grid.grounds[i]) && !this.walls[i]) {
+        int color = grid.grounds[i] - CellCodes.TARGET;
+        this.targetCells[target] = i;
+        this.distances[target] = this.pushDistances(grid, i);
+        this.targets[color] += 1;
+        for (int cell = 0; cell < this.size; cell += 1) {
+          this.live[color][cell] = this.live[color][cell]
+              || this.distances[target][cell] < Deadlocks.FAR;
+        }
+        target += 1;
+      }
+    }
+    this.makeScratch();
+  }
+
+  // Constructor for a copy of the given deadlocks, sharing its tables (which
+  // never change) but with scratch space of its own
+  Deadlocks(Deadlocks deadlocks) {
+    this.width = deadlocks.width;
+    this.size = deadlocks.size;
+    this.walls = deadlocks.walls;
+    this.targetCells = deadlocks.targetCells;
+    this.distances = deadlocks.distances;
+    this.live = deadlocks.live;
+    this.targets = deadlocks.targets;
+    this.makeScratch();
+  }
+
+  // Makes the scratch space for the checks
+  void makeScratch() {
+    this.usable = new int[this.targets.length];
+    this.barrier = new boolean[this.size];
+    this.asWall = new boolean[this.size];
+    this.reached = new boolean[this.size];
+    this.queue = new int[this.size];
+  }
+
+  // Returns a copy of these deadlocks for another thread to use
+  Deadlocks copy() {
+    return new Deadlocks(this);
+  }
+
+  // Returns, for each cell, the fewest pushes that could bring an item there
+  // onto the given cell if nothing else were in the way, or FAR if none can.
+  // Works back from the given cell: a push from a cell (with room for the
+  // player behind it) can end on the next cell, or anywhere along the slide
+  // if that is ice, for one push.
+  int[] pushDistances(BoardGrid grid, int goal) {
+    int[] distances = new int[this.size];
+    Arrays.fill(distances, Deadlocks.FAR);
+    int[] queue = new int[this.size];
+    int head = 0;
+    int tail = 1;
+    queue[0] = goal;
+    distances[goal] = 0;
+    while (head < tail) {
+      int end = queue[head];
+      head += 1;
+      for (int direction = 0; direction < 4; direction += 1) {
+        int back = CellCodes.OPPOSITE[direction];
+        // The item was pushed from cell, sliding over any ice between there
+        // and end
+        int cell = this.neighbor(end, back);
+        while (cell != -1 && !this.walls[cell]) {
+          int player = this.neighbor(cell, back);
+          if (player != -1 && !this.walls[player] && distances[cell] == Deadlocks.FAR) {
+            distances[cell] = distances[end] + 1;
+            queue[tail] = cell;
+            tail += 1;
+          }
+          if (grid.grounds[cell] == CellCodes.ICE) {
+            cell = this.neighbor(cell, back);
+          }
+          else {
+            cell = -1;
+          }
+        }
+      }
+    }
+    return distances;
+  }
+
+  // Returns the cell next to the given one in the given direction, or -1 if
+  // that is off the grid
+  int neighbor(int cell, int direction) {
+    int row = cell / this.width + CellCodes.ROW_CHANGE[direction];
+    int col = cell % this.width + CellCodes.COL_CHANGE[direction];
+    if (row < 0 || col < 0 || col >= this.width || row * this.width + col >= this.size) {
+      return -1;
+    }
+    return row * this.width + col;
+  }
+
+  // Determines if a trophy of the given color in the given cell can never
+  // reach a target of its color. A color with no targets has no dead squares,
+  // since its trophies are never needed.
+  boolean isDeadSquare(ItemColor color, int cell) {
+    return this.targets[color.ordinal()] > 0 && !this.live[color.ordinal()][cell];
+  }
+
+  // Determines if the item in the given cell of the given grid can never be
+  // pushed again, with the player to move in the given cell
+  boolean isFrozen(BoardGrid grid, int cell, int player) {
+    return this.frozen(grid, cell, player, this.asWall);
+  }
+
+  // Determines if the item in the given cell can never be pushed again: it
+  // is blocked both across and along, where a wall, a player that never moves
+  // or another frozen item on either side blocks it. Cells marked in asWall
+  // are being checked further up and count as walls, which keeps this from
+  // going round in circles.
+  boolean frozen(BoardGrid grid, int cell, int player, boolean[] asWall) {
+    asWall[cell] = true;
+    boolean frozen = (this.solid(grid, this.neighbor(cell, CellCodes.LEFT), player, asWall)
+        || this.solid(grid, this.neighbor(cell, CellCodes.RIGHT), player, asWall))
+        && (this.solid(grid, this.neighbor(cell, CellCodes.UP), player, asWall)
+            || this.solid(grid, this.neighbor(cell, CellCodes.DOWN), player, asWall));
+    asWall[cell] = false;
+    return frozen;
+  }
+
+  // Determines if the given cell can never be moved into or out of
+  boolean solid(BoardGrid grid, int cell, int player, boolean[] asWall) {
+    if (cell == -1 || asWall[cell] || this.walls[cell]) {
+      return true;
+    }
+    byte content = grid.contents[cell];
+    return CellCodes.isPlayer(content) && cell != player
+        || CellCodes.canBePushed(content) && this.frozen(grid, cell, player, asWall);
+  }
+
+  // Determines if the given state can never be won, with the player to move
+  // in the given cell
+  boolean isDeadlocked(BoardGrid grid, int player) {
+    int colors = this.targets.length;
+    int[] usable = this.usable;
+    boolean[] barrier = this.barrier;
+    boolean[] asWall = this.asWall;
+    Arrays.fill(usable, 0);
+    for (int cell = 0; cell < this.size; cell += 1) {
+      byte content = grid.contents[cell];
+      byte ground = grid.grounds[cell];
+      if (CellCodes.canBePushed(content)) {
+        boolean frozen = this.frozen(grid, cell, player, asWall);
+        if (frozen && !CellCodes.completedCell(content, ground)) {
+          return true;
+        }
+        int color = content - CellCodes.TROPHY;
+        if (CellCodes.isTrophy(content) && (ground - CellCodes.TARGET == color
+            || !frozen && this.live[color][cell])) {
+          usable[color] += 1;
+        }
+        barrier[cell] = frozen;
+      }
+      else {
+        barrier[cell] = this.walls[cell] || CellCodes.isPlayer(content) && cell != player;
+      }
+    }
+    for (int color = 0; color < colors; color += 1) {
+      if (usable[color] < this.targets[color]) {
+        return true;
+      }
+    }
+    return player != -1 && this.sealedTarget(grid, player, barrier);
+  }
+
+  // Determines if a target that isn't satisfied is closed off from the
+  // player by the given barrier cells, so that nothing can ever reach it
+  boolean sealedTarget(BoardGrid grid, int player, boolean[] barrier) {
+    boolean[] reached = this.reached;
+    int[] queue = this.queue;
+    Arrays.fill(reached, false);
+    int head = 0;
+    int tail = 1;
+    queue[0] = player;
+    reached[player] = true;
+    while (head < tail) {
+      int cell = queue[head];
+      head += 1;
+      for (int direction = 0; direction < 4; direction += 1) {
+        int next = this.neighbor(cell, direction);
+        if (next != -1 && !reached[next] && !barrier[next]) {
+          reached[next] = true;
+          queue[tail] = next;
+          tail += 1;
+        }
+      }
+    }
+    for (int cell = 0; cell < this.size; cell += 1) {
+      if (!reached[cell] && !barrier[cell]
+          && !CellCodes.completedCell(grid.contents[cell], grid.grounds[cell])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Returns the level's cells as text, marking with x the cells that are dead
+  // for the given color
+  String deadSquares(BoardGrid grid, ItemColor color) {
+    char[] text = new char[this.size + grid.height - 1];
+    Arrays.fill(text, '\n');
+    for (int cell = 0; cell < this.size; cell += 1) {
+      char symbol;
+      if (this.walls[cell]) {
+        symbol = 'W';
+      }
+      else if (this.isDeadSquare(color, cell)) {
+        symbol = 'x';
+      }
+      else {
+        symbol = '_';
+      }
+      text[cell + cell / this.width] = symbol;
+    }
+    return new String(text);
+  }
+}
+
+// Examples for Deadlocks
+class ExamplesDeadlocks {
+  Utils utils = new Utils();
+
+  // test for the dead squares of each color
+  boolean testDeadSquares(Tester t) {
+    BoardGrid room = this.utils.initializeGrid("WWWWWW\nW____W\nW____W\nW____W\nWWWWWW",
+        "______\n______\n__R___\n______\n______");
+    BoardGrid ice = this.utils.initializeGrid("WWWWWWW\nW_____W\nWWWWWWW",
+        "_______\n_RII___\n_______");
+    BoardGrid hole = this.utils.initializeGrid("WWWWWW\nW_H__W\nWWWWWW",
+        "______\n_R____\n______");
+    Deadlocks roomDeadlocks = new Deadlocks(room);
+    return t.checkExpect(roomDeadlocks.deadSquares(room, ItemColor.RED),
+        "WWWWWW\nWxxxxW\nWx__xW\nWxxxxW\nWWWWWW")
+        && t.checkExpect(roomDeadlocks.isDeadSquare(ItemColor.RED, 7), true)
+        && t.checkExpect(roomDeadlocks.isDeadSquare(ItemColor.RED, 14), false)
+        // No targets are blue, so no blue trophy is ever needed
+        && t.checkExpect(roomDeadlocks.isDeadSquare(ItemColor.BLUE, 7), false)
+        // A push onto ice can end anywhere along the slide
+        && t.checkExpect(new Deadlocks(ice).deadSquares(ice, ItemColor.RED),
+            "WWWWWWW\nW____xW\nWWWWWWW")
+        // The hole might be filled first, so it doesn't stop pushes
+        && t.checkExpect(new Deadlocks(hole).deadSquares(hole, ItemColor.RED),
+            "WWWWWW\nW___xW\nWWWWWW");
+  }
+
+  // test for frozen items
+  boolean testFrozen(Tester t) {
+    BoardGrid grid = this.utils.initializeGrid("WWWWWW\nWrb__W\nW___BW\nW_>_<W\nWWWWWW",
+        "______\n______\n______\n______\n______");
+    Deadlocks deadlocks = new Deadlocks(grid);
+    return t.checkExpect(deadlocks.isFrozen(grid, 7, 20), true)
+        && t.checkExpect(deadlocks.isFrozen(grid, 8, 20), true)
+        // Another player never moves, so it blocks like a wall
+        && t.checkExpect(deadlocks.isFrozen(grid, 16, 20), true)
+        && t.checkExpect(deadlocks.isFrozen(grid, 16, 22), false);
+  }
+
+  // test for whole states that can't be won
+  boolean testIsDeadlocked(Tester t) {
+    String ground = "______\n______\n____R_\n______\n______";
+    BoardGrid fine = this.utils.initializeGrid("WWWWWW\nW____W\nW_r__W\nW_>__W\nWWWWWW", ground);
+    BoardGrid corner = this.utils.initializeGrid("WWWWWW\nWr___W\nW____W\nW_>__W\nWWWWWW",
+        ground);
+    BoardGrid boxOnTarget = this.utils.initializeGrid(
+        "WWWWWW\nW____W\nWr_WBW\nW_>WWW\nWWWWWW", ground);
+    BoardGrid wrongColor = this.utils.initializeGrid("WWWWWW\nW____W\nW_b__W\nW_>__W\nWWWWWW",
+        ground);
+    String twoTargets = "_______\n_______\n____R_R\n_______\n_______";
+    BoardGrid sealed = this.utils.initializeGrid(
+        "WWWWWWW\nW____WW\nW>rr_W_\nW____WW\nWWWWWWW", twoTargets);
+    BoardGrid open = this.utils.initializeGrid(
+        "WWWWWWW\nW____WW\nW>rr___\nW____WW\nWWWWWWW", twoTargets);
+    return t.checkExpect(new Deadlocks(fine).isDeadlocked(fine, 20), false)
+        && t.checkExpect(new Deadlocks(corner).isDeadlocked(corner, 20), true)
+        && t.checkExpect(new Deadlocks(boxOnTarget).isDeadlocked(boxOnTarget, 20), true)
+        && t.checkExpect(new Deadlocks(wrongColor).isDeadlocked(wrongColor, 20), true)
+        && t.checkExpect(new Deadlocks(sealed).isDeadlocked(sealed, 15), true)
+        && t.checkExpect(new Deadlocks(open).isDeadlocked(open, 15), false)
+        && t.checkExpect(new Deadlocks(open).isDeadlocked(open, -1), false);
+  }
+
+  // test that the checks reuse their scratch space, and that copies share the
+  // tables but not the scratch space
+  boolean testScratchSpace(Tester t) {
+    BoardGrid grid = new Board(TerminalPlay.DEFAULT_CONTENTS, TerminalPlay.DEFAULT_GROUND)
+        .grid();
+    Deadlocks deadlocks = new Deadlocks(grid);
+    int player = grid.firstPlayerCell();
+    for (int i = 0; i < 1000; i += 1) {
+      deadlocks.isDeadlocked(grid, player);
+    }
+    long before = Simulator.allocatedBytes();
+    boolean deadlocked = false;
+    for (int i = 0; i < 100000; i += 1) {
+      deadlocked = deadlocked || deadlocks.isDeadlocked(grid, player);
+    }
+    long allocated = Simulator.allocatedBytes() - before;
+    Deadlocks copy = deadlocks.copy();
+    // Reading the count costs a little, but far less than a byte per check
+    return t.checkExpect(before == -1 || allocated < 400000, true)
+        && t.checkExpect(deadlocked, false)
+        && t.checkExpect(copy.distances == deadlocks.distances, true)
+        && t.checkExpect(copy.live == deadlocks.live, true)
+        && t.checkExpect(copy.barrier == deadlocks.barrier, false)
+        && t.checkExpect(copy.isDeadlocked(grid, player), false);
+  }
+
+  // test that the solvers skip deadlocked states and still find the best moves
+  boolean testSolversUseDeadlocks(Tester t) {
+    Board intro = new Board(TerminalPlay.DEFAULT_CONTENTS, TerminalPlay.DEFAULT_GROUND);
+    Solver solver = new Solver(intro);
+    ParallelSolver parallel = new ParallelSolver(intro, 2);
+    Board stuck = new Board("WWWWWW\nWr___W\nW____W\nW_>__W\nWWWWWW",
+        "______\n______\n____R_\n______\n______");
+    Solver stuckSolver = new Solver(stuck);
+    return t.checkExpect(solver.solve().length(), 34)
+        && t.checkExpect(parallel.solve().length(), 34)
+        // Without the checks these took 948901 and 773436 states
+        && t.checkExpect(solver.nodes < 100000, true)
+        && t.checkExpect(parallel.size < 50000, true)
+        && t.checkExpect(stuckSolver.solve(), null)
+        && t.checkExpect(stuckSolver.nodes, 0L);
+  }
+}
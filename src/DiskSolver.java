@@ -0,0 +1,792 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import tester.*;
+
+// Finds a win with the fewest pushes, like PushSolver, for levels whose
+// states don't fit in memory. The search is breadth first over pushes, one
+// layer (every state the same number of pushes from the start) at a time,
+// and every layer lives in a file of packed states (see StateCodec) in a
+// directory on local disk. The states a layer reaches are gathered in memory
+// until a budget is used up, then sorted and written out as a run. Once the
+// layer is done, the runs are merged with the file of every state seen so
+// far, which is also sorted: states in a run that are also in that file are
+// dropped, and the rest make up the next layer and are merged into a new
+// file of states seen. The merge keeps the files in a heap ordered by the
+// state each is at, so each state costs a few comparisons however many runs
+// there are. So duplicates are found in one pass over the disk per
+// layer rather than by looking each state up as it is reached.
+//
+// After each layer a checkpoint file records how far the search got, so a
+// search that crashes or is stopped can be run again on the same directory
+// and carries on from the last layer finished. Once a win is found, the path
+// to it is found by going back through the layer files, and the walks
+// between pushes are filled back in as in PushSolver.
+//
+// Files are read and written through memory-mapped windows, a few at a time,
+// so the memory used is the budget plus those windows.
+//
+// Run with: java DiskSolver <contents file> <ground file> <directory> [memory in bytes]
+class DiskSolver {
+  // Memory for the states a layer reaches before they are written out, which
+  // can be set with -Dsokoban.memoryBytes=<bytes>
+  static final long DEFAULT_MEMORY_BYTES = Long.getLong("sokoban.memoryBytes", 64L << 20);
+  static final long DEFAULT_MAX_STATES = Long.MAX_VALUE; // states stored before giving up
+
+  Simulator sim; // plays the pushes of the state being expanded
+  Deadlocks deadlocks; // finds states that can't be won, which are skipped
+  StateCodec codec; // packs the states in the files
+  PlayerRegion here; // where the player can walk in the state being expanded
+  PlayerRegion next; // where the player can walk in a state just reached
+  String level; // describes the level, so a checkpoint of another one isn't resumed
+  Path directory; // where the files are kept
+  long[] start; // the start, packed with the player's own cell
+  int startPlayer; // cell the player starts in
+  long maxStates; // states stored before giving up
+
+  long[] buffer; // states the current layer has reached and not yet written out
+  int buffered; // number of states in buffer
+  long[] pivot; // copy of the state sorted around (see sort)
+  int runs; // number of runs written for the current layer
+  long reached; // number of states the current layer has reached so far
+  int layer; // pushes from the start to the states being expanded
+  long states; // number of states seen so far
+  int resumedFrom; // layer a checkpoint was resumed from, or -1
+  long[] winner; // the winning state, once reached
+  int status; // outcome once solve has been called (see Solver), or -1 before
+  String solution; // moves that win, once solved
+  int pushes; // number of pushes in the solution
+
+  // Convenience constructor with the default memory budget and no limit on
+  // states
+  DiskSolver(Board board, Path directory) {
+    this(board, directory, DiskSolver.DEFAULT_MEMORY_BYTES, DiskSolver.DEFAULT_MAX_STATES);
+  }
+
+  // Constructor for solving the given board with its files in the given
+  // directory, holding at most the given number of bytes of states in memory
+  // and giving up once the given number of states are stored. The board
+  // itself is not changed.
+  DiskSolver(Board board, Path directory, long memoryBytes, long maxStates) {
+    this.sim = new Simulator(board.grid().copy(), board.playerCell());
+    this.codec = new StateCodec(this.sim.grid, this.sim.playerCell);
+    int stateBytes = 8 * this.codec.words;
+    if (memoryBytes < stateBytes) {
+      throw new IllegalArgumentException("The solver must be allowed to hold a state in memory");
+    }
+    if (maxStates < 1) {
+      throw new IllegalArgumentException("The solver must be allowed to store a state");
+    }
+    this.deadlocks = this.sim.grid.deadlocks();
+    this.here = new PlayerRegion(this.sim.grid.contents.length);
+    this.next = new PlayerRegion(this.sim.grid.contents.length);
+    this.level = this.sim.contents().replace('\n', '/') + " "
+        + Arrays.hashCode(this.sim.grid.grounds);
+    this.directory = directory;
+    this.startPlayer = this.sim.playerCell;
+    this.start = new long[this.codec.words];
+    this.codec.encode(this.sim.grid, this.startPlayer, this.start, 0);
+    this.maxStates = maxStates;
+    int capacity = (int) Math.min(memoryBytes / stateBytes, Integer.MAX_VALUE / stateBytes);
+    this.buffer = new long[capacity * this.codec.words];
+    this.buffered = 0;
+    this.pivot = new long[this.codec.words];
+    this.runs = 0;
+    this.reached = 0;
+    this.layer = 0;
+    this.states = 0;
+    this.resumedFrom = -1;
+    this.winner = null;
+    this.status = -1;
+    this.solution = null;
+    this.pushes = 0;
+  }
+
+  // Returns moves that win the level with the fewest pushes, or null if it
+  // can't be won or the limit on states was reached first (see status).
+  // Carries on from the checkpoint in the directory, if there is one.
+  String solve() {
+    if (this.status != -1) {
+      return this.solution;
+    }
+    int start = this.sim.status();
+    if (start == Simulator.WON) {
+      this.status = Solver.SOLVED;
+      this.solution = "";
+      return this.solution;
+    }
+    if (start == Simulator.LOST
+        || this.deadlocks.isDeadlocked(this.sim.grid, this.sim.playerCell)) {
+      this.status = Solver.NO_SOLUTION;
+      return this.solution;
+    }
+    try {
+      Files.createDirectories(this.directory);
+      if (!this.resume()) {
+        this.begin();
+      }
+      while (this.status == -1) {
+        this.expandLayer();
+      }
+      if (this.status != Solver.GAVE_UP) {
+        if (this.status == Solver.SOLVED) {
+          this.solution = this.movesTo(this.winner);
+        }
+        this.deleteFiles();
+      }
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return this.solution;
+  }
+
+  // Returns the file with the given name in the directory
+  Path file(String name) {
+    return this.directory.resolve(name);
+  }
+
+  // Writes the start as the first layer and the states seen, and checkpoints
+  // it
+  void begin() throws IOException {
+    this.here.fill(this.sim);
+    long[] start = new long[this.codec.words];
+    this.pack(this.here, start, 0);
+    for (String name : new String[] { "layer-0", "closed-0" }) {
+      StateFile file = new StateFile(this.file(name), this.codec.words, true);
+      file.write(start, 0);
+      file.close();
+    }
+    this.layer = 0;
+    this.states = 1;
+    this.checkpoint();
+  }
+
+  // Records in the checkpoint file that every layer up to the current one is
+  // written. The file is written whole and then moved over the old one, so a
+  // crash leaves either the old checkpoint or the new one.
+  void checkpoint() throws IOException {
+    Path temporary = this.file("checkpoint.tmp");
+    List<String> lines = Arrays.asList(this.level, Integer.toString(this.layer),
+        Long.toString(this.states));
+    Files.write(temporary, lines, StandardCharsets.UTF_8);
+    Files.move(temporary, this.file("checkpoint"), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // Loads the checkpoint in the directory, if there is one, and returns
+  // whether there was
+  boolean resume() throws IOException {
+    Path checkpoint = this.file("checkpoint");
+    if (!Files.exists(checkpoint)) {
+      return false;
+    }
+    List<String> lines = Files.readAllLines(checkpoint, StandardCharsets.UTF_8);
+    if (lines.size() != 3 || !lines.get(0).equals(this.level)) {
+      throw new IllegalStateException("The directory holds a checkpoint of another level");
+    }
+    this.layer = Integer.parseInt(lines.get(1));
+    this.states = Long.parseLong(lines.get(2));
+    this.resumedFrom = this.layer;
+    return true;
+  }
+
+  // Packs the state on the simulator into the given array at the given
+  // place, with the player moved to the top-left cell of the given region
+  // unless the region has ice (see PushSolver)
+  void pack(PlayerRegion region, long[] out, int offset) {
+    int standIn = this.sim.playerCell;
+    if (!region.icy) {
+      standIn = region.min;
+    }
+    this.codec.encode(this.sim.grid, standIn, out, offset);
+  }
+
+  // Loads the state at the given place in the given array onto the simulator
+  void load(long[] state, int offset) {
+    int player = this.codec.player(state, offset);
+    this.codec.decode(state, offset, this.sim.grid, player);
+    this.sim.playerCell = player;
+  }
+
+  // Tries every push from every state in the current layer, writing the
+  // states reached out in runs, then merges them into the next layer. Sets
+  // status once the level is won, no states are left, or the limit on states
+  // is reached. The states reached count against the limit as they are
+  // reached, repeats and all, so a layer stops close to it.
+  void expandLayer() throws IOException {
+    this.buffered = 0;
+    this.runs = 0;
+    this.reached = 0;
+    StateFile layerFile = new StateFile(this.file("layer-" + this.layer), this.codec.words,
+        false);
+    long[] state = new long[this.codec.words];
+    while (this.winner == null && this.states + this.reached < this.maxStates
+        && layerFile.read(state, 0)) {
+      this.expand(state);
+    }
+    layerFile.close();
+    if (this.winner != null) {
+      this.status = Solver.SOLVED;
+      return;
+    }
+    if (this.states + this.reached >= this.maxStates) {
+      this.status = Solver.GAVE_UP;
+      return;
+    }
+    this.spill();
+    long added = this.merge();
+    for (int run = 0; run < this.runs; run += 1) {
+      Files.delete(this.file("run-" + run));
+    }
+    this.layer += 1;
+    this.states += added;
+    this.checkpoint();
+    Files.delete(this.file("closed-" + (this.layer - 1)));
+    if (added == 0) {
+      this.status = Solver.NO_SOLUTION;
+    }
+  }
+
+  // Tries every push from the region of the given state, adding the states
+  // reached to the buffer, and stops at the first that wins
+  void expand(long[] state) throws IOException {
+    this.load(state, 0);
+    this.here.fill(this.sim);
+    for (int i = 0; i < this.here.pushes && this.winner == null; i += 1) {
+      int cell = this.here.pushCells[i];
+      int direction = this.here.pushDirections[i];
+      this.sim.placePlayer(cell);
+      if (this.sim.move(direction)) {
+        int status = this.sim.status();
+        if (status == Simulator.WON) {
+          this.next.fill(this.sim);
+          this.winner = new long[this.codec.words];
+          this.pack(this.next, this.winner, 0);
+        }
+        else if (status == Simulator.ONGOING
+            && !this.deadlocks.isDeadlocked(this.sim.grid, this.sim.playerCell)) {
+          if (this.buffered * this.codec.words == this.buffer.length) {
+            this.spill();
+          }
+          this.next.fill(this.sim);
+          this.pack(this.next, this.buffer, this.buffered * this.codec.words);
+          this.buffered += 1;
+          this.reached += 1;
+        }
+        this.sim.undo();
+      }
+    }
+  }
+
+  // Sorts the buffer and writes it out as a run, without repeats
+  void spill() throws IOException {
+    if (this.buffered == 0) {
+      return;
+    }
+    int words = this.codec.words;
+    this.sort(0, this.buffered);
+    StateFile run = new StateFile(this.file("run-" + this.runs), words, true);
+    for (int i = 0; i < this.buffered; i += 1) {
+      if (i == 0 || StateFile.compare(this.buffer, i * words, this.buffer, (i - 1) * words,
+          words) != 0) {
+        run.write(this.buffer, i * words);
+      }
+    }
+    run.close();
+    this.runs += 1;
+    this.buffered = 0;
+  }
+
+  // Sorts the states in the buffer from the first given index up to (not
+  // including) the second
+  void sort(int from, int to) {
+    int words = this.codec.words;
+    while (to - from > 1) {
+      System.arraycopy(this.buffer, (from + to) / 2 * words, this.pivot, 0, words);
+      int low = from;
+      int high = to - 1;
+      while (low <= high) {
+        while (StateFile.compare(this.buffer, low * words, this.pivot, 0, words) < 0) {
+          low += 1;
+        }
+        while (StateFile.compare(this.buffer, high * words, this.pivot, 0, words) > 0) {
+          high -= 1;
+        }
+        if (low <= high) {
+          for (int w = 0; w < words; w += 1) {
+            long swap = this.buffer[low * words + w];
+            this.buffer[low * words + w] = this.buffer[high * words + w];
+            this.buffer[high * words + w] = swap;
+          }
+          low += 1;
+          high -= 1;
+        }
+      }
+      // Sorts the smaller part here and loops on the larger, so the stack
+      // stays shallow
+      if (high - from < to - low) {
+        this.sort(from, high + 1);
+        from = low;
+      }
+      else {
+        this.sort(low, to);
+        to = high + 1;
+      }
+    }
+  }
+
+  // Merges the runs of the current layer with the states seen before it,
+  // writing the states seen so far to a new file and the states not seen
+  // before to the next layer. Returns the number of those.
+  long merge() throws IOException {
+    int words = this.codec.words;
+    StateFile[] inputs = new StateFile[this.runs + 1];
+    inputs[0] = new StateFile(this.file("closed-" + this.layer), words, false);
+    for (int run = 0; run < this.runs; run += 1) {
+      inputs[run + 1] = new StateFile(this.file("run-" + run), words, false);
+    }
+    long[] heads = new long[inputs.length * words];
+    int[] heap = new int[inputs.length];
+    int live = 0;
+    for (int i = 0; i < inputs.length; i += 1) {
+      if (inputs[i].read(heads, i * words)) {
+        heap[live] = i;
+        live += 1;
+      }
+    }
+    for (int i = live / 2 - 1; i >= 0; i -= 1) {
+      this.siftDown(heap, live, heads, i);
+    }
+    StateFile nextLayer = new StateFile(this.file("layer-" + (this.layer + 1)), words, true);
+    StateFile closed = new StateFile(this.file("closed-" + (this.layer + 1)), words, true);
+    long[] least = new long[words];
+    long added = 0;
+    while (live > 0) {
+      System.arraycopy(heads, heap[0] * words, least, 0, words);
+      boolean seen = false;
+      while (live > 0 && StateFile.compare(heads, heap[0] * words, least, 0, words) == 0) {
+        int input = heap[0];
+        seen = seen || input == 0;
+        if (!inputs[input].read(heads, input * words)) {
+          live -= 1;
+          heap[0] = heap[live];
+        }
+        this.siftDown(heap, live, heads, 0);
+      }
+      closed.write(least, 0);
+      if (!seen) {
+        nextLayer.write(least, 0);
+        added += 1;
+      }
+    }
+    for (StateFile input : inputs) {
+      input.close();
+    }
+    nextLayer.close();
+    closed.close();
+    return added;
+  }
+
+  // Moves the file at the given place in the given heap of the given size
+  // down until the state it is at (in the given heads) is no greater than
+  // those of the files below it
+  void siftDown(int[] heap, int size, long[] heads, int at) {
+    int words = this.codec.words;
+    while (2 * at + 1 < size) {
+      int child = 2 * at + 1;
+      if (child + 1 < size && StateFile.compare(heads, heap[child + 1] * words, heads,
+          heap[child] * words, words) < 0) {
+        child += 1;
+      }
+      if (StateFile.compare(heads, heap[child] * words, heads, heap[at] * words, words) >= 0) {
+        return;
+      }
+      int swap = heap[at];
+      heap[at] = heap[child];
+      heap[child] = swap;
+      at = child;
+    }
+  }
+
+  // Returns the moves from the start to the given state, found by looking
+  // back through the layers for a state with a push that reaches it
+  String movesTo(long[] goal) throws IOException {
+    int words = this.codec.words;
+    int[] pushCells = new int[this.layer + 1];
+    int[] pushDirections = new int[this.layer + 1];
+    long[] target = goal.clone();
+    long[] state = new long[words];
+    long[] reached = new long[words];
+    for (int k = this.layer; k >= 0; k -= 1) {
+      StateFile layerFile = new StateFile(this.file("layer-" + k), words, false);
+      boolean found = false;
+      while (!found && layerFile.read(state, 0)) {
+        this.load(state, 0);
+        this.here.fill(this.sim);
+        for (int i = 0; i < this.here.pushes && !found; i += 1) {
+          this.sim.placePlayer(this.here.pushCells[i]);
+          if (this.sim.move(this.here.pushDirections[i])) {
+            this.next.fill(this.sim);
+            this.pack(this.next, reached, 0);
+            if (Arrays.equals(reached, target)) {
+              found = true;
+              pushCells[k] = this.here.pushCells[i];
+              pushDirections[k] = this.here.pushDirections[i];
+            }
+            this.sim.undo();
+          }
+        }
+      }
+      layerFile.close();
+      System.arraycopy(state, 0, target, 0, words);
+    }
+    this.pushes = this.layer + 1;
+    this.codec.decode(this.start, 0, this.sim.grid, this.startPlayer);
+    this.sim.playerCell = this.startPlayer;
+    StringBuilder moves = new StringBuilder();
+    for (int k = 0; k <= this.layer; k += 1) {
+      this.here.fill(this.sim);
+      moves.append(this.here.walkTo(pushCells[k])).append("UDLR".charAt(pushDirections[k]));
+      this.sim.placePlayer(pushCells[k]);
+      this.sim.move(pushDirections[k]);
+    }
+    return moves.toString();
+  }
+
+  // Deletes the files of the search, once it is over
+  void deleteFiles() throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory,
+        "{layer-*,closed-*,run-*,checkpoint}")) {
+      for (Path file : files) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  // Solves the level in the given files (contents then ground), keeping the
+  // search in the given directory, and prints moves that win it with the
+  // fewest pushes. Running it again on the same directory after it was
+  // stopped carries on where it left off.
+  public static void main(String[] args) throws IOException {
+    if (args.length != 3 && args.length != 4) {
+      System.out.println("Usage: java DiskSolver <contents file> <ground file> <directory> "
+          + "[memory in bytes]");
+      return;
+    }
+    long memoryBytes = DiskSolver.DEFAULT_MEMORY_BYTES;
+    if (args.length == 4) {
+      memoryBytes = Long.parseLong(args[3]);
+    }
+    Board board = new Board(TerminalPlay.readLevel(args[0]), TerminalPlay.readLevel(args[1]));
+    DiskSolver solver = new DiskSolver(board, Paths.get(args[2]), memoryBytes,
+        DiskSolver.DEFAULT_MAX_STATES);
+    String moves = solver.solve();
+    if (solver.status == Solver.SOLVED) {
+      System.out.println("Solved in " + solver.pushes + " pushes, " + moves.length()
+          + " moves: " + moves);
+    }
+    else {
+      System.out.println("No solution");
+    }
+  }
+}
+
+// A file of packed states, all the same number of longs, written or read
+// from start to end through a memory-mapped window that moves along the
+// file. Windows hold whole states, so no state is split between two.
+class StateFile {
+  static final int WINDOW_BYTES = 1 << 24; // most bytes mapped at a time
+
+  FileChannel channel; // the open file
+  boolean writing; // whether the file is being written rather than read
+  int words; // longs per state
+  long windowStates; // states per window
+  MappedByteBuffer window; // the part of the file mapped, or null before the first
+  long count; // states written so far, or in the file when reading
+  long read; // states read so far
+
+  // Constructor for writing a new file at the given path (replacing any
+  // there), or reading the one there, of states of the given number of longs
+  StateFile(Path path, int words, boolean writing) throws IOException {
+    this.writing = writing;
+    this.words = words;
+    this.windowStates = Math.max(1, StateFile.WINDOW_BYTES / (8 * words));
+    this.window = null;
+    this.read = 0;
+    if (writing) {
+      this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+      this.count = 0;
+    }
+    else {
+      this.channel = FileChannel.open(path, StandardOpenOption.READ);
+      this.count = this.channel.size() / (8 * words);
+    }
+  }
+
+  // Maps the window starting at the given state, writing out the one before
+  void map(long state) throws IOException {
+    long start = state * 8 * this.words;
+    long states = this.windowStates;
+    if (this.writing) {
+      if (this.window != null) {
+        this.window.force();
+      }
+    }
+    else {
+      states = Math.min(states, this.count - state);
+    }
+    this.window = this.channel.map(this.writing ? FileChannel.MapMode.READ_WRITE
+        : FileChannel.MapMode.READ_ONLY, start, states * 8 * this.words);
+    this.window.order(ByteOrder.nativeOrder());
+  }
+
+  // Writes the state at the given place in the given array after the ones
+  // written so far
+  void write(long[] state, int offset) throws IOException {
+    if (this.window == null || !this.window.hasRemaining()) {
+      this.map(this.count);
+    }
+    for (int i = 0; i < this.words; i += 1) {
+      this.window.putLong(state[offset + i]);
+    }
+    this.count += 1;
+  }
+
+  // Reads the next state into the given array at the given place. Returns
+  // false, reading nothing, once every state has been read.
+  boolean read(long[] state, int offset) throws IOException {
+    if (this.read == this.count) {
+      return false;
+    }
+    if (this.window == null || !this.window.hasRemaining()) {
+      this.map(this.read);
+    }
+    for (int i = 0; i < this.words; i += 1) {
+      state[offset + i] = this.window.getLong();
+    }
+    this.read += 1;
+    return true;
+  }
+
+  // Closes the file. A file being written is cut to the states written and
+  // made sure to be on disk.
+  void close() throws IOException {
+    if (this.writing) {
+      if (this.window != null) {
+        this.window.force();
+      }
+      this.window = null;
+      this.channel.truncate(this.count * 8 * this.words);
+      this.channel.force(true);
+    }
+    this.channel.close();
+  }
+
+  // Compares the state at the given place in the first given array with the
+  // one at the given place in the second, each of the given number of longs,
+  // returning a negative number, zero or a positive number as the first
+  // sorts before, the same as or after the second
+  static int compare(long[] left, int leftOffset, long[] right, int rightOffset, int words) {
+    for (int i = 0; i < words; i += 1) {
+      int order = Long.compare(left[leftOffset + i], right[rightOffset + i]);
+      if (order != 0) {
+        return order;
+      }
+    }
+    return 0;
+  }
+}
+
+// Examples for DiskSolver and StateFile
+class ExamplesDiskSolver {
+  Board intro = new Board(TerminalPlay.DEFAULT_CONTENTS, TerminalPlay.DEFAULT_GROUND);
+
+  // Returns a new empty directory for a test's files
+  Path directory() {
+    try {
+      return Files.createTempDirectory("solve");
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Deletes the given directory of a test's files, along with the files
+  void delete(Path directory) {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        Files.delete(file);
+      }
+      Files.delete(directory);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // test for writing and reading back files of states across windows
+  boolean testStateFile(Tester t) throws IOException {
+    Path directory = this.directory();
+    Path path = directory.resolve("states");
+    int words = StateFile.WINDOW_BYTES / 8 / 3 + 1;
+    StateFile out = new StateFile(path, words, true);
+    long[] state = new long[words];
+    for (int i = 0; i < 5; i += 1) {
+      state[0] = i;
+      state[words - 1] = -i;
+      out.write(state, 0);
+    }
+    out.close();
+    StateFile in = new StateFile(path, words, false);
+    long[] back = new long[words * 6];
+    boolean all = true;
+    for (int i = 0; i < 5; i += 1) {
+      all = all && in.read(back, i * words);
+    }
+    boolean past = in.read(back, 5 * words);
+    in.close();
+    long size = Files.size(path);
+    this.delete(directory);
+    return t.checkExpect(all, true) && t.checkExpect(past, false)
+        && t.checkExpect(in.count, 5L) && t.checkExpect(out.windowStates, 2L)
+        && t.checkExpect(size, 5L * 8 * words)
+        && t.checkExpect(back[3 * words], 3L) && t.checkExpect(back[4 * words + words - 1], -4L)
+        && t.checkExpect(StateFile.compare(new long[] { 1, 5 }, 0, new long[] { 0, 1, 6 }, 1, 2),
+            -1)
+        && t.checkExpect(StateFile.compare(new long[] { 1, 5 }, 0, new long[] { 1, 5 }, 0, 2),
+            0);
+  }
+
+  // test for sorting and writing out the states of a layer without repeats
+  boolean testSpill(Tester t) throws IOException {
+    Path directory = this.directory();
+    DiskSolver solver = new DiskSolver(this.intro, directory, 1 << 10, 10);
+    long[] states = { 7, 0, 3, 0, 9, -2, 3, 0, -1, 4 };
+    System.arraycopy(states, 0, solver.buffer, 0, states.length);
+    solver.buffered = 5;
+    solver.spill();
+    StateFile run = new StateFile(directory.resolve("run-0"), 2, false);
+    long[] back = new long[8];
+    for (int i = 0; i < 4; i += 1) {
+      run.read(back, i * 2);
+    }
+    run.close();
+    this.delete(directory);
+    return t.checkExpect(solver.codec.words, 2) && t.checkExpect(solver.runs, 1)
+        && t.checkExpect(solver.buffered, 0) && t.checkExpect(run.count, 4L)
+        && t.checkExpect(back, new long[] { -1, 4, 3, 0, 7, 0, 9, -2 });
+  }
+
+  // Writes a file of states of two longs in the given directory with the
+  // given name, the first long of each state given and the second 0
+  void write(Path directory, String name, long... firsts) throws IOException {
+    StateFile file = new StateFile(directory.resolve(name), 2, true);
+    for (long first : firsts) {
+      file.write(new long[] { first, 0 }, 0);
+    }
+    file.close();
+  }
+
+  // Returns the first longs of the states in the file in the given directory
+  // with the given name, of at most 10 states of two longs
+  long[] read(Path directory, String name) throws IOException {
+    StateFile file = new StateFile(directory.resolve(name), 2, false);
+    long[] state = new long[2];
+    long[] firsts = new long[10];
+    int count = 0;
+    while (file.read(state, 0)) {
+      firsts[count] = state[0];
+      count += 1;
+    }
+    file.close();
+    return Arrays.copyOf(firsts, count);
+  }
+
+  // test that merging runs drops the states seen before and the states in
+  // more than one run, whatever run each comes from
+  boolean testMerge(Tester t) throws IOException {
+    Path directory = this.directory();
+    DiskSolver solver = new DiskSolver(this.intro, directory, 1 << 10, 100);
+    this.write(directory, "closed-0", 1, 5);
+    this.write(directory, "run-0", 1, 3, 7);
+    this.write(directory, "run-1", 3, 4, 7);
+    this.write(directory, "run-2", 0, 5, 9);
+    this.write(directory, "run-3");
+    solver.runs = 4;
+    long added = solver.merge();
+    long[] next = this.read(directory, "layer-1");
+    long[] closed = this.read(directory, "closed-1");
+    this.delete(directory);
+    return t.checkExpect(solver.codec.words, 2) && t.checkExpect(added, 5L)
+        && t.checkExpect(next, new long[] { 0, 3, 4, 7, 9 })
+        && t.checkExpect(closed, new long[] { 0, 1, 3, 4, 5, 7, 9 });
+  }
+
+  // test that spilling a layer's states in many small runs, which repeat
+  // each other's states, finds the same states and the same win as holding
+  // each layer in memory, and leaves no files behind
+  boolean testSolve(Tester t) {
+    Path smallDirectory = this.directory();
+    DiskSolver small = new DiskSolver(this.intro, smallDirectory, 1 << 8, 100000);
+    String smallMoves = small.solve();
+    int left = smallDirectory.toFile().list().length;
+    this.delete(smallDirectory);
+    Path largeDirectory = this.directory();
+    DiskSolver large = new DiskSolver(this.intro, largeDirectory, 64L << 20, 100000);
+    String largeMoves = large.solve();
+    this.delete(largeDirectory);
+    PushSolver pushSolver = new PushSolver(this.intro);
+    pushSolver.solve();
+    // 256 bytes hold 16 states, so the last layer alone spills 185 runs
+    return t.checkExpect(small.runs > 100, true) && t.checkExpect(large.runs, 0)
+        && t.checkExpect(small.status, Solver.SOLVED) && t.checkExpect(left, 0)
+        && t.checkExpect(small.states, large.states) && t.checkExpect(smallMoves, largeMoves)
+        && t.checkExpect(small.pushes, pushSolver.pushes)
+        && t.checkExpect(new PlayLevel(this.intro).replay(smallMoves).board.levelWon(), true);
+  }
+
+  // test that a search stopped partway carries on from its checkpoint
+  boolean testResume(Tester t) throws IOException {
+    Path directory = this.directory();
+    DiskSolver stopped = new DiskSolver(this.intro, directory, 1 << 12, 500);
+    stopped.solve();
+    // Leftovers of a layer that was cut short are written over
+    Files.write(directory.resolve("run-0"), new byte[] { 1, 2, 3 });
+    DiskSolver resumed = new DiskSolver(this.intro, directory, 1 << 12, 100000);
+    String moves = resumed.solve();
+    DiskSolver other = new DiskSolver(new Board("WWWWW\nW>r_W\nWWWWW",
+        "_____\n___R_\n_____"), directory, 1 << 12, 100);
+    other.solve();
+    Files.write(directory.resolve("checkpoint"), Arrays.asList("other", "0", "1"));
+    boolean refused = t.checkException(
+        new IllegalStateException("The directory holds a checkpoint of another level"),
+        new DiskSolver(this.intro, directory, 1 << 12, 100), "solve");
+    this.delete(directory);
+    return refused && t.checkExpect(stopped.status, Solver.GAVE_UP)
+        && t.checkExpect(stopped.solution, null)
+        // The layer stops within one state's pushes of the limit
+        && t.checkExpect(stopped.states + stopped.reached - 500 < 10, true)
+        && t.checkExpect(resumed.resumedFrom, stopped.layer)
+        && t.checkExpect(resumed.status, Solver.SOLVED)
+        && t.checkExpect(resumed.pushes, 12)
+        && t.checkExpect(new PlayLevel(this.intro).replay(moves).board.levelWon(), true)
+        && t.checkExpect(other.pushes, 1)
+        && t.checkConstructorException(
+            new IllegalArgumentException("The solver must be allowed to hold a state in memory"),
+            "DiskSolver", this.intro, directory, 8L, 100L);
+  }
+}
@@ -0,0 +1,283 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import javax.imageio.ImageIO;
+import tester.*;
+
+// Draws boards straight into BufferedImages, without javalib or a window, so
+// that boards and replays can be saved as PNG files in batches (for example
+// on a machine run with -Djava.awt.headless=true). Each kind of cell is drawn
+// once the way DrawCell draws it (its content centered on top of its ground,
+// over a white background) and kept as a tile of pixels, so drawing a board
+// only copies tiles.
+class HeadlessRenderer {
+  static final int CONTENT_KINDS = CellCodes.PLAYER + 4; // number of content codes
+  static final int GROUND_KINDS = CellCodes.TARGET + 4; // number of ground codes
+
+  // Images read from the images directory, by file name
+  static final HashMap<String, BufferedImage> LOADED = new HashMap<String, BufferedImage>();
+
+  int tileSize; // size of a cell in pixels
+  int[][] tiles; // pixels of each kind of cell, row by row, by content * GROUND_KINDS + ground
+  BufferedImage canvas; // image reused by render while boards stay the same size
+
+  // Convenience constructor for cells drawn at full size
+  HeadlessRenderer() {
+    this(Viewport.CELL_SIZE);
+  }
+
+  // Constructor for cells drawn at the given size, such as for thumbnails
+  HeadlessRenderer(int tileSize) {
+    if (tileSize < 1) {
+      throw new IllegalArgumentException("Tile size must be positive");
+    }
+    this.tileSize = tileSize;
+    this.tiles = new int[CONTENT_KINDS * GROUND_KINDS][];
+    for (int content = 0; content < CONTENT_KINDS; content += 1) {
+      for (int ground = 0; ground < GROUND_KINDS; ground += 1) {
+        BufferedImage tile = this.scale(
+            HeadlessRenderer.drawCell((byte) content, (byte) ground), tileSize);
+        this.tiles[content * GROUND_KINDS + ground] = tile.getRGB(0, 0, tileSize, tileSize, null,
+            0, tileSize);
+      }
+    }
+    this.canvas = null;
+  }
+
+  // Returns the image in the given file, reading it the first time it is
+  // asked for
+  static BufferedImage load(String file) {
+    BufferedImage image = LOADED.get(file);
+    if (image == null) {
+      try {
+        image = ImageIO.read(new File(file));
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if (image == null) {
+        throw new IllegalArgumentException("Not an image: " + file);
+      }
+      LOADED.put(file, image);
+    }
+    return image;
+  }
+
+  // Draws a full size cell with the given content and ground codes
+  static BufferedImage drawCell(byte content, byte ground) {
+    int size = Viewport.CELL_SIZE;
+    BufferedImage cell = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = cell.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    g.setColor(Color.WHITE);
+    g.fillRect(0, 0, size, size);
+    if (CellCodes.isTarget(ground)) {
+      g.setColor(ItemColor.values()[ground - CellCodes.TARGET].drawColor());
+      g.fillOval(0, 0, size, size);
+    }
+    else if (CellCodes.groundFile(ground) != null) {
+      HeadlessRenderer.drawCentered(g, HeadlessRenderer.load(CellCodes.groundFile(ground)));
+    }
+    if (CellCodes.contentFile(content) != null) {
+      HeadlessRenderer.drawCentered(g, HeadlessRenderer.load(CellCodes.contentFile(content)));
+    }
+    g.dispose();
+    return cell;
+  }
+
+  // Draws the given image in the middle of a full size cell
+  static void drawCentered(Graphics2D g, BufferedImage image) {
+    g.drawImage(image, (Viewport.CELL_SIZE - image.getWidth()) / 2,
+        (Viewport.CELL_SIZE - image.getHeight()) / 2, null);
+  }
+
+  // Returns the given full size cell scaled to the given size
+  BufferedImage scale(BufferedImage cell, int size) {
+    if (size == cell.getWidth()) {
+      return cell;
+    }
+    BufferedImage scaled = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = scaled.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    g.drawImage(cell, 0, 0, size, size, null);
+    g.dispose();
+    return scaled;
+  }
+
+  // Draws the given board. The image returned is reused by the next call for
+  // a board of the same size, so it must be saved or copied before then.
+  BufferedImage render(Board board) {
+    return this.render(board.grid());
+  }
+
+  // Draws the given grid. The image returned is reused by the next call for
+  // a grid of the same size, so it must be saved or copied before then.
+  BufferedImage render(BoardGrid grid) {
+    int width = grid.width * this.tileSize;
+    int height = grid.height * this.tileSize;
+    if (this.canvas == null || this.canvas.getWidth() != width
+        || this.canvas.getHeight() != height) {
+      this.canvas = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+    this.drawInto(grid, this.canvas, 0, 0);
+    return this.canvas;
+  }
+
+  // Draws the given grid into the given image with its top left corner at the
+  // given pixel, by copying each cell's tile a row of pixels at a time
+  void drawInto(BoardGrid grid, BufferedImage image, int left, int top) {
+    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    int stride = image.getWidth();
+    int size = this.tileSize;
+    for (int row = 0; row < grid.height; row += 1) {
+      for (int col = 0; col < grid.width; col += 1) {
+        int index = grid.index(row, col);
+        int[] tile = this.tiles[grid.contents[index] * GROUND_KINDS + grid.grounds[index]];
+        int start = (top + row * size) * stride + left + col * size;
+        for (int y = 0; y < size; y += 1) {
+          System.arraycopy(tile, y * size, pixels, start + y * stride, size);
+        }
+      }
+    }
+  }
+
+  // Draws the given boards as thumbnails on one sheet, the given number to a
+  // row, each in a slot as big as the biggest board plus a cell of space
+  BufferedImage contactSheet(ArrayList<Board> boards, int columns) {
+    if (columns < 1) {
+      throw new IllegalArgumentException("A contact sheet needs at least one column");
+    }
+    int slotWidth = 0;
+    int slotHeight = 0;
+    for (Board board : boards) {
+      BoardGrid grid = board.grid();
+      slotWidth = Math.max(slotWidth, (grid.width + 1) * this.tileSize);
+      slotHeight = Math.max(slotHeight, (grid.height + 1) * this.tileSize);
+    }
+    int rows = (boards.size() + columns - 1) / columns;
+    BufferedImage sheet = new BufferedImage(Math.max(1, columns * slotWidth),
+        Math.max(1, rows * slotHeight), BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = sheet.createGraphics();
+    g.setColor(Color.WHITE);
+    g.fillRect(0, 0, sheet.getWidth(), sheet.getHeight());
+    g.dispose();
+    for (int i = 0; i < boards.size(); i += 1) {
+      BoardGrid grid = boards.get(i).grid();
+      // Centers each board in its slot
+      int left = (i % columns) * slotWidth + (slotWidth - grid.width * this.tileSize) / 2;
+      int top = (i / columns) * slotHeight + (slotHeight - grid.height * this.tileSize) / 2;
+      this.drawInto(grid, sheet, left, top);
+    }
+    return sheet;
+  }
+
+  // Saves the given image as a PNG file
+  void writePng(BufferedImage image, File file) {
+    try {
+      ImageIO.write(image, "png", file);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Saves a frame of the given board before any moves and after each of the
+  // given moves (player direction characters: ^, v, <, >) as frame0000.png,
+  // frame0001.png and so on in the given directory. Returns the number of
+  // frames saved.
+  int exportReplay(Board start, String moves, File directory) {
+    Board board = start;
+    this.writePng(this.render(board), new File(directory, "frame0000.png"));
+    for (int i = 0; i < moves.length(); i += 1) {
+      Direction direction = Direction.ofPlayer(moves.substring(i, i + 1));
+      board = board.movePlayer(direction.ordinal());
+      this.writePng(this.render(board), new File(directory, String.format("frame%04d.png", i + 1)));
+    }
+    return moves.length() + 1;
+  }
+}
+
+// Examples for HeadlessRenderer
+class ExamplesHeadlessRenderer {
+  Board small = new Board("WWWW\nW>_W\nWWWW", "____\n__R_\n____");
+  Board wide = new Board("WWWWWW\nW>__bW\nWWWWWW", "______\n__I_R_\n______");
+
+  // test for drawing boards
+  boolean testRender(Tester t) {
+    HeadlessRenderer renderer = new HeadlessRenderer();
+    BufferedImage image = renderer.render(this.small);
+    BufferedImage wall = HeadlessRenderer.load("./images/Wall.png");
+    return t.checkExpect(image.getWidth(), 240) && t.checkExpect(image.getHeight(), 180)
+        && t.checkExpect(image.getRGB(30, 30), wall.getRGB(30, 30))
+        // The player image is smaller than a cell, so the cell's corner is ground
+        && t.checkExpect(image.getRGB(61, 61), Color.WHITE.getRGB())
+        && t.checkExpect(image.getRGB(150, 90), Color.RED.getRGB());
+  }
+
+  // test that the image is reused while boards stay the same size
+  boolean testRenderReuse(Tester t) {
+    HeadlessRenderer renderer = new HeadlessRenderer();
+    BufferedImage first = renderer.render(this.small);
+    BufferedImage second = renderer.render(this.small.movePlayerRight());
+    BufferedImage third = renderer.render(this.wide);
+    return t.checkExpect(first == second, true) && t.checkExpect(second == third, false)
+        && t.checkExpect(third.getWidth(), 360);
+  }
+
+  // test for thumbnails and contact sheets
+  boolean testContactSheet(Tester t) {
+    HeadlessRenderer thumbs = new HeadlessRenderer(6);
+    ArrayList<Board> boards = new ArrayList<Board>();
+    boards.add(this.small);
+    boards.add(this.wide);
+    boards.add(this.small);
+    BufferedImage sheet = thumbs.contactSheet(boards, 2);
+    return t.checkExpect(thumbs.render(this.wide).getWidth(), 36)
+        && t.checkExpect(sheet.getWidth(), 2 * 42) && t.checkExpect(sheet.getHeight(), 2 * 24)
+        && t.checkExpect(sheet.getRGB(0, 0), Color.WHITE.getRGB());
+  }
+
+  // test for the exceptions thrown by HeadlessRenderer
+  boolean testHeadlessExceptions(Tester t) {
+    HeadlessRenderer renderer = new HeadlessRenderer(4);
+    return t.checkConstructorException(
+        new IllegalArgumentException("Tile size must be positive"), "HeadlessRenderer", 0)
+        && t.checkException(
+            new IllegalArgumentException("A contact sheet needs at least one column"), renderer,
+            "contactSheet", new ArrayList<Board>(), 0);
+  }
+
+  // test for saving frames of a replay as PNG files
+  boolean testExportReplay(Tester t) {
+    File directory;
+    try {
+      directory = java.nio.file.Files.createTempDirectory("replay").toFile();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    HeadlessRenderer renderer = new HeadlessRenderer(10);
+    int frames = renderer.exportReplay(this.wide, ">><", directory);
+    String lastFile = new File(directory, "frame0003.png").getPath();
+    BufferedImage last = HeadlessRenderer.load(lastFile);
+    boolean written = new File(directory, "frame0002.png").exists();
+    boolean result = t.checkExpect(frames, 4) && t.checkExpect(written, true)
+        && t.checkExpect(last.getWidth(), 60)
+        && t.checkException(new IllegalArgumentException("Invalid player direction"), renderer,
+            "exportReplay", this.wide, "x", directory);
+    for (File frame : directory.listFiles()) {
+      frame.delete();
+    }
+    directory.delete();
+    HeadlessRenderer.LOADED.remove(lastFile);
+    return result;
+  }
+}
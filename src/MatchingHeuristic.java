@@ -0,0 +1,451 @@
+import java.util.Arrays;
+import tester.*;
+
+// Estimates the moves still needed to win a level, for the Solver. Each
+// target needs a trophy of its color. On a level without ice each move
+// pushes at most one item one push along, so the fewest pushes that could put
+// a different trophy of the right color on every target is a lower bound on
+// the moves left. Push distances come from Deadlocks. Boxes never need to go
+// anywhere, so they don't count. Before any of those pushes the player has to
+// walk up to one of the trophies, which adds the moves of the shortest such
+// walk.
+//
+// On ice that bound is too high: a player sliding on ice pushes whatever
+// stops it, and if it is still on ice after the push it slides on and can
+// push the same item again, or another one, all in one move. An item only
+// ever moves in the direction of the move, so there each move is taken to
+// carry an item any distance in a straight line (see moveDistances). Since
+// one move can carry several items, only the target that needs the most such
+// moves counts, over all colors, and the walk is added to that.
+//
+// Without ice the fewest pushes are found for each color separately by
+// pairing its targets with its trophies using the Hungarian algorithm. A move
+// that changes no trophy of a color leaves that color's cost as it was, so
+// the solver only works out again the colors the last move changed.
+class MatchingHeuristic {
+  static final int UNREACHABLE = Integer.MAX_VALUE; // estimate for a state that can't be won
+
+  Deadlocks deadlocks; // push distances for the level
+  int[][] targets; // per color, index (see Deadlocks) of each of its targets
+  boolean slides; // whether the level has ice that isn't under a wall
+  int[][] distances; // per target then cell, least cost to bring an item there onto it
+
+  // Scratch space for pairing one color, big enough for any color
+  int[] trophyCells; // cell of each trophy of the color
+  int[] costs; // per target then trophy (both from 1), pushes to pair them
+  int[] rowPotentials; // per target (from 1), potential of the target
+  int[] columnPotentials; // per trophy (from 1), potential of the trophy
+  int[] paired; // per trophy (from 1), target paired with it, or 0
+  int[] previous; // per trophy (from 1), trophy before it on the path being grown
+  int[] slack; // per trophy (from 1), least reduced cost to it so far
+  boolean[] used; // per trophy (from 1), whether it is on the path being grown
+
+  // Scratch space for finding the shortest walk
+  int[] walkQueue; // cells to walk on from, in order
+  int[] walked; // per cell, moves to walk there plus 1 if reached in this walk, or else 0
+
+  // Constructor for estimating states of the given grid's level
+  MatchingHeuristic(BoardGrid grid) {
+    this.deadlocks = grid.deadlocks();
+    this.slides = false;
+    for (int i = 0; i < grid.contents.length; i += 1) {
+      this.slides = this.slides || grid.grounds[i] == CellCodes.ICE && !this.deadlocks.walls[i];
+    }
+    if (this.slides) {
+      this.distances = new int[this.deadlocks.targetCells.length][];
+      for (int target = 0; target < this.distances.length; target += 1) {
+        this.distances[target] = this.moveDistances(this.deadlocks.targetCells[target]);
+      }
+    }
+    else {
+      this.distances = this.deadlocks.distances;
+    }
+    int colors = ItemColor.values().length;
+    this.targets = new int[colors][];
+    int[] trophies = new int[colors];
+    for (int i = 0; i < grid.contents.length; i += 1) {
+      if (CellCodes.isTrophy(grid.contents[i])) {
+        trophies[grid.contents[i] - CellCodes.TROPHY] += 1;
+      }
+    }
+    int mostTargets = 0;
+    int mostTrophies = 0;
+    for (int color = 0; color < colors; color += 1) {
+      this.targets[color] = new int[this.deadlocks.targets[color]];
+      mostTargets = Math.max(mostTargets, this.targets[color].length);
+      mostTrophies = Math.max(mostTrophies, trophies[color]);
+    }
+    int[] found = new int[colors];
+    for (int target = 0; target < this.deadlocks.targetCells.length; target += 1) {
+      int color = grid.grounds[this.deadlocks.targetCells[target]] - CellCodes.TARGET;
+      this.targets[color][found[color]] = target;
+      found[color] += 1;
+    }
+    // Trophies are never made, only lost in holes, so there are never more
+    // of a color than at the start
+    this.trophyCells = new int[mostTrophies + 1];
+    this.costs = new int[(mostTargets + 1) * (mostTrophies + 1)];
+    this.rowPotentials = new int[mostTargets + 1];
+    this.columnPotentials = new int[mostTrophies + 1];
+    this.paired = new int[mostTrophies + 1];
+    this.previous = new int[mostTrophies + 1];
+    this.slack = new int[mostTrophies + 1];
+    this.used = new boolean[mostTrophies + 1];
+    this.walkQueue = new int[grid.contents.length];
+    this.walked = new int[grid.contents.length];
+  }
+
+  // Returns a lower bound on the moves needed to win from the given state,
+  // with the player in the given cell, or UNREACHABLE if it can't be won
+  int estimate(BoardGrid grid, int player) {
+    int total = 0;
+    int needed = 0;
+    for (int color = 0; color < this.targets.length; color += 1) {
+      int cost = this.colorCost(grid, color);
+      if (cost == MatchingHeuristic.UNREACHABLE) {
+        return MatchingHeuristic.UNREACHABLE;
+      }
+      if (cost > 0) {
+        needed |= 1 << color;
+      }
+      total = this.combine(total, cost);
+    }
+    return this.addWalk(total, grid, player, needed);
+  }
+
+  // Returns the cost of the colors so far combined with the given cost of
+  // one more color: their sum, or on ice the larger of them
+  int combine(int total, int cost) {
+    if (this.slides) {
+      return Math.max(total, cost);
+    }
+    else {
+      return total + cost;
+    }
+  }
+
+  // Returns, for each cell, the fewest moves that could bring an item there
+  // onto the given cell on this level, or FAR if none can. Works back from
+  // the given cell like Deadlocks.pushDistances, but one move can carry the
+  // item any distance in a straight line, so long as it starts with room for
+  // the player behind it and crosses no wall.
+  int[] moveDistances(int goal) {
+    Deadlocks deadlocks = this.deadlocks;
+    int[] distances = new int[deadlocks.size];
+    Arrays.fill(distances, Deadlocks.FAR);
+    int[] queue = new int[deadlocks.size];
+    int head = 0;
+    int tail = 1;
+    queue[0] = goal;
+    distances[goal] = 0;
+    while (head < tail) {
+      int end = queue[head];
+      head += 1;
+      for (int direction = 0; direction < 4; direction += 1) {
+        int back = CellCodes.OPPOSITE[direction];
+        int cell = deadlocks.neighbor(end, back);
+        while (cell != -1 && !deadlocks.walls[cell]) {
+          int player = deadlocks.neighbor(cell, back);
+          if (player != -1 && !deadlocks.walls[player] && distances[cell] == Deadlocks.FAR) {
+            distances[cell] = distances[end] + 1;
+            queue[tail] = cell;
+            tail += 1;
+          }
+          cell = deadlocks.neighbor(cell, back);
+        }
+      }
+    }
+    return distances;
+  }
+
+  // Returns the given number of pushes plus the shortest walk from the given
+  // player cell to a trophy of one of the colors in the given bit set, which
+  // are the colors that still need pushes, or UNREACHABLE if that can't be
+  // won
+  int addWalk(int pushes, BoardGrid grid, int player, int needed) {
+    if (pushes == MatchingHeuristic.UNREACHABLE || needed == 0) {
+      return pushes;
+    }
+    int walk = this.walk(grid, player, needed);
+    if (walk == MatchingHeuristic.UNREACHABLE) {
+      return MatchingHeuristic.UNREACHABLE;
+    }
+    return pushes + walk;
+  }
+
+  // Returns the fewest moves the player in the given cell needs to get next
+  // to a trophy of one of the colors in the given bit set, or UNREACHABLE if
+  // none can be reached. Items are walked through, since they might be moved
+  // out of the way, and a move onto ice can end anywhere along the slide.
+  int walk(BoardGrid grid, int player, int needed) {
+    int[] queue = this.walkQueue;
+    Arrays.fill(this.walked, 0);
+    int head = 0;
+    int tail = 1;
+    queue[0] = player;
+    this.walked[player] = 1;
+    Deadlocks deadlocks = this.deadlocks;
+    while (head < tail) {
+      int from = queue[head];
+      head += 1;
+      int moves = this.walked[from];
+      for (int direction = 0; direction < 4; direction += 1) {
+        int cell = deadlocks.neighbor(from, direction);
+        while (cell != -1 && !deadlocks.walls[cell]) {
+          if (this.walked[cell] == 0) {
+            byte content = grid.contents[cell];
+            if (CellCodes.isTrophy(content)
+                && (needed & 1 << (content - CellCodes.TROPHY)) != 0) {
+              // The move onto the trophy's cell is the first push
+              return moves - 1;
+            }
+            this.walked[cell] = moves + 1;
+            queue[tail] = cell;
+            tail += 1;
+          }
+          if (grid.grounds[cell] == CellCodes.ICE) {
+            cell = deadlocks.neighbor(cell, direction);
+          }
+          else {
+            cell = -1;
+          }
+        }
+      }
+    }
+    return MatchingHeuristic.UNREACHABLE;
+  }
+
+  // Determines if the given changes moved, took away or brought a trophy of
+  // the given color
+  boolean touches(MoveDelta delta, int color) {
+    byte trophy = (byte) (CellCodes.TROPHY + color);
+    for (int i = 0; i < delta.size; i += 1) {
+      if (delta.before[i] == trophy || delta.after[i] == trophy) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Returns the fewest pushes that could put a different trophy of the given
+  // color on each of its targets in the given state (on ice, the most moves
+  // any one of its targets needs), or UNREACHABLE if they can't all be covered
+  int colorCost(BoardGrid grid, int color) {
+    int[] colorTargets = this.targets[color];
+    int rows = colorTargets.length;
+    if (rows == 0) {
+      return 0;
+    }
+    byte trophy = (byte) (CellCodes.TROPHY + color);
+    int columns = 0;
+    for (int i = 0; i < grid.contents.length; i += 1) {
+      if (grid.contents[i] == trophy) {
+        columns += 1;
+        this.trophyCells[columns] = i;
+      }
+    }
+    if (columns < rows) {
+      return MatchingHeuristic.UNREACHABLE;
+    }
+    int stride = columns + 1;
+    for (int row = 1; row <= rows; row += 1) {
+      int[] distances = this.distances[colorTargets[row - 1]];
+      for (int column = 1; column <= columns; column += 1) {
+        this.costs[row * stride + column] = distances[this.trophyCells[column]];
+      }
+    }
+    int cost;
+    if (this.slides) {
+      cost = this.farthest(rows, columns);
+    }
+    else {
+      cost = this.pair(rows, columns);
+    }
+    if (cost >= Deadlocks.FAR) {
+      return MatchingHeuristic.UNREACHABLE;
+    }
+    return cost;
+  }
+
+  // Returns the most that any of the given number of targets costs to reach
+  // from its nearest trophy in costs
+  int farthest(int rows, int columns) {
+    int stride = columns + 1;
+    int most = 0;
+    for (int row = 1; row <= rows; row += 1) {
+      int least = Deadlocks.FAR;
+      for (int column = 1; column <= columns; column += 1) {
+        least = Math.min(least, this.costs[row * stride + column]);
+      }
+      most = Math.max(most, least);
+    }
+    return most;
+  }
+
+  // Pairs each of the given number of targets with a different trophy, with
+  // the least total cost from costs, and returns that cost. Targets are added
+  // one at a time, each growing a shortest path of reduced costs (cost less
+  // both potentials) to a trophy not yet paired and shifting the pairs along
+  // it.
+  int pair(int rows, int columns) {
+    int stride = columns + 1;
+    for (int column = 0; column <= columns; column += 1) {
+      this.columnPotentials[column] = 0;
+      this.paired[column] = 0;
+    }
+    for (int row = 0; row <= rows; row += 1) {
+      this.rowPotentials[row] = 0;
+    }
+    for (int row = 1; row <= rows; row += 1) {
+      this.paired[0] = row;
+      int column = 0;
+      for (int i = 0; i <= columns; i += 1) {
+        this.slack[i] = Integer.MAX_VALUE;
+        this.used[i] = false;
+      }
+      while (this.paired[column] != 0) {
+        this.used[column] = true;
+        int current = this.paired[column];
+        int least = Integer.MAX_VALUE;
+        int next = 0;
+        for (int j = 1; j <= columns; j += 1) {
+          if (!this.used[j]) {
+            int reduced = this.costs[current * stride + j] - this.rowPotentials[current]
+                - this.columnPotentials[j];
+            if (reduced < this.slack[j]) {
+              this.slack[j] = reduced;
+              this.previous[j] = column;
+            }
+            if (this.slack[j] < least) {
+              least = this.slack[j];
+              next = j;
+            }
+          }
+        }
+        for (int j = 0; j <= columns; j += 1) {
+          if (this.used[j]) {
+            this.rowPotentials[this.paired[j]] += least;
+            this.columnPotentials[j] -= least;
+          }
+          else {
+            this.slack[j] -= least;
+          }
+        }
+        column = next;
+      }
+      while (column != 0) {
+        int before = this.previous[column];
+        this.paired[column] = this.paired[before];
+        column = before;
+      }
+    }
+    return -this.columnPotentials[0];
+  }
+}
+
+// Examples for MatchingHeuristic
+class ExamplesMatchingHeuristic {
+  Utils utils = new Utils();
+
+  // test for pairing trophies with targets of their color
+  boolean testColorCost(Tester t) {
+    BoardGrid grid = this.utils.initializeGrid(
+        "WWWWWWWW\nW______W\nW_rr_g_W\nW_>____W\nWWWWWWWW",
+        "________\n________\n_R___RG_\n________\n________");
+    MatchingHeuristic heuristic = new MatchingHeuristic(grid);
+    BoardGrid stranded = this.utils.initializeGrid(
+        "WWWWWWWW\nWr_____W\nW_r__g_W\nW_>____W\nWWWWWWWW",
+        "________\n________\n_R___RG_\n________\n________");
+    return t.checkExpect(heuristic.colorCost(grid, ItemColor.RED.ordinal()), 3)
+        && t.checkExpect(heuristic.colorCost(grid, ItemColor.GREEN.ordinal()), 1)
+        && t.checkExpect(heuristic.colorCost(grid, ItemColor.BLUE.ordinal()), 0)
+        && t.checkExpect(heuristic.estimate(grid, 26), 4)
+        // Only one red trophy can still reach a red target
+        && t.checkExpect(new MatchingHeuristic(stranded).estimate(stranded, 26),
+            MatchingHeuristic.UNREACHABLE);
+  }
+
+  // test for the least cost pairing when the nearest trophies clash
+  boolean testPair(Tester t) {
+    MatchingHeuristic heuristic = new MatchingHeuristic(this.utils.initializeGrid(
+        "WWWWWW\nW>rrrW\nWWWWWW", "______\n__RRR_\n______"));
+    heuristic.costs = new int[] { 0, 0, 0, 0, 0, 1, 2, 3, 0, 1, 4, 6, 0, 3, 6, 9 };
+    int square = heuristic.pair(3, 3);
+    heuristic.costs = new int[] { 0, 0, 0, 0, 0, 2, 1, 9, 0, 3, 1, 2 };
+    int wide = heuristic.pair(2, 3);
+    return t.checkExpect(square, 10) && t.checkExpect(wide, 3);
+  }
+
+  // test that only trophies of a color touch that color's pairing
+  boolean testTouches(Tester t) {
+    Simulator sim = new Simulator("WWWWWWW\nW>r___W\nW_____W\nWWWWWWW",
+        "_______\n____R__\n_______\n_______");
+    MatchingHeuristic heuristic = new MatchingHeuristic(sim.grid);
+    int before = heuristic.estimate(sim.grid, sim.playerCell);
+    sim.move(CellCodes.DOWN);
+    boolean walked = heuristic.touches(sim.delta, ItemColor.RED.ordinal());
+    sim.undo();
+    sim.move(CellCodes.RIGHT);
+    return t.checkExpect(before, 2) && t.checkExpect(walked, false)
+        && t.checkExpect(heuristic.touches(sim.delta, ItemColor.RED.ordinal()), true)
+        && t.checkExpect(heuristic.touches(sim.delta, ItemColor.GREEN.ordinal()), false)
+        && t.checkExpect(heuristic.estimate(sim.grid, sim.playerCell), 1);
+  }
+
+  // test for the shortest walk to a trophy that still needs pushing
+  boolean testWalk(Tester t) {
+    String contents = "WWWWWWWW\nW>_____W\nW____r_W\nWWWWWWWW";
+    BoardGrid floor = this.utils.initializeGrid(contents, "________\n________\n________\n________");
+    BoardGrid ice = this.utils.initializeGrid(contents, "________\n__IIII__\n________\n________");
+    int red = 1 << ItemColor.RED.ordinal();
+    return t.checkExpect(new MatchingHeuristic(floor).walk(floor, 9, red), 4)
+        // One move slides along the ice, stopping above the trophy at best
+        && t.checkExpect(new MatchingHeuristic(ice).walk(ice, 9, red), 1)
+        && t.checkExpect(new MatchingHeuristic(floor).walk(floor, 9,
+            1 << ItemColor.BLUE.ordinal()), MatchingHeuristic.UNREACHABLE)
+        && t.checkExpect(new MatchingHeuristic(floor).addWalk(3, floor, 9, 0), 3);
+  }
+
+  // test that on ice a move can carry an item any distance in a straight line,
+  // and that only the farthest target counts
+  boolean testMoveDistances(Tester t) {
+    BoardGrid ice = this.utils.initializeGrid(
+        "WWWWWWWW\nW______W\nW_r__g_W\nW______W\nW>_____W\nWWWWWWWW",
+        "________\n_I____G_\n______R_\n________\n________\n________");
+    MatchingHeuristic heuristic = new MatchingHeuristic(ice);
+    int[] distances = heuristic.moveDistances(22);
+    return t.checkExpect(heuristic.slides, true)
+        && t.checkExpect(new MatchingHeuristic(this.utils.initializeGrid(
+            "WWWW\nW>rW\nWWWW", "_I__\n__R_\n____")).slides, false)
+        && t.checkExpect(distances[18], 1) && t.checkExpect(distances[30], 1)
+        && t.checkExpect(distances[26], 2) && t.checkExpect(distances[38], Deadlocks.FAR)
+        && t.checkExpect(heuristic.colorCost(ice, ItemColor.RED.ordinal()), 1)
+        && t.checkExpect(heuristic.colorCost(ice, ItemColor.GREEN.ordinal()), 2)
+        // The larger of the two, plus a walk of two moves to below the red trophy
+        && t.checkExpect(heuristic.estimate(ice, 33), 4)
+        && t.checkExpect(heuristic.combine(3, 2), 3)
+        && t.checkExpect(new MatchingHeuristic(this.utils.initializeGrid(
+            "WWWW\nW>rW\nWWWW", "____\n__R_\n____")).combine(3, 2), 5);
+  }
+
+  // test that the solver still finds the fewest moves on a level where
+  // sliding pushes the same trophy more than once in a move
+  boolean testAdmissibleOnIce(Tester t) {
+    Board level = new Board(
+        "WWWWWWWWW\nW_______W\nW__g_>_WW\nW__W____W\nW_______W\nW_______W\nWWWWWWWWW",
+        "_________\n__I_I_G__\n_I___I_I_\n_________\n__I_I____\n_I__I_I__\n_________");
+    String moves = new Solver(level).solve();
+    String fewest = new ParallelSolver(level, 2).solve();
+    return t.checkExpect(fewest.length(), 11) && t.checkExpect(moves.length(), 11)
+        && t.checkExpect(new Simulator(level.grid().copy()).run(moves), Simulator.WON);
+  }
+
+  // test that the solver finds the same moves visiting fewer states
+  boolean testSolverUsesMatching(Tester t) {
+    Board intro = new Board(TerminalPlay.DEFAULT_CONTENTS, TerminalPlay.DEFAULT_GROUND);
+    Solver solver = new Solver(intro);
+    return t.checkExpect(solver.solve().length(), 34)
+        // With only the deadlock checks this took 52289 states
+        && t.checkExpect(solver.nodes < 35000, true);
+  }
+}
@@ -0,0 +1,559 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import tester.*;
+
+// Finds the fewest moves that win a level using every core. The search is
+// breadth first, one layer (all the states the same number of moves from the
+// start) at a time, and every state is packed by a StateCodec into a few
+// longs. Each layer goes through three steps, all spread over a ForkJoinPool:
+// - The layer is cut into chunks that are expanded in parallel, stealing
+// chunks from busy threads. Each thread plays every move from each state of
+// its chunks on its own Simulator, checks them with its own copy of the
+// Deadlocks, and keeps the states not seen in an earlier layer, sorted by
+// the stripe their hash puts them in.
+// - The seen states are split by hash into stripes, each a StateTable that
+// compares whole packed states, so states are never mistaken for each other.
+// Each stripe is checked by one task, which only looks at the states of its
+// own stripe from each chunk, so no locks are needed. Within a stripe states
+// are checked in the order of the layer, so when two moves reach the same
+// state the first one in that order wins.
+// - The new states are copied into the next layer, one task per chunk, each
+// into its own range worked out beforehand.
+// Which state wins never depends on timing, so the moves found are the same
+// whatever the number of threads and however often the search is run.
+//
+// Moves are written as in Simulator (U, D, L and R).
+class ParallelSolver {
+  static final long DEFAULT_MAX_STATES = 20000000; // states stored before giving up
+  static final int CHUNK = 256; // states expanded by one task
+  static final int STRIPES = 64; // parts the seen states are split into
+
+  BoardGrid start; // the level as it starts
+  int startPlayer; // cell of the player at the start
+  int threads; // threads searching
+  long maxStates; // states stored before giving up
+  Deadlocks deadlocks; // finds states that can't be won, which are skipped
+  StateCodec codec; // packs states
+  int words; // longs per packed state
+  ThreadLocal<Expander> expanders; // what each thread expands states with
+
+  // Every state found, in the order found, so that each layer is a range
+  long[] states; // each state packed, words longs apiece
+  int[] parents; // index of the state each state was reached from (-1 for the start)
+  byte[] moves; // direction of the move that reached each state
+  int size; // number of states
+
+  StateTable[] seen; // the states found, by stripe
+  AtomicLong reached; // states kept so far while expanding the current layer
+  int layers; // number of layers searched
+  int status; // outcome once solve has been called (see Solver), or -1 before
+  String solution; // moves that win, once solved
+
+  // Convenience constructor with the default limit on states
+  ParallelSolver(Board board, int threads) {
+    this(board, threads, ParallelSolver.DEFAULT_MAX_STATES);
+  }
+
+  // Constructor for solving the given board with the given number of
+  // threads, giving up once the given number of states are stored. The board
+  // itself is not changed. The seen states share StateTable's memory limit
+  // between their stripes.
+  ParallelSolver(Board board, int threads, long maxStates) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("The solver needs at least one thread");
+    }
+    this.start = board.grid().copy();
+    this.startPlayer = board.playerCell();
+    this.threads = threads;
+    this.maxStates = maxStates;
+    this.deadlocks = this.start.deadlocks();
+    this.codec = new StateCodec(this.start, this.startPlayer);
+    this.words = this.codec.words;
+    this.expanders = ThreadLocal.withInitial(() -> new Expander(this));
+    this.states = new long[1024 * this.words];
+    this.parents = new int[1024];
+    this.moves = new byte[1024];
+    this.size = 0;
+    this.seen = new StateTable[ParallelSolver.STRIPES];
+    for (int i = 0; i < ParallelSolver.STRIPES; i += 1) {
+      this.seen[i] = new StateTable(this.words,
+          StateTable.DEFAULT_MAX_BYTES / ParallelSolver.STRIPES);
+    }
+    this.reached = new AtomicLong();
+    this.layers = 0;
+    this.status = -1;
+    this.solution = null;
+  }
+
+  // Returns the stripe of the seen states that the packed state at the given
+  // place in the given array belongs to. The top bits of its hash are used,
+  // since a StateTable picks slots by the bottom ones.
+  int stripe(long[] state, int offset) {
+    return (int) (StateTable.hash(state, offset, this.words) >>> 58)
+        & (ParallelSolver.STRIPES - 1);
+  }
+
+  // Returns the fewest moves that win the level, or null if it can't be won
+  // or the limit on states was reached first (see status)
+  String solve() {
+    if (this.status != -1) {
+      return this.solution;
+    }
+    Simulator first = new Simulator(this.start.copy(), this.startPlayer);
+    if (first.status() != Simulator.ONGOING
+        || this.deadlocks.isDeadlocked(first.grid, first.playerCell)) {
+      if (first.status() == Simulator.WON) {
+        this.status = Solver.SOLVED;
+        this.solution = "";
+      }
+      else {
+        this.status = Solver.NO_SOLUTION;
+      }
+      return this.solution;
+    }
+    this.codec.encode(this.start, this.startPlayer, this.states, 0);
+    this.parents[0] = -1;
+    this.moves[0] = -1;
+    this.size = 1;
+    this.seen[this.stripe(this.states, 0)].visit(this.states, 0, 0);
+    ForkJoinPool pool = new ForkJoinPool(this.threads);
+    try {
+      int layerStart = 0;
+      int layerEnd = this.size;
+      while (layerStart < layerEnd && this.status == -1) {
+        this.searchLayer(pool, layerStart, layerEnd);
+        layerStart = layerEnd;
+        layerEnd = this.size;
+      }
+    }
+    finally {
+      pool.shutdown();
+    }
+    if (this.status == -1) {
+      this.status = Solver.NO_SOLUTION;
+    }
+    return this.solution;
+  }
+
+  // Expands the states in the given range (one layer) with the given pool,
+  // adding the new states they reach as the next layer, and stops the search
+  // if one of them wins or too many states are stored. The limit is checked
+  // while expanding, so a layer never goes far past it.
+  void searchLayer(ForkJoinPool pool, int layerStart, int layerEnd) {
+    int chunks = (layerEnd - layerStart + ParallelSolver.CHUNK - 1) / ParallelSolver.CHUNK;
+    Successors[] found = new Successors[chunks];
+    this.reached.set(0);
+    pool.invoke(new ExpandChunks(this, found, layerStart, layerEnd, 0, chunks));
+    this.layers += 1;
+    if (this.size + this.reached.get() >= this.maxStates) {
+      this.status = Solver.GAVE_UP;
+      return;
+    }
+    pool.invoke(new MergeStripes(this, found, 0, ParallelSolver.STRIPES));
+    int[] offsets = new int[chunks];
+    int total = this.size;
+    for (int chunk = 0; chunk < chunks; chunk += 1) {
+      offsets[chunk] = total;
+      total += found[chunk].newStates();
+    }
+    this.reserve(total);
+    pool.invoke(new StoreChunks(this, found, offsets, 0, chunks));
+    this.size = total;
+    for (Successors chunk : found) {
+      if (chunk.winner != -1) {
+        this.status = Solver.SOLVED;
+        this.solution = this.movesTo(chunk.winner);
+        return;
+      }
+    }
+  }
+
+  // Makes room for the given number of states
+  void reserve(int capacity) {
+    if (capacity > this.parents.length) {
+      int grown = Math.max(capacity, this.parents.length * 2);
+      this.states = Arrays.copyOf(this.states, grown * this.words);
+      this.parents = Arrays.copyOf(this.parents, grown);
+      this.moves = Arrays.copyOf(this.moves, grown);
+    }
+  }
+
+  // Returns the moves from the start to the given state
+  String movesTo(int state) {
+    StringBuilder path = new StringBuilder();
+    for (int s = state; this.parents[s] != -1; s = this.parents[s]) {
+      path.append("UDLR".charAt(this.moves[s]));
+    }
+    return path.reverse().toString();
+  }
+
+  // Plays every move from each of the given states with the given expander,
+  // keeping the states reached that weren't seen in an earlier layer. Stops
+  // early once the states kept in this layer would go past the limit.
+  void expand(Expander expander, int from, int to, Successors found) {
+    Simulator sim = expander.sim;
+    StateCodec codec = expander.codec;
+    for (int state = from; state < to; state += 1) {
+      if (this.size + this.reached.get() >= this.maxStates) {
+        return;
+      }
+      int offset = state * this.words;
+      int player = codec.player(this.states, offset);
+      codec.decode(this.states, offset, sim.grid, player);
+      sim.playerCell = player;
+      int kept = 0;
+      for (int direction = 0; direction < 4; direction += 1) {
+        if (sim.move(direction)) {
+          int status = sim.status();
+          if (status == Simulator.WON || status == Simulator.ONGOING
+              && !expander.deadlocks.isDeadlocked(sim.grid, sim.playerCell)) {
+            int at = found.reserve();
+            codec.encode(sim.grid, sim.playerCell, found.states, at);
+            int stripe = this.stripe(found.states, at);
+            if (!this.seen[stripe].contains(found.states, at)) {
+              found.add(stripe, state, (byte) direction, status == Simulator.WON);
+              kept += 1;
+            }
+          }
+          sim.undo();
+        }
+      }
+      this.reached.addAndGet(kept);
+    }
+  }
+}
+
+// What one thread expands states with, made once per thread so expanding a
+// chunk allocates nothing but the states it finds
+class Expander {
+  Simulator sim; // plays the moves
+  Deadlocks deadlocks; // this thread's copy of the solver's deadlock checks
+  StateCodec codec; // this thread's copy of the solver's codec
+
+  // Constructor for an expander for the given solver
+  Expander(ParallelSolver solver) {
+    this.sim = new Simulator(solver.start.copy(), solver.startPlayer);
+    this.deadlocks = solver.deadlocks.copy();
+    this.codec = solver.codec.copy();
+  }
+}
+
+// The states reached from one chunk of a layer, packed, waiting to be
+// checked against the states already seen. Once the chunk is expanded they
+// are sorted by stripe, keeping the order they were reached in within each.
+class Successors {
+  int words; // longs per packed state
+  long[] states; // each state packed
+  int[] stripes; // stripe of each state
+  int[] parents; // index of the state each was reached from
+  byte[] moves; // direction of the move that reached each
+  boolean[] won; // whether each state wins
+  boolean[] kept; // whether each state was new when checked
+  int[] bounds; // once sorted, where each stripe's states start, and the end
+  int size; // number of states
+  int[] accepted; // once checked, per stripe, number of states that were new
+  int winner; // once stored, index of the first new state that wins, or -1
+
+  // Constructor for an empty Successors of states of the given number of
+  // longs
+  Successors(int words) {
+    this.words = words;
+    this.states = new long[64 * words];
+    this.stripes = new int[64];
+    this.parents = new int[64];
+    this.moves = new byte[64];
+    this.won = new boolean[64];
+    this.size = 0;
+    this.winner = -1;
+  }
+
+  // Makes room for one more state, and returns where in states to pack it
+  int reserve() {
+    if (this.size == this.parents.length) {
+      int capacity = this.size * 2;
+      this.states = Arrays.copyOf(this.states, capacity * this.words);
+      this.stripes = Arrays.copyOf(this.stripes, capacity);
+      this.parents = Arrays.copyOf(this.parents, capacity);
+      this.moves = Arrays.copyOf(this.moves, capacity);
+      this.won = Arrays.copyOf(this.won, capacity);
+    }
+    return this.size * this.words;
+  }
+
+  // Adds the state just packed at the place reserve gave
+  void add(int stripe, int parent, byte move, boolean wins) {
+    this.stripes[this.size] = stripe;
+    this.parents[this.size] = parent;
+    this.moves[this.size] = move;
+    this.won[this.size] = wins;
+    this.size += 1;
+  }
+
+  // Sorts the states by stripe, keeping their order within each stripe, and
+  // works out where each stripe starts
+  void sortByStripe() {
+    this.bounds = new int[ParallelSolver.STRIPES + 1];
+    for (int i = 0; i < this.size; i += 1) {
+      this.bounds[this.stripes[i] + 1] += 1;
+    }
+    for (int stripe = 0; stripe < ParallelSolver.STRIPES; stripe += 1) {
+      this.bounds[stripe + 1] += this.bounds[stripe];
+    }
+    int[] next = Arrays.copyOf(this.bounds, ParallelSolver.STRIPES);
+    long[] sortedStates = new long[this.size * this.words];
+    int[] sortedParents = new int[this.size];
+    byte[] sortedMoves = new byte[this.size];
+    boolean[] sortedWon = new boolean[this.size];
+    for (int i = 0; i < this.size; i += 1) {
+      int to = next[this.stripes[i]];
+      next[this.stripes[i]] += 1;
+      System.arraycopy(this.states, i * this.words, sortedStates, to * this.words, this.words);
+      sortedParents[to] = this.parents[i];
+      sortedMoves[to] = this.moves[i];
+      sortedWon[to] = this.won[i];
+    }
+    this.states = sortedStates;
+    this.parents = sortedParents;
+    this.moves = sortedMoves;
+    this.won = sortedWon;
+    this.stripes = null;
+    this.kept = new boolean[this.size];
+    this.accepted = new int[ParallelSolver.STRIPES];
+  }
+
+  // Returns the number of states that were new when checked
+  int newStates() {
+    int total = 0;
+    for (int count : this.accepted) {
+      total += count;
+    }
+    return total;
+  }
+}
+
+// Expands a range of the chunks of a layer, splitting it in half until a
+// single chunk is left
+class ExpandChunks extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+
+  ParallelSolver solver;
+  Successors[] found; // states reached from each chunk
+  int layerStart; // first state of the layer
+  int layerEnd; // end of the layer
+  int from; // first chunk of the range
+  int to; // end of the range
+
+  // Constructor for ExpandChunks
+  ExpandChunks(ParallelSolver solver, Successors[] found, int layerStart, int layerEnd,
+      int from, int to) {
+    this.solver = solver;
+    this.found = found;
+    this.layerStart = layerStart;
+    this.layerEnd = layerEnd;
+    this.from = from;
+    this.to = to;
+  }
+
+  // Expands the chunks of this range
+  protected void compute() {
+    if (this.to - this.from > 1) {
+      int middle = (this.from + this.to) / 2;
+      ExpandChunks.invokeAll(
+          new ExpandChunks(this.solver, this.found, this.layerStart, this.layerEnd, this.from,
+              middle),
+          new ExpandChunks(this.solver, this.found, this.layerStart, this.layerEnd, middle,
+              this.to));
+    }
+    else {
+      int first = this.layerStart + this.from * ParallelSolver.CHUNK;
+      int end = Math.min(first + ParallelSolver.CHUNK, this.layerEnd);
+      Successors chunk = new Successors(this.solver.words);
+      this.solver.expand(this.solver.expanders.get(), first, end, chunk);
+      chunk.sortByStripe();
+      this.found[this.from] = chunk;
+    }
+  }
+}
+
+// Checks the states reached in a layer against the states seen so far, one
+// stripe of the seen states per task, in the order of the layer. Each task
+// only looks at its own stripe's states from each chunk.
+class MergeStripes extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+
+  ParallelSolver solver;
+  Successors[] found; // states reached from each chunk
+  int from; // first stripe of the range
+  int to; // end of the range
+
+  // Constructor for MergeStripes
+  MergeStripes(ParallelSolver solver, Successors[] found, int from, int to) {
+    this.solver = solver;
+    this.found = found;
+    this.from = from;
+    this.to = to;
+  }
+
+  // Checks the states in the stripes of this range
+  protected void compute() {
+    if (this.to - this.from > 1) {
+      int middle = (this.from + this.to) / 2;
+      MergeStripes.invokeAll(new MergeStripes(this.solver, this.found, this.from, middle),
+          new MergeStripes(this.solver, this.found, middle, this.to));
+    }
+    else {
+      StateTable stripe = this.solver.seen[this.from];
+      int layer = this.solver.layers;
+      for (Successors chunk : this.found) {
+        for (int i = chunk.bounds[this.from]; i < chunk.bounds[this.from + 1]; i += 1) {
+          chunk.kept[i] = stripe.visit(chunk.states, i * chunk.words, layer) != StateTable.SEEN;
+          if (chunk.kept[i]) {
+            chunk.accepted[this.from] += 1;
+          }
+        }
+      }
+    }
+  }
+}
+
+// Copies the new states of a range of the chunks of a layer into the
+// solver's states, each chunk into the range starting at its offset,
+// splitting the range in half until a single chunk is left
+class StoreChunks extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+
+  ParallelSolver solver;
+  Successors[] found; // states reached from each chunk
+  int[] offsets; // where each chunk's new states go
+  int from; // first chunk of the range
+  int to; // end of the range
+
+  // Constructor for StoreChunks
+  StoreChunks(ParallelSolver solver, Successors[] found, int[] offsets, int from, int to) {
+    this.solver = solver;
+    this.found = found;
+    this.offsets = offsets;
+    this.from = from;
+    this.to = to;
+  }
+
+  // Copies the new states of the chunks of this range
+  protected void compute() {
+    if (this.to - this.from > 1) {
+      int middle = (this.from + this.to) / 2;
+      StoreChunks.invokeAll(
+          new StoreChunks(this.solver, this.found, this.offsets, this.from, middle),
+          new StoreChunks(this.solver, this.found, this.offsets, middle, this.to));
+    }
+    else {
+      Successors chunk = this.found[this.from];
+      ParallelSolver solver = this.solver;
+      int words = solver.words;
+      int state = this.offsets[this.from];
+      for (int i = 0; i < chunk.size; i += 1) {
+        if (chunk.kept[i]) {
+          System.arraycopy(chunk.states, i * words, solver.states, state * words, words);
+          solver.parents[state] = chunk.parents[i];
+          solver.moves[state] = chunk.moves[i];
+          if (chunk.won[i] && chunk.winner == -1) {
+            chunk.winner = state;
+          }
+          state += 1;
+        }
+      }
+    }
+  }
+}
+
+// Examples for ParallelSolver
+class ExamplesParallelSolver {
+  Board intro = new Board(TerminalPlay.DEFAULT_CONTENTS, TerminalPlay.DEFAULT_GROUND);
+
+  // test that the parallel search finds solutions as short as Solver's
+  boolean testMatchesSolver(Tester t) {
+    Board slide = new Board("WWWWWWW\nW>r___W\nWWWWWWW", "_______\n__IIIR_\n_______");
+    Board hole = new Board("WWWWWWWW\nW>BH_r_W\nWWWWWWWW", "________\n______R_\n________");
+    Board colors = new Board("WWWWWW\nW____W\nW_gb_W\nW_>__W\nWWWWWW",
+        "______\n_GB___\n______\n______\n______");
+    String colorMoves = new ParallelSolver(colors, 3).solve();
+    return t.checkExpect(new ParallelSolver(slide, 2).solve(), "R")
+        && t.checkExpect(new ParallelSolver(hole, 2).solve(), "RRRR")
+        && t.checkExpect(colorMoves.length(), new Solver(colors).solve().length())
+        && t.checkExpect(new Simulator(colors.grid().copy()).run(colorMoves), Simulator.WON);
+  }
+
+  // test that the moves found don't depend on the number of threads
+  boolean testDeterministic(Tester t) {
+    ParallelSolver one = new ParallelSolver(this.intro, 1);
+    String moves = one.solve();
+    String twoThreads = new ParallelSolver(this.intro, 2).solve();
+    String fourThreads = new ParallelSolver(this.intro, 4).solve();
+    return t.checkExpect(moves.length(), 34) && t.checkExpect(twoThreads, moves)
+        && t.checkExpect(fourThreads, moves)
+        && t.checkExpect(one.layers, 34)
+        && t.checkExpect(new Simulator(this.intro.grid().copy()).run(moves), Simulator.WON);
+  }
+
+  // test for levels that can't be won, for giving up and for bad arguments
+  boolean testNoSolutionAndLimits(Tester t) {
+    Board stuck = new Board("WWWWW\nW>_rW\nWWWWW", "_____\n_R___\n_____");
+    ParallelSolver stuckSolver = new ParallelSolver(stuck, 2);
+    ParallelSolver limited = new ParallelSolver(this.intro, 2, 100);
+    return t.checkExpect(stuckSolver.solve(), null)
+        && t.checkExpect(stuckSolver.status, Solver.NO_SOLUTION)
+        && t.checkExpect(limited.solve(), null) && t.checkExpect(limited.status, Solver.GAVE_UP)
+        // The limit is checked while a layer is expanded, not only after it
+        && t.checkExpect(limited.size <= 100, true)
+        && t.checkExpect(new ParallelSolver(new Board("WWW\nW>W\nWWW", "___\n___\n___"), 1)
+            .solve(), "")
+        && t.checkConstructorException(
+            new IllegalArgumentException("The solver needs at least one thread"),
+            "ParallelSolver", stuck, 0);
+  }
+
+  // test that the seen states are kept whole, so only the very same state is
+  // taken to be seen
+  boolean testSeenStatesExact(Tester t) {
+    Board level = new Board("WWWWWW\nW>_r_W\nWWWWWW", "______\n____R_\n______");
+    ParallelSolver solver = new ParallelSolver(level, 2);
+    String moves = solver.solve();
+    long[] start = new long[solver.words];
+    solver.codec.encode(level.grid(), level.playerCell(), start, 0);
+    long[] other = start.clone();
+    other[0] ^= 1L << 62;
+    int stripe = solver.stripe(start, 0);
+    return t.checkExpect(moves, "RR")
+        && t.checkExpect(solver.seen[stripe].contains(start, 0), true)
+        && t.checkExpect(solver.seen[solver.stripe(other, 0)].contains(other, 0), false)
+        && t.checkExpect(Arrays.copyOf(solver.states, solver.words), start);
+  }
+
+  // test that a chunk's states are sorted by stripe, keeping the order they
+  // were reached in within each stripe
+  boolean testSortByStripe(Tester t) {
+    Successors chunk = new Successors(1);
+    int[] stripes = { 5, 2, 5, 0 };
+    for (int i = 0; i < stripes.length; i += 1) {
+      chunk.states[chunk.reserve()] = 10 + i;
+      chunk.add(stripes[i], i, (byte) 0, i == 2);
+    }
+    chunk.sortByStripe();
+    return t.checkExpect(Arrays.copyOf(chunk.states, 4), new long[] { 13, 11, 10, 12 })
+        && t.checkExpect(chunk.parents, new int[] { 3, 1, 0, 2 })
+        && t.checkExpect(chunk.won, new boolean[] { false, false, false, true })
+        && t.checkExpect(chunk.bounds[2], 1) && t.checkExpect(chunk.bounds[5], 2)
+        && t.checkExpect(chunk.bounds[6], 4) && t.checkExpect(chunk.newStates(), 0);
+  }
+
+  // test that loading contents into a grid keeps it the same as a new grid
+  boolean testGridLoad(Tester t) {
+    BoardGrid grid = new Utils().initializeGrid("WWWWW\nW>r_W\nWWWWW", "_____\n__IR_\n_____");
+    BoardGrid other = new Utils().initializeGrid("WWWWW\nW_>rW\nWWWWW", "_____\n__IR_\n_____");
+    grid.load(other.contents);
+    return t.checkExpect(grid, other) && t.checkExpect(grid.hash, other.hash)
+        && t.checkExpect(grid.unsatisfiedTotal, 0)
+        && t.checkExpect(grid.slideStop(7, CellCodes.RIGHT), other.slideStop(7, CellCodes.RIGHT));
+  }
+}
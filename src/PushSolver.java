@@ -0,0 +1,504 @@
+import java.io.IOException;
+import java.util.Arrays;
+import tester.*;
+
+// Finds a win with the fewest pushes, searching over pushes rather than
+// moves. Walking around without pushing anything doesn't change what can be
+// done next, so a state is the items plus the region the player can walk to,
+// and each push from anywhere in that region is one step of a breadth-first
+// search. When the region has no ice, every walk in it can be walked back,
+// so the player is put in the region's top-left cell (its lowest index) for
+// hashing, and states that differ only in where the player stands in the
+// region are seen as one. Walks onto ice can't always be walked back, so a
+// region with ice keeps the player's own cell. States are kept packed by a
+// StateCodec, and the ones found are looked up in a StateTable with the
+// pushes they were reached in. Each state found is also kept, with the push
+// that reached it, in a StateList, which is both the queue of the search and
+// the way back from a win; both live outside the heap.
+//
+// Working out the region of each new state is most of the cost, so after a
+// simple push (one item pushed one cell, out of the region, with no ice in
+// the way) the new region is grown from the old one by filling only from the
+// cell the item left.
+//
+// Once a win is found, the walks between pushes are filled back in, giving
+// moves written as in Simulator that PlayLevel.replay can play back. The
+// pushes are the fewest possible, but the walks may not be the shortest.
+//
+// Run with: java PushSolver <contents file> <ground file> [most states to store]
+class PushSolver {
+  static final long DEFAULT_MAX_STATES = 20000000; // states stored before giving up
+
+  Simulator sim; // plays the pushes of the state being expanded
+  Deadlocks deadlocks; // finds states that can't be won, which are skipped
+  long maxStates; // states stored before giving up
+  PlayerRegion here; // where the player can walk in the state being expanded
+  PlayerRegion next; // where the player can walk in a state just reached
+
+  // Every state found, in the order found, so states with fewer pushes come
+  // first, each packed by codec with the player's actual cell and recorded
+  // with the push that reached it: the cell pushed from times 4 plus the
+  // direction (-1 for the start)
+  StateList states;
+  int depth; // pushes that reached the states being expanded
+  long layerEnd; // index just past the last state reached in depth pushes
+  boolean full; // whether seen had no room for a state, which ends the search
+
+  StateCodec codec; // packs states for states and seen
+  long[] packed; // the state being looked up or loaded, packed
+  StateTable seen; // the states found, packed (see pack), with their pushes
+  long winner; // index of the winning state, or -1
+  int status; // outcome once solve has been called (see Solver), or -1 before
+  String solution; // moves that win, once solved
+  int pushes; // number of pushes in the solution
+
+  // Convenience constructor with the default limit on states
+  PushSolver(Board board) {
+    this(board, PushSolver.DEFAULT_MAX_STATES);
+  }
+
+  // Constructor for solving the given board, giving up once the given number
+  // of states are stored. The board itself is not changed.
+  PushSolver(Board board, long maxStates) {
+    if (maxStates < 1) {
+      throw new IllegalArgumentException("The solver must be allowed to store a state");
+    }
+    this.sim = new Simulator(board.grid().copy(), board.playerCell());
+    this.deadlocks = this.sim.grid.deadlocks();
+    this.maxStates = maxStates;
+    this.here = new PlayerRegion(this.sim.grid.contents.length);
+    this.next = new PlayerRegion(this.sim.grid.contents.length);
+    this.codec = new StateCodec(this.sim.grid, this.sim.playerCell);
+    this.packed = new long[this.codec.words];
+    this.states = new StateList(this.codec.words);
+    this.depth = 0;
+    this.layerEnd = 1;
+    this.full = false;
+    this.seen = new StateTable(this.codec.words, StateTable.DEFAULT_MAX_BYTES);
+    this.winner = -1;
+    this.status = -1;
+    this.solution = null;
+    this.pushes = 0;
+  }
+
+  // Packs the state on the simulator into packed and returns it, with the
+  // player moved to the top-left cell of the given region (the one it can
+  // walk to) unless the region has ice
+  long[] pack(PlayerRegion region) {
+    int standIn = this.sim.playerCell;
+    if (!region.icy) {
+      standIn = region.min;
+    }
+    this.codec.encode(this.sim.grid, standIn, this.packed, 0);
+    return this.packed;
+  }
+
+  // Returns moves that win the level with the fewest pushes, or null if it
+  // can't be won or the limit on states was reached first (see status)
+  String solve() {
+    if (this.status != -1) {
+      return this.solution;
+    }
+    int start = this.sim.status();
+    if (start == Simulator.WON) {
+      this.status = Solver.SOLVED;
+      this.solution = "";
+      return this.solution;
+    }
+    if (start == Simulator.LOST
+        || this.deadlocks.isDeadlocked(this.sim.grid, this.sim.playerCell)) {
+      this.status = Solver.NO_SOLUTION;
+      return this.solution;
+    }
+    this.here.fill(this.sim);
+    this.seen.visit(this.pack(this.here), 0, 0);
+    this.add(-1, -1);
+    for (long state = 0; state < this.states.size && this.winner == -1 && !this.full
+        && this.states.size < this.maxStates; state += 1) {
+      if (state == this.layerEnd) {
+        this.depth += 1;
+        this.layerEnd = this.states.size;
+      }
+      this.expand(state);
+    }
+    if (this.winner != -1) {
+      this.status = Solver.SOLVED;
+      this.solution = this.movesTo(this.winner);
+    }
+    else if (this.full || this.states.size >= this.maxStates) {
+      this.status = Solver.GAVE_UP;
+    }
+    else {
+      this.status = Solver.NO_SOLUTION;
+    }
+    return this.solution;
+  }
+
+  // Adds the state on the simulator, reached from the given state by the
+  // push recorded as the given number, and returns its index
+  long add(long parent, int push) {
+    this.codec.encode(this.sim.grid, this.sim.playerCell, this.packed, 0);
+    return this.states.add(this.packed, 0, parent, push);
+  }
+
+  // Loads the given state onto the simulator
+  void load(long state) {
+    this.states.get(state, this.packed, 0);
+    int player = this.codec.player(this.packed, 0);
+    this.codec.decode(this.packed, 0, this.sim.grid, player);
+    this.sim.playerCell = player;
+  }
+
+  // Tries every push from the region of the given state, keeping the states
+  // reached that weren't seen before, and stops at the first that wins. A
+  // state seen has no room for ends the search instead, since it might be
+  // reached and expanded again without end.
+  void expand(long state) {
+    this.load(state);
+    this.here.fill(this.sim);
+    for (int i = 0; i < this.here.pushes && this.winner == -1; i += 1) {
+      int cell = this.here.pushCells[i];
+      int direction = this.here.pushDirections[i];
+      this.sim.placePlayer(cell);
+      if (this.sim.move(direction)) {
+        int status = this.sim.status();
+        if (status == Simulator.WON || status == Simulator.ONGOING
+            && !this.deadlocks.isDeadlocked(this.sim.grid, this.sim.playerCell)) {
+          PlayerRegion region = this.regionAfterPush(cell, direction);
+          int visit = this.seen.visit(this.pack(region), 0, this.depth + 1);
+          if (visit == StateTable.UNSTORED) {
+            this.full = true;
+          }
+          else if (visit == StateTable.NEW) {
+            long added = this.add(state, cell * 4 + direction);
+            if (status == Simulator.WON) {
+              this.winner = added;
+            }
+          }
+        }
+        this.sim.undo();
+      }
+    }
+  }
+
+  // Returns the region the player can walk to after the push just made from
+  // the given cell in the given direction. A simple push (the player ends in
+  // the item's old cell, which isn't ice, and the item stays in the next
+  // cell, which was outside the region) only opens up cells, so the region
+  // before, if it had no ice, is grown from the item's old cell. Otherwise it
+  // is filled again.
+  PlayerRegion regionAfterPush(int cell, int direction) {
+    BoardGrid grid = this.sim.grid;
+    int player = this.sim.playerCell;
+    int itemCell = grid.neighbor(player, direction);
+    if (!this.here.icy && player == grid.neighbor(cell, direction)
+        && grid.grounds[player] != CellCodes.ICE && itemCell != -1
+        && CellCodes.canBePushed(grid.contents[itemCell]) && !this.here.contains(itemCell)) {
+      this.next.grow(this.here, grid, player);
+    }
+    else {
+      this.next.fill(this.sim);
+    }
+    return this.next;
+  }
+
+  // Returns the moves from the start to the given state: for each push, the
+  // walk to the cell it was made from, then the push
+  String movesTo(long state) {
+    int steps = 0;
+    for (long s = state; this.states.parent(s) != -1; s = this.states.parent(s)) {
+      steps += 1;
+    }
+    this.pushes = steps;
+    long[] path = new long[steps];
+    for (long s = state; this.states.parent(s) != -1; s = this.states.parent(s)) {
+      steps -= 1;
+      path[steps] = s;
+    }
+    StringBuilder moves = new StringBuilder();
+    for (long s : path) {
+      int push = this.states.via(s);
+      this.load(this.states.parent(s));
+      this.here.fill(this.sim);
+      moves.append(this.here.walkTo(push / 4)).append("UDLR".charAt(push % 4));
+    }
+    return moves.toString();
+  }
+
+  // Solves the level in the given files (contents then ground) and prints
+  // moves that win it with the fewest pushes
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2 && args.length != 3) {
+      System.out.println(
+          "Usage: java PushSolver <contents file> <ground file> [most states to store]");
+      return;
+    }
+    long maxStates = PushSolver.DEFAULT_MAX_STATES;
+    if (args.length == 3) {
+      maxStates = Long.parseLong(args[2]);
+    }
+    Board board = new Board(TerminalPlay.readLevel(args[0]), TerminalPlay.readLevel(args[1]));
+    PushSolver solver = new PushSolver(board, maxStates);
+    String moves = solver.solve();
+    if (solver.status == Solver.SOLVED) {
+      System.out.println("Solved in " + solver.pushes + " pushes, " + moves.length()
+          + " moves: " + moves);
+    }
+    else if (solver.status == Solver.NO_SOLUTION) {
+      System.out.println("No solution");
+    }
+    else {
+      System.out.println("Gave up after " + solver.states.size + " states");
+    }
+  }
+}
+
+// The cells the player can walk to from where it stands without pushing
+// anything, found by a breadth-first fill that records how each cell was
+// first reached, and the moves from those cells that push something.
+// Stepping onto plain floor is worked out from the grid, while moves onto ice
+// are played on the simulator, since they slide and may end in a push or a
+// fall.
+class PlayerRegion {
+  int[] marks; // per cell, the stamp of the last fill or grow that reached it
+  int stamp; // stamp of the current fill or grow
+  int[] cells; // cells reached, in the order reached
+  int size; // number of cells reached
+  int[] via; // per cell reached, its cell before times 4 plus the direction, or -1 for the first
+  boolean icy; // whether a walk in the region slides on ice
+  int min; // lowest cell of the region
+  int[] pushCells; // cell each push is made from
+  int[] pushDirections; // direction of each push
+  int pushes; // number of pushes
+
+  // Constructor for a region of a grid with the given number of cells
+  PlayerRegion(int cellCount) {
+    this.marks = new int[cellCount];
+    this.stamp = 0;
+    this.cells = new int[cellCount];
+    this.size = 0;
+    this.via = new int[cellCount];
+    this.icy = false;
+    this.min = -1;
+    this.pushCells = new int[16];
+    this.pushDirections = new int[16];
+    this.pushes = 0;
+  }
+
+  // Determines if the given cell is in the region
+  boolean contains(int cell) {
+    return this.marks[cell] == this.stamp;
+  }
+
+  // Empties the region
+  void clear() {
+    this.stamp += 1;
+    this.size = 0;
+    this.icy = false;
+    this.min = Integer.MAX_VALUE;
+    this.pushes = 0;
+  }
+
+  // Adds the given cell, reached as recorded in the given via
+  void add(int cell, int from) {
+    this.marks[cell] = this.stamp;
+    this.via[cell] = from;
+    this.cells[this.size] = cell;
+    this.size += 1;
+    this.min = Math.min(this.min, cell);
+  }
+
+  // Adds a push from the given cell in the given direction
+  void addPush(int cell, int direction) {
+    if (this.pushes == this.pushCells.length) {
+      this.pushCells = Arrays.copyOf(this.pushCells, this.pushes * 2);
+      this.pushDirections = Arrays.copyOf(this.pushDirections, this.pushes * 2);
+    }
+    this.pushCells[this.pushes] = cell;
+    this.pushDirections[this.pushes] = direction;
+    this.pushes += 1;
+  }
+
+  // Fills the region with the cells the player on the given simulator can
+  // walk to, leaving the player where it was
+  void fill(Simulator sim) {
+    BoardGrid grid = sim.grid;
+    int start = sim.playerCell;
+    this.clear();
+    this.add(start, -1);
+    for (int head = 0; head < this.size; head += 1) {
+      int cell = this.cells[head];
+      for (int direction = 0; direction < 4; direction += 1) {
+        int next = grid.neighbor(cell, direction);
+        if (next != -1) {
+          byte content = grid.contents[next];
+          if (CellCodes.canBePushed(content)) {
+            this.addPush(cell, direction);
+          }
+          else if (CellCodes.canBeMovedOnto(content) && grid.grounds[next] == CellCodes.ICE) {
+            this.slide(sim, cell, direction);
+          }
+          else if (CellCodes.canBeMovedOnto(content) && !this.contains(next)) {
+            this.add(next, cell * 4 + direction);
+          }
+        }
+      }
+    }
+    sim.placePlayer(start);
+  }
+
+  // Plays the move onto ice from the given cell in the given direction,
+  // adding the cell it slides to if it pushed nothing, or the push if it did
+  void slide(Simulator sim, int cell, int direction) {
+    sim.placePlayer(cell);
+    sim.move(direction);
+    int end = sim.playerCell;
+    if (end != -1) {
+      if (PlayerRegion.movesAnItem(sim.delta)) {
+        this.addPush(cell, direction);
+      }
+      else {
+        this.icy = true;
+        if (!this.contains(end)) {
+          this.add(end, cell * 4 + direction);
+        }
+      }
+    }
+    sim.undo();
+  }
+
+  // Determines if the given changes moved an item or dropped it in a hole
+  static boolean movesAnItem(MoveDelta delta) {
+    for (int i = 0; i < delta.size; i += 1) {
+      if (CellCodes.canBePushed(delta.before[i]) || CellCodes.canBePushed(delta.after[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Works out where the player can walk after a simple push out of the given
+  // region, which has no ice, left it standing in the given cell: that cell
+  // and the cells it opens up, filled on plain floor. Only the new cells are
+  // kept, with min and icy set for the whole region; pushes are not found.
+  void grow(PlayerRegion before, BoardGrid grid, int from) {
+    this.clear();
+    this.min = before.min;
+    this.add(from, -1);
+    for (int head = 0; head < this.size; head += 1) {
+      int cell = this.cells[head];
+      for (int direction = 0; direction < 4; direction += 1) {
+        int next = grid.neighbor(cell, direction);
+        if (next != -1 && !before.contains(next) && !this.contains(next)
+            && CellCodes.canBeMovedOnto(grid.contents[next])) {
+          if (grid.grounds[next] == CellCodes.ICE) {
+            this.icy = true;
+          }
+          else {
+            this.add(next, cell * 4 + direction);
+          }
+        }
+      }
+    }
+  }
+
+  // Returns the moves that walk from the start of the fill to the given cell
+  String walkTo(int cell) {
+    StringBuilder moves = new StringBuilder();
+    for (int c = cell; this.via[c] != -1; c = this.via[c] / 4) {
+      moves.append("UDLR".charAt(this.via[c] % 4));
+    }
+    return moves.reverse().toString();
+  }
+}
+
+// Examples for PushSolver
+class ExamplesPushSolver {
+  Board intro = new Board(TerminalPlay.DEFAULT_CONTENTS, TerminalPlay.DEFAULT_GROUND);
+
+  // test that the moves found win with the fewest pushes
+  boolean testSolve(Tester t) {
+    Board slide = new Board("WWWWWWW\nW>r___W\nWWWWWWW", "_______\n__IIIR_\n_______");
+    Board around = new Board("WWWWWWW\nW>____W\nW__r__W\nW_____W\nWWWWWWW",
+        "_______\n_______\n_____R_\n_______\n_______");
+    PushSolver aroundSolver = new PushSolver(around);
+    String aroundMoves = aroundSolver.solve();
+    Simulator played = new Simulator(around.grid().copy(), around.playerCell());
+    return t.checkExpect(new PushSolver(slide).solve(), "R")
+        && t.checkExpect(aroundMoves, "DRRR")
+        && t.checkExpect(aroundSolver.pushes, 2)
+        && t.checkExpect(played.run(aroundMoves), Simulator.WON)
+        && t.checkExpect(aroundMoves.length(), new Solver(around).solve().length());
+  }
+
+  // test that the intro level's solution plays back through PlayLevel
+  boolean testIntroLevel(Tester t) {
+    PushSolver solver = new PushSolver(this.intro, 1000000);
+    String moves = solver.solve();
+    PlayLevel played = new PlayLevel(this.intro).replay(moves);
+    return t.checkExpect(solver.status, Solver.SOLVED)
+        && t.checkExpect(played.board.levelWon(), true)
+        && t.checkExpect(played.moves, moves.length())
+        // Searching moves breadth first stores 14222 states
+        && t.checkExpect(solver.states.size < 5000, true)
+        && t.checkExpect(solver.pushes <= new Solver(this.intro).solve().length(), true);
+  }
+
+  // test that states differing only in where the player stands in a region
+  // without ice hash the same, and that ice keeps them apart
+  boolean testNormalizedRegion(Tester t) {
+    String ground = "_______\n_______\n_____R_\n_______\n_______";
+    String icy = "_______\n_______\n_____R_\n_I_____\n_______";
+    PushSolver left = new PushSolver(new Board("WWWWWWW\nW>____W\nW__r__W\nW_____W\nWWWWWWW",
+        ground));
+    PushSolver right = new PushSolver(new Board("WWWWWWW\nW_____W\nW__r__W\nW____>W\nWWWWWWW",
+        ground));
+    PushSolver icyLeft = new PushSolver(new Board(
+        "WWWWWWW\nW>____W\nW__r__W\nW_____W\nWWWWWWW", icy));
+    PushSolver icyRight = new PushSolver(new Board(
+        "WWWWWWW\nW_____W\nW__r__W\nW____>W\nWWWWWWW", icy));
+    left.here.fill(left.sim);
+    right.here.fill(right.sim);
+    icyLeft.here.fill(icyLeft.sim);
+    icyRight.here.fill(icyRight.sim);
+    return t.checkExpect(left.here.min, 8) && t.checkExpect(left.here.size, 14)
+        && t.checkExpect(left.here.pushes, 4) && t.checkExpect(left.here.icy, false)
+        && t.checkExpect(left.pack(left.here), right.pack(right.here))
+        && t.checkExpect(left.sim.playerCell, 8)
+        && t.checkExpect(icyLeft.here.icy, true)
+        && t.checkExpect(Arrays.equals(icyLeft.pack(icyLeft.here),
+            icyRight.pack(icyRight.here)), false);
+  }
+
+  // test that growing the region after a simple push matches filling it
+  boolean testGrowRegion(Tester t) {
+    PushSolver solver = new PushSolver(new Board("WWWWWWW\nW>_b_WW\nWWW_WWW\nWWW_WWW\nWWWWWWW",
+        "_______\n_______\n_______\n_______\n_______"));
+    solver.here.fill(solver.sim);
+    int before = solver.here.size;
+    solver.sim.placePlayer(9);
+    solver.sim.move(CellCodes.RIGHT);
+    PlayerRegion grown = solver.regionAfterPush(9, CellCodes.RIGHT);
+    PlayerRegion filled = new PlayerRegion(35);
+    filled.fill(solver.sim);
+    // Only the cells the push opened up are filled when growing
+    return t.checkExpect(grown.size, 3) && t.checkExpect(before + grown.size, filled.size)
+        && t.checkExpect(grown.min, filled.min) && t.checkExpect(grown.icy, false)
+        && t.checkExpect(filled.walkTo(24), "DD");
+  }
+
+  // test for levels that can't be won and the limit on states
+  boolean testNoSolutionAndLimits(Tester t) {
+    Board stuck = new Board("WWWWWW\nWr___W\nW____W\nW_>__W\nWWWWWW",
+        "______\n______\n____R_\n______\n______");
+    PushSolver stuckSolver = new PushSolver(stuck);
+    PushSolver limited = new PushSolver(this.intro, 5);
+    return t.checkExpect(stuckSolver.solve(), null)
+        && t.checkExpect(stuckSolver.status, Solver.NO_SOLUTION)
+        && t.checkExpect(limited.solve(), null) && t.checkExpect(limited.status, Solver.GAVE_UP)
+        && t.checkExpect(new PushSolver(new Board("WWW\nW>W\nWWW", "___\n___\n___")).solve(), "")
+        && t.checkConstructorException(
+            new IllegalArgumentException("The solver must be allowed to store a state"),
+            "PushSolver", this.intro, 0L);
+  }
+}
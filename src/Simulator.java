@@ -0,0 +1,301 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import tester.*;
+
+// Plays moves on a level without javalib or a window, for bots, solvers and
+// test harnesses. The level is kept in one BoardGrid that moves change in
+// place, and the MoveEngine, MoveDelta and MoveTrace are made once and
+// reused, so after the first few moves a move or an undo allocates nothing.
+// Moves and undos follow the same rules as PlayLevel: the move counter goes
+// up only when the player actually moves, and an undo counts as a move.
+//
+// Run with: java Simulator <contents file> <ground file> <moves>
+class Simulator {
+  // Status of a level
+  static final int ONGOING = 0;
+  static final int WON = 1;
+  static final int LOST = 2;
+
+  BoardGrid grid; // the level as it is now
+  MoveDelta delta; // changes made by the last move or undo
+  MoveTrace trace; // path of the last move
+  MoveEngine engine; // applies moves to the grid
+  UndoLog history; // changes made by previous moves
+  int playerCell; // cell of the player, or -1 once the last one falls into a hole
+  int moves; // number of moves, counted the way PlayLevel counts them
+
+  // Convenience constructor from the strings a level is written in
+  Simulator(String contents, String ground) {
+    this(new Utils().initializeGrid(contents, ground));
+  }
+
+  // Convenience constructor from a packed grid, which the simulator takes
+  // ownership of, moving its first player
+  Simulator(BoardGrid grid) {
+    this(grid, grid.firstPlayerCell());
+  }
+
+  // Constructor from a packed grid, which the simulator takes ownership of,
+  // moving the player in the given cell
+  Simulator(BoardGrid grid, int playerCell) {
+    this.grid = grid;
+    this.delta = new MoveDelta();
+    this.trace = new MoveTrace();
+    this.engine = new MoveEngine(grid, this.delta, this.trace);
+    this.history = new UndoLog();
+    this.playerCell = playerCell;
+    this.moves = 0;
+  }
+
+  // Moves the player one cell in the given direction (see CellCodes) if
+  // possible. Returns whether the player moved. If the player falls into a
+  // hole, the next player left on the level (if any) takes over, as in
+  // PlayLevel.
+  boolean move(int direction) {
+    if (this.playerCell == -1) {
+      return false;
+    }
+    this.delta.clear();
+    this.trace.clear();
+    int before = this.playerCell;
+    int after = this.engine.movePlayer(before / this.grid.width, before % this.grid.width,
+        direction);
+    if (after == -1) {
+      after = this.grid.firstPlayerCell();
+    }
+    this.playerCell = after;
+    if (after != before) {
+      this.history.push(this.delta, before);
+      this.moves += 1;
+      return true;
+    }
+    else {
+      return false;
+    }
+  }
+
+  // Undoes the last move, if there is one. Returns whether there was.
+  boolean undo() {
+    if (this.history.isEmpty()) {
+      return false;
+    }
+    this.delta.clear();
+    this.playerCell = this.history.pop(this.delta);
+    this.delta.redo(this.grid);
+    this.moves += 1;
+    return true;
+  }
+
+  // Moves the player straight to the given empty cell, without counting a
+  // move or keeping it for undo, so a solver can try moves from anywhere the
+  // player could walk to. Moves made after this undo back to the new cell.
+  void placePlayer(int cell) {
+    if (cell != this.playerCell) {
+      byte player = this.grid.contents[this.playerCell];
+      int entity = this.grid.entityAt[this.playerCell];
+      this.grid.setContent(this.playerCell, CellCodes.BLANK, -1);
+      this.grid.setContent(cell, player, entity);
+      this.playerCell = cell;
+    }
+  }
+
+  // Undoes every move, bringing the level back to how it started, and sets
+  // the move counter back to 0
+  void reset() {
+    while (this.undo()) {
+      // Each undo touches only the cells its move changed
+    }
+    this.moves = 0;
+  }
+
+  // Returns whether the level is WON, LOST or ONGOING, checking for a win
+  // first the way PlayLevel does
+  int status() {
+    if (this.grid.allTargetsCovered()) {
+      return Simulator.WON;
+    }
+    else if (this.playerCell == -1) {
+      return Simulator.LOST;
+    }
+    else {
+      return Simulator.ONGOING;
+    }
+  }
+
+  // Plays the given moves in order until they run out or the level is won
+  // or lost: U, D, L or R (in either case, as in LURD notation) to move and Z
+  // (in either case) to undo. Returns the status the level ends with.
+  int run(CharSequence keys) {
+    for (int i = 0; i < keys.length() && this.status() == Simulator.ONGOING; i += 1) {
+      char key = keys.charAt(i);
+      if (key == 'z' || key == 'Z') {
+        this.undo();
+      }
+      else {
+        this.move(Simulator.direction(key));
+      }
+    }
+    return this.status();
+  }
+
+  // Returns the direction (see CellCodes) of the given move character
+  static int direction(char key) {
+    int direction = "UDLR".indexOf(Character.toUpperCase(key));
+    if (direction == -1) {
+      throw new IllegalArgumentException("Invalid move character");
+    }
+    return direction;
+  }
+
+  // Returns the contents of the level as it is now, written the way levels
+  // are written
+  String contents() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < this.grid.contents.length; i += 1) {
+      if (i > 0 && i % this.grid.width == 0) {
+        text.append('\n');
+      }
+      text.append(CellCodes.contentChar(this.grid.contents[i]));
+    }
+    return text.toString();
+  }
+
+  // Returns the bytes allocated so far by the current thread, or -1 if the
+  // JVM can't tell
+  static long allocatedBytes() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    else {
+      return -1;
+    }
+  }
+
+  // Plays the given moves on the level in the given files (contents then
+  // ground) and prints the level it ends on, its status and the move count
+  public static void main(String[] args) throws IOException {
+    if (args.length != 3) {
+      System.out.println("Usage: java Simulator <contents file> <ground file> <moves>");
+      return;
+    }
+    Simulator simulator = new Simulator(TerminalPlay.readLevel(args[0]),
+        TerminalPlay.readLevel(args[1]));
+    int status = simulator.run(args[2]);
+    String[] names = { "Ongoing", "Won", "Lost" };
+    System.out.println(simulator.contents());
+    System.out.println(names[status] + " after " + simulator.moves + " moves");
+  }
+}
+
+// Examples for Simulator
+class ExamplesSimulator {
+  String contents = "WWWWWWW\nW>_b__W\nW__HW_W\nWWWWWWW";
+  String ground = "_______\n_______\n__I__B_\n_______";
+  String groundWithTarget = "_______\n_____B_\n__I____\n_______";
+
+  // test for playing a string of moves
+  boolean testRun(Tester t) {
+    Simulator won = new Simulator(this.contents, this.groundWithTarget);
+    int wonStatus = won.run("RRRLLL");
+    Simulator lost = new Simulator(this.contents, this.groundWithTarget);
+    int lostStatus = lost.run("dRRR");
+    Simulator ongoing = new Simulator(this.contents, this.groundWithTarget);
+    int ongoingStatus = ongoing.run("Ur");
+    return t.checkExpect(wonStatus, Simulator.WON) && t.checkExpect(won.moves, 3)
+        && t.checkExpect(won.contents(), "WWWWWWW\nW___>bW\nW__HW_W\nWWWWWWW")
+        && t.checkExpect(lostStatus, Simulator.LOST) && t.checkExpect(lost.moves, 2)
+        && t.checkExpect(lost.playerCell, -1)
+        && t.checkExpect(ongoingStatus, Simulator.ONGOING) && t.checkExpect(ongoing.moves, 1)
+        && t.checkExpect(ongoing.contents(), "WWWWWWW\nW_>b__W\nW__HW_W\nWWWWWWW");
+  }
+
+  // test that the next player takes over when the one being moved falls into
+  // a hole, and that the level is lost only once none are left
+  boolean testTwoPlayers(Tester t) {
+    Simulator simulator = new Simulator("WWWWWWW\nW>_H>HW\nWWWWWWW",
+        "_______\n_____R_\n_______");
+    int fellOnce = simulator.run("RR");
+    int playerLeft = simulator.playerCell;
+    int fellTwice = simulator.run("R");
+    simulator.undo();
+    return t.checkExpect(fellOnce, Simulator.ONGOING) && t.checkExpect(playerLeft, 11)
+        && t.checkExpect(fellTwice, Simulator.LOST) && t.checkExpect(simulator.playerCell, 11)
+        && t.checkExpect(simulator.status(), Simulator.ONGOING);
+  }
+
+  // test for undo and reset
+  boolean testUndoAndReset(Tester t) {
+    Simulator simulator = new Simulator(this.contents, this.groundWithTarget);
+    boolean noUndo = simulator.undo();
+    simulator.run("RDz");
+    String afterUndo = simulator.contents();
+    int moves = simulator.moves;
+    simulator.reset();
+    return t.checkExpect(noUndo, false)
+        && t.checkExpect(afterUndo, "WWWWWWW\nW_>b__W\nW__HW_W\nWWWWWWW")
+        && t.checkExpect(moves, 3) && t.checkExpect(simulator.moves, 0)
+        && t.checkExpect(simulator.contents(), this.contents)
+        && t.checkExpect(simulator.grid, new Utils().initializeGrid(this.contents,
+            this.groundWithTarget))
+        && t.checkExpect(simulator.playerCell, 8)
+        && t.checkException(new IllegalArgumentException("Invalid move character"), simulator,
+            "run", "Rx");
+  }
+
+  // test for moving the player without a move
+  boolean testPlacePlayer(Tester t) {
+    Simulator simulator = new Simulator(this.contents, this.groundWithTarget);
+    simulator.placePlayer(11);
+    boolean moved = simulator.move(CellCodes.LEFT);
+    simulator.undo();
+    return t.checkExpect(moved, true) && t.checkExpect(simulator.moves, 2)
+        && t.checkExpect(simulator.contents(), "WWWWWWW\nW__b>_W\nW__HW_W\nWWWWWWW")
+        && t.checkExpect(simulator.grid, new Utils().initializeGrid(
+            "WWWWWWW\nW__b>_W\nW__HW_W\nWWWWWWW", this.groundWithTarget));
+  }
+
+  // test that the simulator agrees with Board and PlayLevel on the same moves
+  boolean testAgreesWithPlayLevel(Tester t) {
+    Board start = new Board(this.contents, this.ground);
+    Simulator simulator = new Simulator(this.contents, this.ground);
+    PlayLevel level = new PlayLevel(start);
+    String keys = "RDULzRRzzURLLDz";
+    String[] names = { "up", "down", "left", "right" };
+    for (int i = 0; i < keys.length(); i += 1) {
+      char key = keys.charAt(i);
+      if (key == 'z') {
+        level = (PlayLevel) level.onKeyEvent("u");
+      }
+      else {
+        level = (PlayLevel) level.onKeyEvent(names[Simulator.direction(key)]);
+      }
+    }
+    level = level.drainInput();
+    simulator.run(keys);
+    return t.checkExpect(simulator.grid, level.board.grid())
+        && t.checkExpect(simulator.moves, level.moves)
+        && t.checkExpect(simulator.history, level.history);
+  }
+
+  // test that moves and undos stop allocating once the simulator is warmed up
+  boolean testNoAllocation(Tester t) {
+    Simulator simulator = new Simulator("WWWWW\nW>__W\nWWWWW", "_____\n___R_\n_____");
+    for (int i = 0; i < 1000; i += 1) {
+      simulator.run("RLzz");
+    }
+    long before = Simulator.allocatedBytes();
+    for (int i = 0; i < 100000; i += 1) {
+      simulator.move(CellCodes.RIGHT);
+      simulator.move(CellCodes.LEFT);
+      simulator.undo();
+      simulator.undo();
+    }
+    long allocated = Simulator.allocatedBytes() - before;
+    // Reading the count costs a little, but far less than a byte per move
+    return t.checkExpect(before == -1 || allocated < 400000, true)
+        && t.checkExpect(simulator.moves, 1000 * 4 + 100000 * 4)
+        && t.checkExpect(simulator.status(), Simulator.ONGOING);
+  }
+}
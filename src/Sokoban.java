@@ -4,6 +4,89 @@ import java.awt.Color;
 import java.util.function.*;
 import tester.*;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+// Represents the color of a trophy or target. The ordinal of each color is
+// its color index in the packed board representation (see CellCodes).
+enum ItemColor {
+  RED('r', 'R', 0xFF0000), GREEN('g', 'G', 0x00FF00), BLUE('b', 'B', 0x0000FF),
+  YELLOW('y', 'Y', 0xFFFF00);
+
+  final char trophyChar; // character used for a trophy of this color
+  final char targetChar; // character used for a target of this color
+  // RGB value of the color used to draw a target of this color. It is kept as
+  // a number so that using a color doesn't start up AWT (see TerminalPlay).
+  final int drawRgb;
+
+  // Constructor for ItemColor
+  ItemColor(char trophyChar, char targetChar, int drawRgb) {
+    this.trophyChar = trophyChar;
+    this.targetChar = targetChar;
+    this.drawRgb = drawRgb;
+  }
+
+  // Returns the color used to draw a target of this color
+  Color drawColor() {
+    return new Color(this.drawRgb);
+  }
+
+  // Returns the color of the given trophy string (r, g, b, y)
+  static ItemColor ofTrophy(String color) {
+    for (ItemColor c : values()) {
+      if (color.length() == 1 && color.charAt(0) == c.trophyChar) {
+        return c;
+      }
+    }
+    throw new IllegalArgumentException("Invalid trophy color");
+  }
+
+  // Returns the color of the given target string (R, G, B, Y)
+  static ItemColor ofTarget(String color) {
+    for (ItemColor c : values()) {
+      if (color.length() == 1 && color.charAt(0) == c.targetChar) {
+        return c;
+      }
+    }
+    throw new IllegalArgumentException("Invalid target color");
+  }
+}
+
+// Represents the direction a player faces or moves in. The ordinal of each
+// direction is its direction index in the packed board representation (see
+// CellCodes).
+enum Direction {
+  UP('^', "up"), DOWN('v', "down"), LEFT('<', "left"), RIGHT('>', "right");
+
+  final char symbol; // character used for a player facing this direction
+  final String key; // name of the arrow key that moves in this direction
+
+  // Constructor for Direction
+  Direction(char symbol, String key) {
+    this.symbol = symbol;
+    this.key = key;
+  }
+
+  // Returns the direction of the given player string (^, v, <, >)
+  static Direction ofPlayer(String direction) {
+    for (Direction d : values()) {
+      if (direction.length() == 1 && direction.charAt(0) == d.symbol) {
+        return d;
+      }
+    }
+    throw new IllegalArgumentException("Invalid player direction");
+  }
+
+  // Returns the direction moved by the given arrow key (up, down, left, right)
+  static Direction ofKey(String key) {
+    for (Direction d : values()) {
+      if (key.equals(d.key)) {
+        return d;
+      }
+    }
+    throw new IllegalArgumentException("Invalid arrow key");
+  }
+}
 
 //  represents a Content cell in a board
 interface IContentCell {
@@ -12,7 +95,7 @@ interface IContentCell {
 
   // Determines if this content cell is a trophy of same color as given target
   // color
-  boolean sameColorTargetBeneath(String targetColor);
+  boolean sameColorTargetBeneath(ItemColor targetColor);
 
   // determines if this content cell can be moved onto
   boolean canBeMovedOnto();
@@ -36,7 +119,7 @@ class Wall implements IContentCell {
 
   // Determines if this content cell is a trophy of same color as given target
   // color
-  public boolean sameColorTargetBeneath(String targetColor) {
+  public boolean sameColorTargetBeneath(ItemColor targetColor) {
     return false;
   }
 
@@ -70,7 +153,7 @@ class Box implements IContentCell {
 
   // Determines if this content cell is a trophy of same color as given target
   // color
-  public boolean sameColorTargetBeneath(String targetColor) {
+  public boolean sameColorTargetBeneath(ItemColor targetColor) {
     return false;
   }
 
@@ -97,11 +180,17 @@ class Box implements IContentCell {
 
 //Player Template Class representing a player
 class Player implements IContentCell {
-  String direction; // <, >, ^, v
+  Direction direction; // <, >, ^, v
 
   // Constructor for player
   Player(String direction) {
-    this.direction = new Utils().validatePlayerDirection(direction);
+    this(Direction.ofPlayer(direction));
+  }
+
+  // Constructor for player facing the given direction. Use CellViews.player
+  // to get the shared instance instead of making a new one.
+  Player(Direction direction) {
+    this.direction = direction;
   }
 
   // Accepts a function object
@@ -111,7 +200,7 @@ class Player implements IContentCell {
 
   // Determines if this content cell is a trophy of same color as given target
   // color
-  public boolean sameColorTargetBeneath(String targetColor) {
+  public boolean sameColorTargetBeneath(ItemColor targetColor) {
     return false;
   }
 
@@ -138,11 +227,17 @@ class Player implements IContentCell {
 
 // Class representing a trophy
 class Trophy implements IContentCell {
-  String color; // r, b, g, y
+  ItemColor color; // r, b, g, y
 
   // Constructor for Trophy
   Trophy(String color) {
-    this.color = new Utils().validateTrophyColor(color);
+    this(ItemColor.ofTrophy(color));
+  }
+
+  // Constructor for Trophy of the given color. Use CellViews.trophy to get the
+  // shared instance instead of making a new one.
+  Trophy(ItemColor color) {
+    this.color = color;
   }
 
   // Accepts a function object
@@ -152,8 +247,8 @@ class Trophy implements IContentCell {
 
   // Determines if this content cell is a trophy of same color as given target
   // color
-  public boolean sameColorTargetBeneath(String targetColor) {
-    return this.color.equals(targetColor.toLowerCase());
+  public boolean sameColorTargetBeneath(ItemColor targetColor) {
+    return this.color == targetColor;
   }
 
   // determines if this trophy can be moved onto
@@ -186,7 +281,7 @@ class BlankContent implements IContentCell {
 
   // Determines if this content cell is a trophy of same color as given target
   // color
-  public boolean sameColorTargetBeneath(String targetColor) {
+  public boolean sameColorTargetBeneath(ItemColor targetColor) {
     return false;
   }
 
@@ -220,7 +315,7 @@ class Hole implements IContentCell {
 
   // Determines if this content cell is a trophy of same color as given target
   // color
-  public boolean sameColorTargetBeneath(String targetColor) {
+  public boolean sameColorTargetBeneath(ItemColor targetColor) {
     return false;
   }
 
@@ -261,11 +356,17 @@ interface IGroundCell {
 
 // Class representing a target
 class Target implements IGroundCell {
-  String color; // R, G, B, Y
+  ItemColor color; // R, G, B, Y
 
   // Constructor for Target
   Target(String color) {
-    this.color = new Utils().validateTargetColor(color);
+    this(ItemColor.ofTarget(color));
+  }
+
+  // Constructor for Target of the given color. Use CellViews.target to get the
+  // shared instance instead of making a new one.
+  Target(ItemColor color) {
+    this.color = color;
   }
 
   // Accepts a function object
@@ -365,58 +466,1098 @@ class Cell {
 
 }
 
-// Class representing a Sokoban level
-class Board {
-  ArrayList<ArrayList<Cell>> cells; // 2D list representing the level's cells.
-  // To be more specific: cells is a list of rows (top -> bottom).
-  // A row is a list of cells (left -> right).
+// Byte codes used by the packed board representation (see BoardGrid).
+// Colors are indexed R, G, B, Y and directions are indexed ^, v, <, >.
+class CellCodes {
+  // Content codes
+  static final byte BLANK = 0;
+  static final byte WALL = 1;
+  static final byte BOX = 2;
+  static final byte HOLE = 3;
+  static final byte TROPHY = 4; // TROPHY + color index
+  static final byte PLAYER = 8; // PLAYER + direction index
+
+  // Ground codes
+  static final byte BLANK_GROUND = 0;
+  static final byte ICE = 1;
+  static final byte TARGET = 2; // TARGET + color index
+
+  // Direction indices, with the matching row and column changes
+  static final int UP = 0;
+  static final int DOWN = 1;
+  static final int LEFT = 2;
+  static final int RIGHT = 3;
+  static final int[] ROW_CHANGE = { -1, 1, 0, 0 };
+  static final int[] COL_CHANGE = { 0, 0, -1, 1 };
+  static final int[] OPPOSITE = { DOWN, UP, RIGHT, LEFT };
+
+  static final String TROPHY_CHARS = "rgby";
+  static final String TARGET_CHARS = "RGBY";
+  static final String PLAYER_CHARS = "^v<>";
+
+  // Returns the content code for the given level character
+  static byte contentCode(char c) {
+    if (c == 'W') {
+      return WALL;
+    }
+    else if (c == 'B') {
+      return BOX;
+    }
+    else if (c == 'H') {
+      return HOLE;
+    }
+    else if (TROPHY_CHARS.indexOf(c) != -1) {
+      return (byte) (TROPHY + TROPHY_CHARS.indexOf(c));
+    }
+    else if (PLAYER_CHARS.indexOf(c) != -1) {
+      return (byte) (PLAYER + PLAYER_CHARS.indexOf(c));
+    }
+    else {
+      return BLANK;
+    }
+  }
+
+  // Returns the ground code for the given level character
+  static byte groundCode(char c) {
+    if (c == 'I') {
+      return ICE;
+    }
+    else if (TARGET_CHARS.indexOf(c) != -1) {
+      return (byte) (TARGET + TARGET_CHARS.indexOf(c));
+    }
+    else {
+      return BLANK_GROUND;
+    }
+  }
+
+  // Returns the level character for the given content code
+  static char contentChar(byte code) {
+    if (code == WALL) {
+      return 'W';
+    }
+    else if (code == BOX) {
+      return 'B';
+    }
+    else if (code == HOLE) {
+      return 'H';
+    }
+    else if (isTrophy(code)) {
+      return TROPHY_CHARS.charAt(code - TROPHY);
+    }
+    else if (isPlayer(code)) {
+      return PLAYER_CHARS.charAt(code - PLAYER);
+    }
+    else {
+      return '_';
+    }
+  }
+
+  // Returns the level character for the given ground code
+  static char groundChar(byte code) {
+    if (code == ICE) {
+      return 'I';
+    }
+    else if (isTarget(code)) {
+      return TARGET_CHARS.charAt(code - TARGET);
+    }
+    else {
+      return '_';
+    }
+  }
+
+  // Determines if the given content code is a trophy
+  static boolean isTrophy(byte code) {
+    return code >= TROPHY && code < TROPHY + 4;
+  }
+
+  // Determines if the given content code is a player
+  static boolean isPlayer(byte code) {
+    return code >= PLAYER && code < PLAYER + 4;
+  }
+
+  // Determines if the given content code is tracked as an entity (a player
+  // or an item that can be pushed)
+  static boolean isEntity(byte code) {
+    return isPlayer(code) || canBePushed(code);
+  }
+
+  // Determines if the given ground code is a target
+  static boolean isTarget(byte code) {
+    return code >= TARGET && code < TARGET + 4;
+  }
+
+  // Determines if the given content code can be moved onto
+  static boolean canBeMovedOnto(byte code) {
+    return code == BLANK;
+  }
+
+  // Determines if the given content code can be pushed
+  static boolean canBePushed(byte code) {
+    return code == BOX || isTrophy(code);
+  }
+
+  // Determines if the given content code destroys content
+  static boolean destroysContent(byte code) {
+    return code == HOLE;
+  }
+
+  // Determines if the given content code is immovable
+  static boolean isImmovable(byte code) {
+    return code == WALL || code == HOLE;
+  }
+
+  // Determines if the given content and ground codes make a complete cell
+  static boolean completedCell(byte content, byte ground) {
+    return !isTarget(ground) || content - TROPHY == ground - TARGET;
+  }
+
+  // Returns the Zobrist key of the given content code in the given cell: a
+  // fixed pseudo-random number for each pair, so that the XOR of the keys of
+  // every cell (see BoardGrid's hash) can be kept up to date one cell at a
+  // time. Blank cells have no key, and players have the same key whichever
+  // way they face, since facing doesn't change what can happen next. Keys are
+  // worked out by mixing the pair's bits (the SplitMix64 finalizer) rather
+  // than kept in a table, so grids of any size can share them.
+  static long zobrist(byte code, int cell) {
+    if (code == BLANK) {
+      return 0;
+    }
+    int kind = code;
+    if (isPlayer(code)) {
+      kind = PLAYER;
+    }
+    long key = (cell * 16L + kind) * 0x9E3779B97F4A7C15L;
+    key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+    key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+    return key ^ (key >>> 31);
+  }
+
+  // Returns the image file for the given content code, or null for blank
+  // content, which isn't drawn from a file
+  static String contentFile(byte code) {
+    if (code == WALL) {
+      return "./images/Wall.png";
+    }
+    else if (code == BOX) {
+      return "./images/Box.png";
+    }
+    else if (code == HOLE) {
+      return "./images/Hole.png";
+    }
+    else if (isTrophy(code)) {
+      // The image files are named with the upper case color letter
+      return "./images/Trophy" + ItemColor.values()[code - TROPHY].targetChar + ".png";
+    }
+    else if (isPlayer(code)) {
+      return "./images/Player" + Direction.values()[code - PLAYER].symbol + ".png";
+    }
+    else {
+      return null;
+    }
+  }
+
+  // Returns the image file for the given ground code, or null for grounds
+  // that aren't drawn from a file
+  static String groundFile(byte code) {
+    if (code == ICE) {
+      return "./images/Ice.png";
+    }
+    else {
+      return null;
+    }
+  }
+}
+
+// Shared instances of every kind of content and ground. Content and ground
+// classes hold no state that changes, so one instance of each kind (and one
+// per color or direction) can stand in for every cell of that kind.
+class CellViews {
+  static final Wall WALL = new Wall();
+  static final Box BOX = new Box();
+  static final Hole HOLE = new Hole();
+  static final BlankContent BLANK = new BlankContent();
+  static final BlankGround BLANK_GROUND = new BlankGround();
+  static final Ice ICE = new Ice();
+
+  // Views indexed by content code and by ground code (see CellCodes)
+  static final IContentCell[] CONTENTS = new IContentCell[CellCodes.PLAYER + 4];
+  static final IGroundCell[] GROUNDS = new IGroundCell[CellCodes.TARGET + 4];
+
+  static {
+    CONTENTS[CellCodes.BLANK] = BLANK;
+    CONTENTS[CellCodes.WALL] = WALL;
+    CONTENTS[CellCodes.BOX] = BOX;
+    CONTENTS[CellCodes.HOLE] = HOLE;
+    for (ItemColor color : ItemColor.values()) {
+      CONTENTS[CellCodes.TROPHY + color.ordinal()] = new Trophy(color);
+      GROUNDS[CellCodes.TARGET + color.ordinal()] = new Target(color);
+    }
+    for (Direction direction : Direction.values()) {
+      CONTENTS[CellCodes.PLAYER + direction.ordinal()] = new Player(direction);
+    }
+    GROUNDS[CellCodes.BLANK_GROUND] = BLANK_GROUND;
+    GROUNDS[CellCodes.ICE] = ICE;
+  }
+
+  // Returns the shared content for the given content code
+  static IContentCell content(byte code) {
+    return CONTENTS[code];
+  }
+
+  // Returns the shared ground for the given ground code
+  static IGroundCell ground(byte code) {
+    return GROUNDS[code];
+  }
+
+  // Returns the shared player facing the given direction
+  static Player player(Direction direction) {
+    return (Player) CONTENTS[CellCodes.PLAYER + direction.ordinal()];
+  }
+
+  // Returns the shared trophy of the given color
+  static Trophy trophy(ItemColor color) {
+    return (Trophy) CONTENTS[CellCodes.TROPHY + color.ordinal()];
+  }
+
+  // Returns the shared target of the given color
+  static Target target(ItemColor color) {
+    return (Target) GROUNDS[CellCodes.TARGET + color.ordinal()];
+  }
+}
+
+// Packed, row-major representation of the cells of a board. Content and
+// ground are stored as byte codes (see CellCodes) in flat arrays, where the
+// cell in a given row and column lives at index row * width + column.
+class BoardGrid implements ISame<BoardGrid> {
+  int width; // number of columns
+  int height; // number of rows
+  byte[] contents;
+  byte[] grounds;
+  int[] unsatisfied; // per color, targets not covered by a trophy of their color
+  int unsatisfiedTotal; // sum of unsatisfied
+  int[] entityAt; // per cell, id of the player or pushable item there, or -1
+  int[] entityCells; // per entity id, the cell it is in, or -1 once it is gone
+  int[] slideStops; // per direction then cell, where a slide from that cell stops
+  boolean[] dirtyRows; // per row, whether its contents changed since it was last drawn
+  boolean anyDirtyRows; // whether any row is dirty
+  long hash; // Zobrist hash of the contents (see CellCodes.zobrist)
+  GridRenderer renderer; // draws this grid, made the first time it is drawn
+  Deadlocks deadlocks; // finds states of the level that can't be won, made when first needed
+
+  // Constructor for BoardGrid
+  BoardGrid(int width, int height, byte[] contents, byte[] grounds) {
+    if (contents.length != width * height || grounds.length != width * height) {
+      throw new IllegalArgumentException("Content and Ground must be same number of cells");
+    }
+    this.width = width;
+    this.height = height;
+    this.contents = contents;
+    this.grounds = grounds;
+    this.unsatisfied = new int[ItemColor.values().length];
+    this.unsatisfiedTotal = 0;
+    this.entityAt = new int[contents.length];
+    this.hash = 0;
+    int entities = 0;
+    for (int i = 0; i < contents.length; i += 1) {
+      this.hash ^= CellCodes.zobrist(contents[i], i);
+      if (!CellCodes.completedCell(contents[i], grounds[i])) {
+        this.unsatisfied[grounds[i] - CellCodes.TARGET] += 1;
+        this.unsatisfiedTotal += 1;
+      }
+      if (CellCodes.isEntity(contents[i])) {
+        this.entityAt[i] = entities;
+        entities += 1;
+      }
+      else {
+        this.entityAt[i] = -1;
+      }
+    }
+    // Entities are numbered in reading order (left -> right then top -> bottom)
+    this.entityCells = new int[entities];
+    for (int i = 0; i < contents.length; i += 1) {
+      if (this.entityAt[i] != -1) {
+        this.entityCells[this.entityAt[i]] = i;
+      }
+    }
+    this.dirtyRows = new boolean[height];
+    this.anyDirtyRows = false;
+    this.renderer = null;
+    this.deadlocks = null;
+    this.slideStops = new int[4 * contents.length];
+    for (int direction = 0; direction < 4; direction += 1) {
+      // Each stop is built from the stop of the next cell in the direction,
+      // so cells are visited starting from the far side of the grid
+      int step = CellCodes.ROW_CHANGE[direction] * width + CellCodes.COL_CHANGE[direction];
+      for (int n = 0; n < contents.length; n += 1) {
+        int i;
+        if (step < 0) {
+          i = n;
+        }
+        else {
+          i = contents.length - 1 - n;
+        }
+        this.slideStops[direction * contents.length + i] = this.slideStopFrom(i, direction);
+      }
+    }
+  }
+
+  // Returns a copy of this grid. Grounds never change, so they are shared.
+  BoardGrid copy() {
+    return new BoardGrid(this.width, this.height, this.contents.clone(), this.grounds);
+  }
+
+  // Returns the index of the given row and column
+  int index(int row, int col) {
+    return row * this.width + col;
+  }
+
+  // Determines if the given row and column are on this grid
+  boolean inBounds(int row, int col) {
+    return row >= 0 && row < this.height && col >= 0 && col < this.width;
+  }
+
+  // Returns the index of the cell next to the given index in the given
+  // direction, or -1 if that is off the grid
+  int neighbor(int index, int direction) {
+    int row = index / this.width + CellCodes.ROW_CHANGE[direction];
+    int col = index % this.width + CellCodes.COL_CHANGE[direction];
+    if (this.inBounds(row, col)) {
+      return this.index(row, col);
+    }
+    else {
+      return -1;
+    }
+  }
+
+  // Returns the content code at the given row and column. Anything off the
+  // grid behaves like a wall.
+  byte contentAt(int row, int col) {
+    if (this.inBounds(row, col)) {
+      return this.contents[this.index(row, col)];
+    }
+    else {
+      return CellCodes.WALL;
+    }
+  }
+
+  // Returns the ground code at the given row and column
+  byte groundAt(int row, int col) {
+    if (this.inBounds(row, col)) {
+      return this.grounds[this.index(row, col)];
+    }
+    else {
+      return CellCodes.BLANK_GROUND;
+    }
+  }
+
+  // Sets the content code and entity id (-1 for none) at the given index.
+  // Every change to a grid's contents after it is built goes through here, so
+  // this is also where the count of unsatisfied targets, the location of
+  // each entity, the slide stops and the hash are kept up to date, and where
+  // the rows that need drawing again are marked.
+  void setContent(int index, byte code, int entity) {
+    this.hash ^= CellCodes.zobrist(this.contents[index], index) ^ CellCodes.zobrist(code, index);
+    this.dirtyRows[index / this.width] = true;
+    this.anyDirtyRows = true;
+    int oldEntity = this.entityAt[index];
+    if (oldEntity != -1 && this.entityCells[oldEntity] == index) {
+      this.entityCells[oldEntity] = -1;
+    }
+    if (entity != -1) {
+      this.entityCells[entity] = index;
+    }
+    this.entityAt[index] = entity;
+    byte ground = this.grounds[index];
+    if (CellCodes.isTarget(ground)) {
+      boolean wasComplete = CellCodes.completedCell(this.contents[index], ground);
+      boolean isComplete = CellCodes.completedCell(code, ground);
+      if (wasComplete && !isComplete) {
+        this.unsatisfied[ground - CellCodes.TARGET] += 1;
+        this.unsatisfiedTotal += 1;
+      }
+      else if (!wasComplete && isComplete) {
+        this.unsatisfied[ground - CellCodes.TARGET] -= 1;
+        this.unsatisfiedTotal -= 1;
+      }
+    }
+    boolean wasEmpty = CellCodes.canBeMovedOnto(this.contents[index]);
+    this.contents[index] = code;
+    if (wasEmpty != CellCodes.canBeMovedOnto(code)) {
+      this.updateSlideStops(index);
+    }
+  }
+
+  // Changes this grid's contents to the given ones (of the same length),
+  // setting only the cells that differ. The cells that change lose their
+  // entity ids, since the same contents can be reached in ways that leave
+  // the items in a different order.
+  void load(byte[] newContents) {
+    for (int i = 0; i < newContents.length; i += 1) {
+      if (this.contents[i] != newContents[i]) {
+        this.setContent(i, newContents[i], -1);
+      }
+    }
+  }
+
+  // Returns the cell where something sliding from the given index in the
+  // given direction comes to rest: the last cell of the run of empty ice
+  // ahead of it, or the first empty cell past the end of the ice. What is at
+  // the given index itself doesn't matter. A cell not on ice is its own stop.
+  int slideStop(int index, int direction) {
+    return this.slideStops[direction * this.contents.length + index];
+  }
+
+  // Works out the slide stop of the given index from the stop of the next
+  // cell in the given direction
+  int slideStopFrom(int index, int direction) {
+    int next = this.neighbor(index, direction);
+    if (this.grounds[index] != CellCodes.ICE || next == -1
+        || !CellCodes.canBeMovedOnto(this.contents[next])) {
+      return index;
+    }
+    else if (this.grounds[next] != CellCodes.ICE) {
+      return next;
+    }
+    else {
+      return this.slideStop(next, direction);
+    }
+  }
+
+  // Works out the slide stop of the given index by walking cell by cell
+  int slideStopByWalk(int index, int direction) {
+    int stop = index;
+    int next = this.neighbor(stop, direction);
+    while (this.grounds[stop] == CellCodes.ICE && next != -1
+        && CellCodes.canBeMovedOnto(this.contents[next])) {
+      stop = next;
+      next = this.neighbor(stop, direction);
+    }
+    return stop;
+  }
+
+  // Fixes the slide stops that changed because the given cell went from empty
+  // to filled or back. Only the run of ice leading up to the cell (up to the
+  // first filled cell) slides through or stops against it, and every cell in
+  // that run shares the same stop.
+  void updateSlideStops(int index) {
+    for (int direction = 0; direction < 4; direction += 1) {
+      int back = CellCodes.OPPOSITE[direction];
+      int cell = this.neighbor(index, back);
+      if (cell != -1 && this.grounds[cell] == CellCodes.ICE) {
+        int stop = this.slideStopFrom(cell, direction);
+        while (cell != -1 && this.grounds[cell] == CellCodes.ICE) {
+          this.slideStops[direction * this.contents.length + cell] = stop;
+          if (CellCodes.canBeMovedOnto(this.contents[cell])) {
+            cell = this.neighbor(cell, back);
+          }
+          else {
+            cell = -1;
+          }
+        }
+      }
+    }
+  }
+
+  // Returns the renderer that draws this grid
+  GridRenderer renderer() {
+    if (this.renderer == null) {
+      this.renderer = new GridRenderer(this);
+    }
+    return this.renderer;
+  }
+
+  // Returns the deadlock checks for this grid's level
+  Deadlocks deadlocks() {
+    if (this.deadlocks == null) {
+      this.deadlocks = new Deadlocks(this);
+    }
+    return this.deadlocks;
+  }
+
+  // Returns the number of entities (players and pushable items) the level
+  // started with
+  int entityCount() {
+    return this.entityCells.length;
+  }
+
+  // Returns the cell the given entity is in, or -1 if it fell into a hole
+  int entityCell(int entity) {
+    return this.entityCells[entity];
+  }
+
+  // Returns the number of targets of the given color not covered by a trophy
+  // of that color
+  int unsatisfiedTargets(ItemColor color) {
+    return this.unsatisfied[color.ordinal()];
+  }
+
+  // Gets the first (left -> right then top -> bottom) location of a player,
+  // or (-1, -1) if there is none. Only entities are looked at, since every
+  // player is one.
+  Posn findPlayer() {
+    int first = this.firstPlayerCell();
+    if (first == -1) {
+      return new Posn(-1, -1);
+    }
+    else {
+      return new Posn(first / this.width, first % this.width);
+    }
+  }
+
+  // Returns the first (left -> right then top -> bottom) cell with a player
+  // in it, or -1 if there is none
+  int firstPlayerCell() {
+    int first = -1;
+    for (int cell : this.entityCells) {
+      if (cell != -1 && CellCodes.isPlayer(this.contents[cell]) && (first == -1 || cell < first)) {
+        first = cell;
+      }
+    }
+    return first;
+  }
+
+  // Determines if every target is covered by a trophy of the same color, in
+  // constant time from the count of unsatisfied targets
+  boolean allTargetsCovered() {
+    return this.unsatisfiedTotal == 0;
+  }
+
+  // Determines if every target is covered by a trophy of the same color by
+  // checking every cell
+  boolean allTargetsCoveredByScan() {
+    for (int i = 0; i < this.contents.length; i += 1) {
+      if (!CellCodes.completedCell(this.contents[i], this.grounds[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Returns a view of the content at the given index. Views are shared
+  // instances, so they cost no allocation.
+  IContentCell contentView(int index) {
+    return CellViews.content(this.contents[index]);
+  }
+
+  // Returns a view of the ground at the given index. Views are shared
+  // instances, so they cost no allocation.
+  IGroundCell groundView(int index) {
+    return CellViews.ground(this.grounds[index]);
+  }
+
+  // Returns a view of the cell at the given index
+  Cell cellView(int index) {
+    return new Cell(this.contentView(index), this.groundView(index));
+  }
+
+  // Determines if this grid has the same size and cells as the given one.
+  // What is kept only to speed things up (entity ids, slide stops and drawing)
+  // is left out.
+  public boolean same(BoardGrid other) {
+    return this.width == other.width && this.height == other.height
+        && java.util.Arrays.equals(this.contents, other.contents)
+        && java.util.Arrays.equals(this.grounds, other.grounds);
+  }
+
+  // Returns a view of this grid as a list of rows of cells
+  ArrayList<ArrayList<Cell>> toCells() {
+    ArrayList<ArrayList<Cell>> cells = new ArrayList<ArrayList<Cell>>();
+    for (int row = 0; row < this.height; row += 1) {
+      ArrayList<Cell> cellRow = new ArrayList<Cell>();
+      for (int col = 0; col < this.width; col += 1) {
+        cellRow.add(this.cellView(this.index(row, col)));
+      }
+      cells.add(cellRow);
+    }
+    return cells;
+  }
+}
+
+// Records the cells changed by a move, with their content codes before and
+// after, so that the move can be undone or redone on a BoardGrid
+class MoveDelta {
+  int[] cells; // indices of the changed cells, each recorded once
+  byte[] before; // content codes before the move
+  byte[] after; // content codes after the move
+  int[] entitiesBefore; // entity ids before the move (-1 for none)
+  int[] entitiesAfter; // entity ids after the move (-1 for none)
+  int size; // number of changed cells
+
+  // Constructor for an empty MoveDelta
+  MoveDelta() {
+    this.cells = new int[4];
+    this.before = new byte[4];
+    this.after = new byte[4];
+    this.entitiesBefore = new int[4];
+    this.entitiesAfter = new int[4];
+    this.size = 0;
+  }
+
+  // Records that the given cell changed from one code and entity to another.
+  // A cell that changes several times during a move keeps its first before
+  // values, and is dropped if it ends up back where it started (e.g. ice an
+  // item slid over).
+  void record(int cell, byte oldCode, byte newCode, int oldEntity, int newEntity) {
+    for (int i = 0; i < this.size; i += 1) {
+      if (this.cells[i] == cell) {
+        if (this.before[i] == newCode && this.entitiesBefore[i] == newEntity) {
+          this.size -= 1;
+          this.cells[i] = this.cells[this.size];
+          this.before[i] = this.before[this.size];
+          this.after[i] = this.after[this.size];
+          this.entitiesBefore[i] = this.entitiesBefore[this.size];
+          this.entitiesAfter[i] = this.entitiesAfter[this.size];
+        }
+        else {
+          this.after[i] = newCode;
+          this.entitiesAfter[i] = newEntity;
+        }
+        return;
+      }
+    }
+    if (this.size == this.cells.length) {
+      this.cells = java.util.Arrays.copyOf(this.cells, this.size * 2);
+      this.before = java.util.Arrays.copyOf(this.before, this.size * 2);
+      this.after = java.util.Arrays.copyOf(this.after, this.size * 2);
+      this.entitiesBefore = java.util.Arrays.copyOf(this.entitiesBefore, this.size * 2);
+      this.entitiesAfter = java.util.Arrays.copyOf(this.entitiesAfter, this.size * 2);
+    }
+    this.cells[this.size] = cell;
+    this.before[this.size] = oldCode;
+    this.after[this.size] = newCode;
+    this.entitiesBefore[this.size] = oldEntity;
+    this.entitiesAfter[this.size] = newEntity;
+    this.size += 1;
+  }
+
+  // Determines if this delta changed nothing
+  boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  // Forgets every recorded change so this delta can be reused
+  void clear() {
+    this.size = 0;
+  }
 
-  Posn playerLoc;
+  // Turns the grid from its state before the move into its state after
+  void redo(BoardGrid grid) {
+    for (int i = 0; i < this.size; i += 1) {
+      grid.setContent(this.cells[i], this.after[i], this.entitiesAfter[i]);
+    }
+  }
+
+  // Turns the grid from its state after the move back into its state before
+  void undo(BoardGrid grid) {
+    for (int i = this.size - 1; i >= 0; i -= 1) {
+      grid.setContent(this.cells[i], this.before[i], this.entitiesBefore[i]);
+    }
+  }
+}
+
+// Represents one version of a BoardGrid that is shared between boards. The
+// version whose next is null (the root) is the one the grid currently holds.
+// Every other version knows the delta that turns the next version on its
+// path to the root back into itself, so moving between versions only touches
+// the cells that differ (the grid is "rerooted" onto the version asked for).
+class GridVersion {
+  BoardGrid grid; // grid shared by every version of a level
+  GridVersion next; // next version on the path to the root, or null
+  MoveDelta delta; // changes between this version and next
+  boolean undoToReach; // whether undoing (rather than redoing) delta reaches this
+
+  // Constructor for the root version of a grid
+  GridVersion(BoardGrid grid) {
+    this.grid = grid;
+    this.next = null;
+    this.delta = null;
+    this.undoToReach = false;
+  }
+
+  // Makes the grid hold this version, by replaying the deltas between the
+  // current root and this version, and makes this version the root
+  void reroot() {
+    if (this.next == null) {
+      return;
+    }
+    ArrayList<GridVersion> path = new ArrayList<GridVersion>();
+    for (GridVersion v = this; v.next != null; v = v.next) {
+      path.add(v);
+    }
+    // Walks back from the version next to the root, flipping each link
+    for (int i = path.size() - 1; i >= 0; i -= 1) {
+      GridVersion v = path.get(i);
+      GridVersion root = v.next;
+      if (v.undoToReach) {
+        v.delta.undo(this.grid);
+      }
+      else {
+        v.delta.redo(this.grid);
+      }
+      root.next = v;
+      root.delta = v.delta;
+      root.undoToReach = !v.undoToReach;
+      v.next = null;
+      v.delta = null;
+    }
+  }
+
+  // Returns the new root version after the given delta was applied to the
+  // grid while this version was the root
+  GridVersion advance(MoveDelta applied) {
+    GridVersion newRoot = new GridVersion(this.grid);
+    this.next = newRoot;
+    this.delta = applied;
+    this.undoToReach = true;
+    return newRoot;
+  }
+}
+
+// The path taken by everything that moved during one move, for animating it.
+// Each segment is one entity going in a straight line from one cell to
+// another, in the order the moves happened; consecutive segments of the same
+// entity are joined into one.
+class MoveTrace {
+  int[] entities; // entity id that moved in each segment
+  int[] froms; // cell each segment starts in
+  int[] tos; // cell each segment ends in
+  boolean[] fell; // whether the entity fell into the hole at the end of its segment
+  int size; // number of segments
+
+  // Constructor for an empty MoveTrace
+  MoveTrace() {
+    this.entities = new int[4];
+    this.froms = new int[4];
+    this.tos = new int[4];
+    this.fell = new boolean[4];
+    this.size = 0;
+  }
+
+  // Records that the given entity went from one cell to another, joining it
+  // onto the last segment if that was the same entity ending where this starts
+  void add(int entity, int from, int to) {
+    this.addSegment(entity, from, to, false);
+  }
+
+  // Records that the given entity went from one cell into the hole at another
+  void fall(int entity, int from, int hole) {
+    this.addSegment(entity, from, hole, true);
+  }
+
+  // Records a segment, joining it onto the last one if possible
+  void addSegment(int entity, int from, int to, boolean fell) {
+    int last = this.size - 1;
+    if (last >= 0 && this.entities[last] == entity && this.tos[last] == from
+        && !this.fell[last]) {
+      this.tos[last] = to;
+      this.fell[last] = fell;
+    }
+    else {
+      if (this.size == this.entities.length) {
+        this.entities = java.util.Arrays.copyOf(this.entities, this.size * 2);
+        this.froms = java.util.Arrays.copyOf(this.froms, this.size * 2);
+        this.tos = java.util.Arrays.copyOf(this.tos, this.size * 2);
+        this.fell = java.util.Arrays.copyOf(this.fell, this.size * 2);
+      }
+      this.entities[this.size] = entity;
+      this.froms[this.size] = from;
+      this.tos[this.size] = to;
+      this.fell[this.size] = fell;
+      this.size += 1;
+    }
+  }
+
+  // Empties this trace so it can be reused
+  void clear() {
+    this.size = 0;
+  }
+}
+
+// Applies player moves to a BoardGrid in place, recording every change in a
+// MoveDelta and the path of everything that moved in a MoveTrace. A move is
+// worked out as a loop over two states, so it takes the same amount of stack
+// however long the ice it slides over.
+class MoveEngine {
+  BoardGrid grid;
+  MoveDelta delta;
+  MoveTrace trace;
+  int playerCell; // cell of the player being moved, or -1 once it falls
+
+  // States of a move
+  static final int STEP = 0; // the player tries to go one cell (walk, push or fall)
+  static final int SLIDE = 1; // the player slides across the empty ice ahead
+  static final int DONE = 2;
+
+  // Convenience constructor for when the path isn't needed
+  MoveEngine(BoardGrid grid, MoveDelta delta) {
+    this(grid, delta, new MoveTrace());
+  }
+
+  // Constructor for MoveEngine
+  MoveEngine(BoardGrid grid, MoveDelta delta, MoveTrace trace) {
+    this.grid = grid;
+    this.delta = delta;
+    this.trace = trace;
+    this.playerCell = -1;
+  }
+
+  // Sets the content and entity of the given cell, recording the change
+  void set(int index, byte code, int entity) {
+    byte oldCode = this.grid.contents[index];
+    int oldEntity = this.grid.entityAt[index];
+    if (oldCode != code || oldEntity != entity) {
+      this.delta.record(index, oldCode, code, oldEntity, entity);
+      this.grid.setContent(index, code, entity);
+    }
+  }
+
+  // Empties the given cell, recording the change
+  void clear(int index) {
+    this.set(index, CellCodes.BLANK, -1);
+  }
+
+  // Moves the player at the given row and column one cell in the given
+  // direction (if possible), sliding on ice as needed. Returns the player's
+  // final index, or -1 if the player fell into a hole.
+  int movePlayer(int row, int col, int direction) {
+    this.playerCell = this.grid.index(row, col);
+    int state = MoveEngine.STEP;
+    while (state != MoveEngine.DONE) {
+      if (state == MoveEngine.STEP) {
+        state = this.step(direction);
+      }
+      else {
+        state = this.slide(direction);
+      }
+    }
+    return this.playerCell;
+  }
+
+  // Moves the player one cell in the given direction (if possible), pushing
+  // or falling as needed. Returns the next state of the move.
+  int step(int direction) {
+    BoardGrid grid = this.grid;
+    int oldPlayerCell = this.playerCell;
+    int newPlayerCell = grid.neighbor(oldPlayerCell, direction);
+    // This won't ever happen since walls surround the board, but useful check
+    if (newPlayerCell == -1) {
+      return MoveEngine.DONE;
+    }
+    byte newPlayer = (byte) (CellCodes.PLAYER + direction);
+    int player = grid.entityAt[oldPlayerCell];
+    int playerCell = oldPlayerCell;
+    boolean hitAHole = false;
+
+    byte contentAdjToPlayer = grid.contents[newPlayerCell];
+
+    // If the player can move onto the adjacent cell
+    if (CellCodes.canBeMovedOnto(contentAdjToPlayer)) {
+      this.set(newPlayerCell, newPlayer, player);
+      this.clear(oldPlayerCell);
+      this.trace.add(player, oldPlayerCell, newPlayerCell);
+      playerCell = newPlayerCell;
+    }
+    // If the player can push the content of the adjacent cell
+    else if (CellCodes.canBePushed(contentAdjToPlayer)) {
+      int otherCell = grid.neighbor(newPlayerCell, direction);
+      byte otherSide;
+      if (otherCell == -1) {
+        otherSide = CellCodes.WALL;
+      }
+      else {
+        otherSide = grid.contents[otherCell];
+      }
+      int item = grid.entityAt[newPlayerCell];
+      // Moves box into blank spot and player into the vacated trophy spot.
+      if (CellCodes.canBeMovedOnto(otherSide)) {
+        this.set(otherCell, contentAdjToPlayer, item);
+        this.set(newPlayerCell, newPlayer, player);
+        this.clear(oldPlayerCell);
+        this.trace.add(item, newPlayerCell, otherCell);
+        hitAHole = this.slideItem(otherCell / grid.width, otherCell % grid.width, direction);
+        this.trace.add(player, oldPlayerCell, newPlayerCell);
+        playerCell = newPlayerCell;
+      }
+      // Moves box into hole (meaning they disappear) and moves player into vacated
+      // trophy spot.
+      else if (CellCodes.destroysContent(otherSide)) {
+        this.clear(otherCell);
+        this.set(newPlayerCell, newPlayer, player);
+        this.clear(oldPlayerCell);
+        this.trace.fall(item, newPlayerCell, otherCell);
+        this.trace.add(player, oldPlayerCell, newPlayerCell);
+        playerCell = newPlayerCell;
+      }
+    }
+    // Deals with moving a player onto a hole
+    else if (CellCodes.destroysContent(contentAdjToPlayer)) {
+      this.clear(newPlayerCell);
+      this.clear(oldPlayerCell);
+      this.trace.fall(player, oldPlayerCell, newPlayerCell);
+      this.playerCell = -1;
+      return MoveEngine.DONE;
+    }
+
+    byte newPlayerCellContent = grid.contents[newPlayerCell];
+    // Keeps going if our player is on ice and isn't next to an immovable
+    // object
+    if (grid.grounds[newPlayerCell] == CellCodes.ICE
+        && !CellCodes.isImmovable(newPlayerCellContent)
+        && !CellCodes.canBePushed(newPlayerCellContent) && !hitAHole) {
+      this.playerCell = newPlayerCell;
+      return MoveEngine.SLIDE;
+    }
+    this.playerCell = playerCell;
+    return MoveEngine.DONE;
+  }
+
+  // Slides the player on ice straight to the end of the empty ice ahead (see
+  // BoardGrid's slide stops). Returns the next state of the move: another
+  // step if it is still on ice, to push or fall into whatever stopped it.
+  int slide(int direction) {
+    BoardGrid grid = this.grid;
+    int cell = this.playerCell;
+    int stop = grid.slideStop(cell, direction);
+    if (stop != cell) {
+      int player = grid.entityAt[cell];
+      this.set(stop, (byte) (CellCodes.PLAYER + direction), player);
+      this.clear(cell);
+      this.trace.add(player, cell, stop);
+      this.playerCell = stop;
+    }
+    if (grid.grounds[stop] == CellCodes.ICE) {
+      return MoveEngine.STEP;
+    }
+    else {
+      return MoveEngine.DONE;
+    }
+  }
+
+  // If we push a box or trophy onto ice, we want it to travel until it
+  // either collides with something, moves off the ice, or hits a hole.
+  // Moves the item at the given row and column straight to where one of these
+  // things happens (see BoardGrid's slide stops), and returns whether it fell
+  // into a hole.
+  boolean slideItem(int row, int col, int direction) {
+    BoardGrid grid = this.grid;
+    int cell = grid.index(row, col);
+    int item = grid.entityAt[cell];
+    int stop = grid.slideStop(cell, direction);
+    if (stop != cell) {
+      this.set(stop, grid.contents[cell], item);
+      this.clear(cell);
+      this.trace.add(item, cell, stop);
+    }
+    int next = grid.neighbor(stop, direction);
+    if (grid.grounds[stop] == CellCodes.ICE && next != -1
+        && CellCodes.destroysContent(grid.contents[next])) {
+      this.clear(next);
+      this.clear(stop);
+      this.trace.fall(item, stop, next);
+      return true;
+    }
+    return false;
+  }
+}
+
+// Class representing a Sokoban level. Boards never change once made: a move
+// changes the level's shared grid in place and returns a new version of it,
+// and looking at an older board brings the grid back to that board's version.
+class Board implements ISame<Board> {
+  GridVersion version; // Version of the level's packed cells (see BoardGrid)
+
+  Posn playerLoc; // (row, column) of the player, or (-1, -1) if there is none
+
+  MoveDelta lastMove; // Cells changed to reach this board, or null for a new level
+
+  MoveTrace lastPath; // How things moved to reach this board, or null if not by a move
+
+  // Debug mode: cross-checks levelWon against a full scan of the board. Turn
+  // it on by running with -Dsokoban.checkWinState=true.
+  static boolean checkWinState = Boolean.getBoolean("sokoban.checkWinState");
 
   // Convenience constructor from strings
   Board(String contents, String ground) {
-    this.cells = new Utils().initializeCells(contents, ground);
-    this.playerLoc = this.getLocation(new RowContainsPlayer(), new DoesThisCellHaveAPlayer());
+    this(new Utils().initializeGrid(contents, ground));
   }
 
-  // Default constructor from list of list of cells
+  // Convenience constructor from list of list of cells
   Board(ArrayList<ArrayList<Cell>> cells) {
-    this.cells = cells;
-    this.playerLoc = this.getLocation(new RowContainsPlayer(), new DoesThisCellHaveAPlayer());
+    this(new Utils().gridFromCells(cells));
+  }
+
+  // Constructor from a packed grid, which the board takes ownership of. This
+  // is the only time the player is looked for; afterwards its location is
+  // carried forward by moves and undos.
+  Board(BoardGrid grid) {
+    this.version = new GridVersion(grid);
+    this.playerLoc = grid.findPlayer();
+    this.lastMove = null;
+    this.lastPath = null;
+  }
+
+  // Constructor from a version of a grid not reached by a move
+  Board(GridVersion version, Posn playerLoc, MoveDelta lastMove) {
+    this(version, playerLoc, lastMove, null);
   }
 
-  // Returns a single image representing the board
+  // Default constructor from a version of a grid
+  Board(GridVersion version, Posn playerLoc, MoveDelta lastMove, MoveTrace lastPath) {
+    this.version = version;
+    this.playerLoc = playerLoc;
+    this.lastMove = lastMove;
+    this.lastPath = lastPath;
+  }
+
+  // Returns the packed cells of this board. The grid is shared with other
+  // versions of the level, so it must not be changed by the caller.
+  BoardGrid grid() {
+    this.version.reroot();
+    return this.version.grid;
+  }
+
+  // Returns a view of this board's cells: a list of rows (top -> bottom), where
+  // a row is a list of cells (left -> right).
+  ArrayList<ArrayList<Cell>> cells() {
+    return this.grid().toCells();
+  }
+
+  // Returns a single image representing the board. Only the rows changed
+  // since the level was last drawn are drawn again (see GridRenderer).
   WorldImage render() {
-    return new Utils().drawCells(this.cells);
+    return this.grid().renderer().render();
   }
 
-  // Determines if this level is won (trophies on correct targets)
+  // Determines if this level is won (trophies on correct targets). When
+  // checkWinState is set, the grid's running count of unsatisfied targets is
+  // checked against a scan of every cell.
   boolean levelWon() {
-    return new ArrayUtils().andMap(this.cells, new CompletedRow());
+    boolean won = this.grid().allTargetsCovered();
+    if (Board.checkWinState
+        && won != new ArrayUtils().andMap(this.cells(), new CompletedRow())) {
+      throw new IllegalStateException("Unsatisfied target count is out of date");
+    }
+    return won;
   }
 
   // Returns the same board with the player moved up if possible
   Board movePlayerUp() {
-    return this.movePlayer(this.playerLoc, new Posn(this.playerLoc.x - 1, this.playerLoc.y),
-        new Player("^"));
+    return this.movePlayer(CellCodes.UP);
   }
 
   // Returns the same board with the player moved down if possible
   Board movePlayerDown() {
-    return this.movePlayer(this.playerLoc, new Posn(this.playerLoc.x + 1, this.playerLoc.y),
-        new Player("v"));
+    return this.movePlayer(CellCodes.DOWN);
   }
 
   // Returns the same board with the player moved left if possible
   Board movePlayerRight() {
-    return this.movePlayer(this.playerLoc, new Posn(this.playerLoc.x, this.playerLoc.y + 1),
-        new Player(">"));
+    return this.movePlayer(CellCodes.RIGHT);
   }
 
   // Returns the same board with the player moved right if possible
   Board movePlayerLeft() {
-    return this.movePlayer(this.playerLoc, new Posn(this.playerLoc.x, this.playerLoc.y - 1),
-        new Player("<"));
+    return this.movePlayer(CellCodes.LEFT);
   }
 
   // Returns whether the board contains a player
@@ -424,9 +1565,17 @@ class Board {
     return this.playerLoc.x != -1;
   }
 
+  // Determines if the player can no longer win the level, whatever they do
+  // (see Deadlocks). A lost board is not stuck, since it is already over.
+  boolean isStuck() {
+    return this.hasAPlayer() && this.grid().deadlocks().isDeadlocked(this.grid(),
+        this.playerCell());
+  }
+
   // Gets the first (left -> right then top -> bottom) index of a cell
   Posn getLocation(Function<ArrayList<Cell>, Boolean> rowFunc,
       Function<Cell, Boolean> elementFunc) {
+    ArrayList<ArrayList<Cell>> cells = this.cells();
     int row = new ArrayUtils().getIndexIf(cells, rowFunc);
     int column;
     if (row == -1) {
@@ -439,115 +1588,192 @@ class Board {
     return new Posn(row, column);
   }
 
-  // Moves the player from the old location to the new location (if possible).
-  // newPlayer is just the player oriented facing the correct direction.
-  Board movePlayer(Posn oldPlayerLoc, Posn newPlayerLoc, IContentCell newPlayer) {
-    // This won't ever happen since walls surround the board, but useful check
-    if (newPlayerLoc.x >= this.cells.size() || newPlayerLoc.y >= this.cells.get(0).size()
-        || newPlayerLoc.x < 0 || newPlayerLoc.y < 0) {
+  // Moves the player one cell in the given direction (if possible). Only the
+  // cells the move touches are changed, and this board stays as it was. If
+  // the player falls into a hole, the next player left on the board (if any)
+  // takes over.
+  Board movePlayer(int direction) {
+    if (!this.hasAPlayer()) {
       return this;
     }
-
-    ArrayList<ArrayList<Cell>> recentCells = this.cells;
-    ArrayList<ArrayList<Cell>> newCells = new ArrayList<ArrayList<Cell>>();
-
-    // Performs a deep copy of the board so that undesired mutation is avoided
-    for (ArrayList<Cell> row : recentCells) {
-      ArrayList<Cell> newRow = new ArrayList<Cell>();
-      for (Cell cell : row) {
-        newRow.add(new Cell(cell.content, cell.ground));
-      }
-      newCells.add(newRow);
+    BoardGrid grid = this.grid();
+    MoveDelta delta = new MoveDelta();
+    MoveTrace path = new MoveTrace();
+    int playerCell = new MoveEngine(grid, delta, path).movePlayer(this.playerLoc.x,
+        this.playerLoc.y, direction);
+    if (delta.isEmpty()) {
+      return this;
     }
+    return new Board(this.version.advance(delta), this.playerAfter(grid, playerCell), delta,
+        path);
+  }
+
+  // Returns this board with the given changes applied and the player at the
+  // given location. Only the changed cells are touched.
+  Board applyDelta(MoveDelta delta, Posn newPlayerLoc) {
+    delta.redo(this.grid());
+    return new Board(this.version.advance(delta), newPlayerLoc, delta);
+  }
+
+  // Returns this board with the most recent move in the given log undone,
+  // removing that move from the log
+  Board undoLastMove(UndoLog log) {
+    MoveDelta undo = new MoveDelta();
+    int playerCell = log.pop(undo);
+    BoardGrid grid = this.grid();
+    undo.redo(grid);
+    return new Board(this.version.advance(undo), this.playerAfter(grid, playerCell), undo);
+  }
+
+  // Returns the location of the player moved to the given cell of the given
+  // grid, or, if it fell into a hole (a cell of -1), of the first player left
+  // on the grid. Players only fall now and then, so the grid is rarely
+  // searched.
+  Posn playerAfter(BoardGrid grid, int playerCell) {
+    if (playerCell == -1) {
+      return grid.findPlayer();
+    }
+    else {
+      return this.locationOf(playerCell);
+    }
+  }
 
-    boolean hitAHole = false;
-
-    Board newBoard = new Board(newCells);
-
-    Cell oldPlayerCell = newBoard.cells.get(oldPlayerLoc.x).get(oldPlayerLoc.y);
-    Cell newPlayerCell = newBoard.cells.get(newPlayerLoc.x).get(newPlayerLoc.y);
-
-    Posn otherSidePosition = new Posn(newPlayerLoc.x + (newPlayerLoc.x - oldPlayerLoc.x),
-        newPlayerLoc.y + (newPlayerLoc.y - oldPlayerLoc.y));
+  // Returns the (row, column) location of the given entity (see BoardGrid),
+  // or (-1, -1) if it fell into a hole
+  Posn entityLocation(int entity) {
+    return this.locationOf(this.grid().entityCell(entity));
+  }
 
-    IContentCell contentAdjToPlayer = newPlayerCell.content;
+  // Returns the packed index of the player, or -1 if there is none
+  int playerCell() {
+    if (this.hasAPlayer()) {
+      return this.playerLoc.x * this.version.grid.width + this.playerLoc.y;
+    }
+    else {
+      return -1;
+    }
+  }
 
-    // If the player can move onto the adjacent cell
-    if (contentAdjToPlayer.canBeMovedOnto()) {
+  // Returns the (row, column) location of the given packed index, or (-1, -1)
+  // for an index of -1
+  Posn locationOf(int cell) {
+    if (cell == -1) {
+      return new Posn(-1, -1);
+    }
+    else {
+      return new Posn(cell / this.version.grid.width, cell % this.version.grid.width);
+    }
+  }
 
-      newPlayerCell.content = newPlayer;
-      oldPlayerCell.content = new BlankContent();
+  // Determines if this board has the same cells and player location as the
+  // given one, whatever versions of their grids they are
+  public boolean same(Board other) {
+    BoardGrid grid = this.grid();
+    byte[] contents = grid.contents;
+    if (this.version.grid == other.version.grid) {
+      contents = contents.clone();
     }
+    BoardGrid otherGrid = other.grid();
+    return grid.width == otherGrid.width && grid.height == otherGrid.height
+        && java.util.Arrays.equals(contents, otherGrid.contents)
+        && java.util.Arrays.equals(grid.grounds, otherGrid.grounds)
+        && this.playerLoc.x == other.playerLoc.x && this.playerLoc.y == other.playerLoc.y;
+  }
+}
 
-    // If the player can push the content of the adjacent cell
-    else if (contentAdjToPlayer.canBePushed()) {
-      int rowChange = newPlayerLoc.x - oldPlayerLoc.x;
-      int colChange = newPlayerLoc.y - oldPlayerLoc.y;
-      Cell otherSide = newBoard.cells.get(newPlayerLoc.x + rowChange)
-          .get(newPlayerLoc.y + colChange);
-      // Moves box into blank spot and player into the vacated trophy spot.
-      if (otherSide.hasContentThatCanBeMovedOnto()) {
-        otherSide.content = newPlayerCell.content;
-        newPlayerCell.content = newPlayer;
-        oldPlayerCell.content = new BlankContent();
-
-        if (otherSide.canBeSlidOn()) {
-          int currRow = otherSidePosition.x;
-          int currCol = otherSidePosition.y;
-          Cell currCell = newBoard.cells.get(currRow).get(currCol);
-          Cell nextCell = newBoard.cells.get(currRow + rowChange).get(currCol + colChange);
-
-          // If we push a box or trophy onto ice, we want it to travel until it
-          // either collides with something, moves off the ice, or hits a hole
-          // We shift the item until one of these things happens
-          while (currCell.canBeSlidOn()
-              && (nextCell.hasContentThatCanBeMovedOnto() || nextCell.hasContentThatDestroys())
-              && !hitAHole) {
-            IContentCell newNextCellContent = currCell.content;
-            IContentCell newCurrCellContent = new BlankContent();
-            if (nextCell.hasContentThatDestroys()) {
-              newNextCellContent = new BlankContent();
-              hitAHole = true;
-            }
-            nextCell.content = newNextCellContent;
-            currCell.content = newCurrCellContent;
-
-            currRow = currRow + rowChange;
-            currCol = currCol + colChange;
-            currCell = nextCell;
-            nextCell = newBoard.cells.get(currRow + rowChange).get(currCol + colChange);
-          }
+// Primitive-backed history of the moves made in a level, used for undo. Each
+// move is stored as the cells it changed (with their content codes before and
+// after) and the player's location before it, so the log grows with the
+// number of changed cells rather than with the size of the board.
+class UndoLog implements ISame<UndoLog> {
+  int[] cells; // changed cells of every move, oldest move first
+  byte[] before; // content code of each changed cell before its move
+  byte[] after; // content code of each changed cell after its move
+  int[] entitiesBefore; // entity id in each changed cell before its move
+  int[] entitiesAfter; // entity id in each changed cell after its move
+  int changes; // number of changed cells stored
+  int[] moveStarts; // index in cells of each move's first change
+  int[] playersBefore; // packed player index before each move (-1 for none)
+  int moves; // number of moves stored
+
+  // Constructor for an empty UndoLog
+  UndoLog() {
+    this.cells = new int[16];
+    this.before = new byte[16];
+    this.after = new byte[16];
+    this.entitiesBefore = new int[16];
+    this.entitiesAfter = new int[16];
+    this.changes = 0;
+    this.moveStarts = new int[8];
+    this.playersBefore = new int[8];
+    this.moves = 0;
+  }
+
+  // Returns the number of moves that can be undone
+  int size() {
+    return this.moves;
+  }
 
-        }
-      }
-      // Moves box into hole (meaning they disappear) and moves player into vacated
-      // trophy spot.
-      else if (otherSide.hasContentThatDestroys()) {
-        otherSide.content = new BlankContent();
-        newPlayerCell.content = newPlayer;
-        oldPlayerCell.content = new BlankContent();
-      }
+  // Determines if there are no moves to undo
+  boolean isEmpty() {
+    return this.moves == 0;
+  }
 
+  // Adds a move, given the cells it changed and the player's packed index
+  // before it
+  void push(MoveDelta delta, int playerBefore) {
+    if (this.moves == this.moveStarts.length) {
+      this.moveStarts = java.util.Arrays.copyOf(this.moveStarts, this.moves * 2);
+      this.playersBefore = java.util.Arrays.copyOf(this.playersBefore, this.moves * 2);
     }
-    // Deals with moving a player onto a hole
-    else if (contentAdjToPlayer.destroysContent()) {
-
-      newPlayerCell.content = new BlankContent();
-      oldPlayerCell.content = new BlankContent();
-      hitAHole = true;
+    int needed = this.changes + delta.size;
+    if (needed > this.cells.length) {
+      int capacity = Math.max(needed, this.cells.length * 2);
+      this.cells = java.util.Arrays.copyOf(this.cells, capacity);
+      this.before = java.util.Arrays.copyOf(this.before, capacity);
+      this.after = java.util.Arrays.copyOf(this.after, capacity);
+      this.entitiesBefore = java.util.Arrays.copyOf(this.entitiesBefore, capacity);
+      this.entitiesAfter = java.util.Arrays.copyOf(this.entitiesAfter, capacity);
     }
-    // Recursively repeats if our player is on ice and isn't next to an immovable
-    // object
-    if (newPlayerCell.canBeSlidOn() && !newPlayerCell.isImmovable()
-        && !newPlayerCell.hasContentThatCanBePushed() && !hitAHole) {
-      return newBoard.movePlayer(newPlayerLoc, otherSidePosition, newPlayer);
+    System.arraycopy(delta.cells, 0, this.cells, this.changes, delta.size);
+    System.arraycopy(delta.before, 0, this.before, this.changes, delta.size);
+    System.arraycopy(delta.after, 0, this.after, this.changes, delta.size);
+    System.arraycopy(delta.entitiesBefore, 0, this.entitiesBefore, this.changes, delta.size);
+    System.arraycopy(delta.entitiesAfter, 0, this.entitiesAfter, this.changes, delta.size);
+    this.moveStarts[this.moves] = this.changes;
+    this.playersBefore[this.moves] = playerBefore;
+    this.changes = needed;
+    this.moves += 1;
+  }
+
+  // Removes the most recent move, filling the given (empty) delta with the
+  // changes that undo it. Returns the player's packed index before the move.
+  int pop(MoveDelta undo) {
+    this.moves -= 1;
+    int start = this.moveStarts[this.moves];
+    for (int i = this.changes - 1; i >= start; i -= 1) {
+      undo.record(this.cells[i], this.after[i], this.before[i], this.entitiesAfter[i],
+          this.entitiesBefore[i]);
     }
-
-    // If the player isn't on ice, that means we're in a stable board position
-    // Hence, we return the updated board.
-    return new Board(newBoard.cells);
+    this.changes = start;
+    return this.playersBefore[this.moves];
+  }
+
+  // Determines if this log holds the same moves as the given one
+  public boolean same(UndoLog other) {
+    return this.moves == other.moves && this.changes == other.changes
+        && java.util.Arrays.equals(this.cells, 0, this.changes, other.cells, 0, other.changes)
+        && java.util.Arrays.equals(this.before, 0, this.changes, other.before, 0, other.changes)
+        && java.util.Arrays.equals(this.after, 0, this.changes, other.after, 0, other.changes)
+        && java.util.Arrays.equals(this.entitiesBefore, 0, this.changes, other.entitiesBefore, 0,
+            other.changes)
+        && java.util.Arrays.equals(this.entitiesAfter, 0, this.changes, other.entitiesAfter, 0,
+            other.changes)
+        && java.util.Arrays.equals(this.moveStarts, 0, this.moves, other.moveStarts, 0,
+            other.moves)
+        && java.util.Arrays.equals(this.playersBefore, 0, this.moves, other.playersBefore, 0,
+            other.moves);
   }
-
 }
 
 // Utils class for ArrayList
@@ -563,6 +1789,40 @@ class ArrayUtils {
     return base;
   }
 
+  // Combines the elements of an ArrayList in order with the given function,
+  // pairing neighbors first so the calls nest only log(n) deep instead of n
+  // deep as with foldr. Returns the base for an empty list.
+  <T> T foldBalanced(ArrayList<T> arr, BinaryOperator<T> func, T base) {
+    if (arr.isEmpty()) {
+      return base;
+    }
+    else {
+      return this.foldBalancedRange(arr, func, 0, arr.size());
+    }
+  }
+
+  // Combines the elements of an ArrayList from index lo (inclusive) to hi
+  // (exclusive, and more than lo) as a balanced tree
+  <T> T foldBalancedRange(ArrayList<T> arr, BinaryOperator<T> func, int lo, int hi) {
+    if (hi - lo == 1) {
+      return arr.get(lo);
+    }
+    else {
+      int mid = (lo + hi) / 2;
+      return func.apply(this.foldBalancedRange(arr, func, lo, mid),
+          this.foldBalancedRange(arr, func, mid, hi));
+    }
+  }
+
+  // Map for ArrayList
+  <T, U> ArrayList<U> map(ArrayList<T> arr, Function<T, U> func) {
+    ArrayList<U> result = new ArrayList<U>(arr.size());
+    for (T t : arr) {
+      result.add(func.apply(t));
+    }
+    return result;
+  }
+
   // Andmap for ArrayList
   <T> boolean andMap(ArrayList<T> arr, Function<T, Boolean> func) {
     // Loops through each element in the list and
@@ -595,104 +1855,150 @@ class ArrayUtils {
 class Utils {
   // Helper to return a list of list of cells from given strings
   ArrayList<ArrayList<Cell>> initializeCells(String contents, String grounds) {
+    return this.initializeGrid(contents, grounds).toCells();
+  }
+
+  // Helper to return a packed grid from given strings
+  BoardGrid initializeGrid(String contents, String grounds) {
     if (contents.length() != grounds.length()) {
       throw new IllegalArgumentException("Content and Ground must be same number of cells");
     }
     else {
-      ArrayList<ArrayList<Cell>> cells = new ArrayList<ArrayList<Cell>>();
-      ArrayList<Cell> row = new ArrayList<Cell>();
-      // Loops through the contents, adding cells to each row.
-      // When we stumble across a "\n", we add the row to the 2d list (board)
-      // We then repeat with an empty row until we reach the end of the String.
+      int width = contents.indexOf('\n');
+      if (width == -1) {
+        width = contents.length();
+      }
+      int height = (contents.length() + 1) / (width + 1);
+      byte[] contentCodes = new byte[width * height];
+      byte[] groundCodes = new byte[width * height];
+      int index = 0;
+      int col = 0;
+      // Loops through the contents, filling in cells one row at a time.
+      // When we stumble across a "\n", we check that the row is complete
+      // We then repeat with the next row until we reach the end of the String.
       for (int i = 0; i < contents.length(); i += 1) {
-        if (contents.substring(i, i + 1).equals("\n") && grounds.substring(i, i + 1).equals("\n")) {
-          cells.add(row);
-          row = new ArrayList<Cell>();
+        char currentContent = contents.charAt(i);
+        char currentGround = grounds.charAt(i);
+        if (currentContent == '\n' && currentGround == '\n') {
+          if (col != width) {
+            throw new IllegalArgumentException("Board rows must all be the same length");
+          }
+          col = 0;
         }
-        else if (contents.substring(i, i + 1).equals("\n")
-            || grounds.substring(i, i + 1).equals("\n")) {
+        else if (currentContent == '\n' || currentGround == '\n') {
           throw new IllegalArgumentException("Content and Ground must be same number of cells");
         }
+        else if (col == width || index == contentCodes.length) {
+          throw new IllegalArgumentException("Board rows must all be the same length");
+        }
         else {
-          String currentContent = contents.substring(i, i + 1);
-          String currentGround = grounds.substring(i, i + 1);
-
-          IContentCell content;
-          IGroundCell ground;
-
-          if (currentContent.equals("W")) {
-            content = new Wall();
-          }
-          else if (currentContent.equals("B")) {
-            content = new Box();
-          }
-          else if (currentContent.equals(">") || currentContent.equals("<")
-              || currentContent.equals("v") || currentContent.equals("^")) {
-            content = new Player(currentContent);
-          }
-          else if (currentContent.equals("y") || currentContent.equals("g")
-              || currentContent.equals("b") || currentContent.equals("r")) {
-            content = new Trophy(currentContent);
-          }
-          else if (currentContent.equals("H")) {
-            content = new Hole();
-          }
-          else {
-            content = new BlankContent();
-          }
-          if (currentGround.equals("Y") || currentGround.equals("G") || currentGround.equals("B")
-              || currentGround.equals("R")) {
-            ground = new Target(currentGround);
-          }
-          else if (currentGround.equals("I")) {
-            ground = new Ice();
-          }
-          else {
-            ground = new BlankGround();
-          }
-          row.add(new Cell(content, ground));
+          contentCodes[index] = CellCodes.contentCode(currentContent);
+          groundCodes[index] = CellCodes.groundCode(currentGround);
+          index += 1;
+          col += 1;
         }
       }
-      cells.add(row);
-      return (cells);
+      if (index != contentCodes.length) {
+        throw new IllegalArgumentException("Board rows must all be the same length");
+      }
+      return new BoardGrid(width, height, contentCodes, groundCodes);
+    }
+  }
+
+  // Helper to return a packed grid from a list of list of cells
+  BoardGrid gridFromCells(ArrayList<ArrayList<Cell>> cells) {
+    int height = cells.size();
+    int width;
+    if (height == 0) {
+      width = 0;
+    }
+    else {
+      width = cells.get(0).size();
+    }
+    byte[] contentCodes = new byte[width * height];
+    byte[] groundCodes = new byte[width * height];
+    ContentCode contentCode = new ContentCode();
+    GroundCode groundCode = new GroundCode();
+    for (int row = 0; row < height; row += 1) {
+      ArrayList<Cell> cellRow = cells.get(row);
+      if (cellRow.size() != width) {
+        throw new IllegalArgumentException("Board rows must all be the same length");
+      }
+      for (int col = 0; col < width; col += 1) {
+        Cell cell = cellRow.get(col);
+        contentCodes[row * width + col] = contentCode.apply(cell.content);
+        groundCodes[row * width + col] = groundCode.apply(cell.ground);
+      }
+    }
+    return new BoardGrid(width, height, contentCodes, groundCodes);
+  }
+
+  // Draws the cells of a packed grid, giving the same image as drawCells
+  // on the grid's list of cells
+  WorldImage drawGrid(BoardGrid grid) {
+    ArrayList<WorldImage> rows = new ArrayList<WorldImage>(grid.height);
+    for (int row = 0; row < grid.height; row += 1) {
+      ArrayList<WorldImage> cells = new ArrayList<WorldImage>(grid.width);
+      for (int col = 0; col < grid.width; col += 1) {
+        int index = grid.index(row, col);
+        cells.add(ImageCache.cell(grid.contents[index], grid.grounds[index]));
+      }
+      rows.add(this.besideAll(cells));
+    }
+    return this.aboveAll(rows);
+  }
+
+  // Draws only the given window of a packed grid: the given number of rows and
+  // columns starting at the given top row and left column
+  WorldImage drawWindow(BoardGrid grid, int top, int left, int rows, int cols) {
+    ArrayList<WorldImage> rowImages = new ArrayList<WorldImage>(rows);
+    for (int row = top; row < top + rows; row += 1) {
+      ArrayList<WorldImage> cells = new ArrayList<WorldImage>(cols);
+      for (int col = left; col < left + cols; col += 1) {
+        int index = grid.index(row, col);
+        cells.add(ImageCache.cell(grid.contents[index], grid.grounds[index]));
+      }
+      rowImages.add(this.besideAll(cells));
     }
+    return this.aboveAll(rowImages);
   }
 
   // Draws the cells in a board
   WorldImage drawCells(ArrayList<ArrayList<Cell>> cells) {
-    return new ArrayUtils().foldr(cells, new DrawColumn(),
+    return this.aboveAll(new ArrayUtils().map(cells, new DrawCellRow()));
+  }
+
+  // Places the given images beside each other (left -> right). The images are
+  // paired up as a balanced tree, so a row of n images is only log(n) images
+  // deep.
+  WorldImage besideAll(ArrayList<WorldImage> images) {
+    return new ArrayUtils().foldBalanced(images, new BesideImages(),
+        new RectangleImage(0, 0, OutlineMode.SOLID, Color.WHITE));
+  }
+
+  // Places the given images above each other (top -> bottom), paired up as a
+  // balanced tree like besideAll
+  WorldImage aboveAll(ArrayList<WorldImage> images) {
+    return new ArrayUtils().foldBalanced(images, new AboveImages(),
         new RectangleImage(0, 0, OutlineMode.SOLID, Color.WHITE));
   }
 
   // Helper to validate trophy color for constructor
   String validateTrophyColor(String color) {
-    if (color.equals("r") || color.equals("y") || color.equals("g") || color.equals("b")) {
-      return color;
-    }
-    else {
-      throw new IllegalArgumentException("Invalid trophy color");
-    }
+    ItemColor.ofTrophy(color);
+    return color;
   }
 
   // Helper to validate target color for constructor
   String validateTargetColor(String color) {
-    if (color.equals("R") || color.equals("Y") || color.equals("G") || color.equals("B")) {
-      return color;
-    }
-    else {
-      throw new IllegalArgumentException("Invalid target color");
-    }
+    ItemColor.ofTarget(color);
+    return color;
   }
 
   // Helper to validate player direction for constructor
   String validatePlayerDirection(String direction) {
-    if (direction.equals("^") || direction.equals("v") || direction.equals(">")
-        || direction.equals("<")) {
-      return direction;
-    }
-    else {
-      throw new IllegalArgumentException("Invalid player direction");
-    }
+    Direction.ofPlayer(direction);
+    return direction;
   }
 }
 
@@ -727,32 +2033,32 @@ class DrawContent implements IContentCellVisitor<WorldImage> {
 
   // Draws a wall
   public WorldImage visitWall(Wall wall) {
-    return new FromFileImage("./images/Wall.png");
+    return ImageCache.content(CellCodes.WALL);
   }
 
   // Draws a box
   public WorldImage visitBox(Box box) {
-    return new FromFileImage("./images/Box.png");
+    return ImageCache.content(CellCodes.BOX);
   }
 
   // Draws a player
   public WorldImage visitPlayer(Player player) {
-    return new FromFileImage("./images/Player" + player.direction + ".png");
+    return ImageCache.player(player.direction);
   }
 
   // Draws a trophy
   public WorldImage visitTrophy(Trophy trophy) {
-    return new FromFileImage("./images/Trophy" + trophy.color + ".png");
+    return ImageCache.trophy(trophy.color);
   }
 
   // Draws blank content
   public WorldImage visitBlankContent(BlankContent bc) {
-    return new RectangleImage(0, 0, "solid", Color.WHITE);
+    return ImageCache.content(CellCodes.BLANK);
   }
 
   // Draws a hole.
   public WorldImage visitHole(Hole hole) {
-    return new FromFileImage("./images/Hole.png");
+    return ImageCache.content(CellCodes.HOLE);
   }
 
 }
@@ -796,6 +2102,45 @@ class IsAPlayer implements IContentCellVisitor<Boolean> {
   }
 }
 
+// Visitor Function Class that returns the packed code (see CellCodes) of a
+// piece of content
+class ContentCode implements IContentCellVisitor<Byte> {
+  // Applies the object to the piece of content
+  public Byte apply(IContentCell content) {
+    return content.accept(this);
+  }
+
+  // Code for a wall
+  public Byte visitWall(Wall wall) {
+    return CellCodes.WALL;
+  }
+
+  // Code for a box
+  public Byte visitBox(Box box) {
+    return CellCodes.BOX;
+  }
+
+  // Code for a player facing its direction
+  public Byte visitPlayer(Player player) {
+    return (byte) (CellCodes.PLAYER + player.direction.ordinal());
+  }
+
+  // Code for a trophy of its color
+  public Byte visitTrophy(Trophy trophy) {
+    return (byte) (CellCodes.TROPHY + trophy.color.ordinal());
+  }
+
+  // Code for blank content
+  public Byte visitBlankContent(BlankContent bc) {
+    return CellCodes.BLANK;
+  }
+
+  // Code for a hole
+  public Byte visitHole(Hole hole) {
+    return CellCodes.HOLE;
+  }
+}
+
 // Visitor interface to implement a function over
 interface IGroundCellVisitor<R> extends Function<IGroundCell, R> {
   // Visits target class
@@ -818,30 +2163,220 @@ class DrawGround implements IGroundCellVisitor<WorldImage> {
 
   // Draws a target
   public WorldImage visitTarget(Target target) {
-    Color color;
-    if (target.color.equals("R")) {
-      color = Color.RED;
+    return ImageCache.target(target.color);
+  }
+
+  // Draws a blank ground.
+  public WorldImage visitBlankGround(BlankGround bg) {
+    return ImageCache.ground(CellCodes.BLANK_GROUND);
+  }
+
+  // Draws a patch of ice
+  public WorldImage visitIce(Ice ice) {
+    return ImageCache.ground(CellCodes.ICE);
+  }
+}
+
+// Images for every kind of content and ground, loaded once and shared by
+// every drawing of every board, so drawing a frame never goes back to the
+// image files. Images are indexed by content code and by ground code (see
+// CellCodes), and every pairing of the two is also kept as a cell image.
+class ImageCache {
+  static final WorldImage[] CONTENTS = new WorldImage[CellCodes.PLAYER + 4];
+  static final WorldImage[] GROUNDS = new WorldImage[CellCodes.TARGET + 4];
+  static final WorldImage[] CELLS = new WorldImage[CONTENTS.length * GROUNDS.length];
+  // A see-through image the size of a cell, which content is drawn on in the
+  // content layer so that every cell there takes up the same space
+  static final WorldImage CLEAR = new RectangleImage(60, 60, OutlineMode.SOLID,
+      new Color(0, 0, 0, 0));
+  static final WorldImage[] TILES = new WorldImage[CONTENTS.length];
+
+  static {
+    CONTENTS[CellCodes.BLANK] = new RectangleImage(0, 0, "solid", Color.WHITE);
+    for (int content = 0; content < CONTENTS.length; content += 1) {
+      String file = CellCodes.contentFile((byte) content);
+      if (file != null) {
+        CONTENTS[content] = new FromFileImage(file);
+      }
+    }
+    for (ItemColor color : ItemColor.values()) {
+      GROUNDS[CellCodes.TARGET + color.ordinal()] = new CircleImage(30, "solid",
+          color.drawColor());
+    }
+    GROUNDS[CellCodes.BLANK_GROUND] = new RectangleImage(60, 60, "solid", Color.WHITE);
+    GROUNDS[CellCodes.ICE] = new FromFileImage(CellCodes.groundFile(CellCodes.ICE));
+    for (int content = 0; content < CONTENTS.length; content += 1) {
+      if (content == CellCodes.BLANK || content == CellCodes.WALL) {
+        TILES[content] = CLEAR;
+      }
+      else if (CONTENTS[content] != null) {
+        TILES[content] = new OverlayImage(CONTENTS[content], CLEAR);
+      }
+      for (int ground = 0; ground < GROUNDS.length; ground += 1) {
+        if (CONTENTS[content] != null) {
+          CELLS[content * GROUNDS.length + ground] = new OverlayImage(CONTENTS[content],
+              GROUNDS[ground]);
+        }
+      }
+    }
+  }
+
+  // Loads every image, if they aren't loaded yet, and works out the size of
+  // each cell image, so the first frame doesn't have to. The image files are
+  // read by the static initializer, which the first call to this runs.
+  // Returns the number of cell images.
+  static int warm() {
+    int count = 0;
+    for (WorldImage cell : CELLS) {
+      if (cell != null) {
+        cell.getWidth();
+        count += 1;
+      }
     }
-    else if (target.color.equals("G")) {
-      color = Color.GREEN;
+    for (WorldImage tile : TILES) {
+      if (tile != null) {
+        tile.getWidth();
+      }
     }
-    else if (target.color.equals("B")) {
-      color = Color.BLUE;
+    return count;
+  }
+
+  // Returns the image for the given content code
+  static WorldImage content(byte code) {
+    return CONTENTS[code];
+  }
+
+  // Returns the image for the given ground code
+  static WorldImage ground(byte code) {
+    return GROUNDS[code];
+  }
+
+  // Returns the image of a cell with the given content and ground codes
+  static WorldImage cell(byte content, byte ground) {
+    return CELLS[content * GROUNDS.length + ground];
+  }
+
+  // Returns the image of the given content code in the content layer, where
+  // walls are left out since they are part of the terrain (see GridRenderer)
+  static WorldImage tile(byte content) {
+    return TILES[content];
+  }
+
+  // Returns the image of a cell with the given content and ground codes in
+  // the terrain layer: its ground, with a wall on top if there is one
+  static WorldImage terrain(byte content, byte ground) {
+    if (content == CellCodes.WALL) {
+      return CELLS[content * GROUNDS.length + ground];
     }
     else {
-      color = Color.YELLOW;
+      return GROUNDS[ground];
     }
-    return new CircleImage(30, "solid", color);
   }
 
-  // Draws a blank ground.
-  public WorldImage visitBlankGround(BlankGround bg) {
-    return new RectangleImage(60, 60, "solid", Color.WHITE);
+  // Returns the image for a player facing the given direction
+  static WorldImage player(Direction direction) {
+    return CONTENTS[CellCodes.PLAYER + direction.ordinal()];
   }
 
-  // Draws a patch of ice
-  public WorldImage visitIce(Ice ice) {
-    return new FromFileImage("./images/Ice.png");
+  // Returns the image for a trophy of the given color
+  static WorldImage trophy(ItemColor color) {
+    return CONTENTS[CellCodes.TROPHY + color.ordinal()];
+  }
+
+  // Returns the image for a target of the given color
+  static WorldImage target(ItemColor color) {
+    return GROUNDS[CellCodes.TARGET + color.ordinal()];
+  }
+}
+
+// Visitor Function Class that returns the packed code (see CellCodes) of a
+// piece of ground
+class GroundCode implements IGroundCellVisitor<Byte> {
+  // Applies the object to the ground
+  public Byte apply(IGroundCell ground) {
+    return ground.accept(this);
+  }
+
+  // Code for a target of its color
+  public Byte visitTarget(Target target) {
+    return (byte) (CellCodes.TARGET + target.color.ordinal());
+  }
+
+  // Code for blank ground
+  public Byte visitBlankGround(BlankGround bg) {
+    return CellCodes.BLANK_GROUND;
+  }
+
+  // Code for a patch of ice
+  public Byte visitIce(Ice ice) {
+    return CellCodes.ICE;
+  }
+}
+
+// Draws a BoardGrid in two layers. The terrain (grounds and walls) never
+// changes, so it is drawn once per level. The content on top of it is kept as
+// one image per row, and only the rows the grid marks as changed are drawn
+// again, so a move only costs the rows it touched.
+class GridRenderer {
+  BoardGrid grid;
+  WorldImage terrain; // image of the grounds and walls
+  WorldImage[] rows; // image of the content of each row
+  WorldImage image; // content layer on top of the terrain
+
+  // Constructor for GridRenderer, drawing everything
+  GridRenderer(BoardGrid grid) {
+    this.grid = grid;
+    Utils utils = new Utils();
+    ArrayList<WorldImage> terrainRows = new ArrayList<WorldImage>(grid.height);
+    for (int row = 0; row < grid.height; row += 1) {
+      ArrayList<WorldImage> cells = new ArrayList<WorldImage>(grid.width);
+      for (int col = 0; col < grid.width; col += 1) {
+        int index = grid.index(row, col);
+        cells.add(ImageCache.terrain(grid.contents[index], grid.grounds[index]));
+      }
+      terrainRows.add(utils.besideAll(cells));
+    }
+    this.terrain = utils.aboveAll(terrainRows);
+    this.rows = new WorldImage[grid.height];
+    for (int row = 0; row < grid.height; row += 1) {
+      this.rows[row] = this.drawRow(row);
+    }
+    this.image = this.compose();
+  }
+
+  // Draws the content of the given row
+  WorldImage drawRow(int row) {
+    ArrayList<WorldImage> cells = new ArrayList<WorldImage>(this.grid.width);
+    for (int col = 0; col < this.grid.width; col += 1) {
+      cells.add(ImageCache.tile(this.grid.contents[this.grid.index(row, col)]));
+    }
+    return new Utils().besideAll(cells);
+  }
+
+  // Puts the row images together and lays them on top of the terrain
+  WorldImage compose() {
+    ArrayList<WorldImage> rows = new ArrayList<WorldImage>(this.rows.length);
+    for (WorldImage row : this.rows) {
+      rows.add(row);
+    }
+    return new OverlayImage(new Utils().aboveAll(rows), this.terrain);
+  }
+
+  // Returns the image of the grid as it is now, drawing again only the rows
+  // that changed since the last call
+  WorldImage render() {
+    BoardGrid grid = this.grid;
+    if (grid.anyDirtyRows) {
+      for (int row = 0; row < grid.height; row += 1) {
+        if (grid.dirtyRows[row]) {
+          this.rows[row] = this.drawRow(row);
+          grid.dirtyRows[row] = false;
+        }
+      }
+      grid.anyDirtyRows = false;
+      this.image = this.compose();
+    }
+    return this.image;
   }
 }
 
@@ -866,8 +2401,32 @@ class DrawRow implements BiFunction<Cell, WorldImage, WorldImage> {
 // placing each list of cells beneath each other
 class DrawColumn implements BiFunction<ArrayList<Cell>, WorldImage, WorldImage> {
   public WorldImage apply(ArrayList<Cell> t, WorldImage u) {
-    return new AboveImage(new ArrayUtils().foldr(t, new DrawRow(),
-        new RectangleImage(0, 0, OutlineMode.SOLID, Color.WHITE)), u);
+    return new AboveImage(new DrawCellRow().apply(t), u);
+  }
+}
+
+// Function Class that draws a row of cells (left -> right) as a balanced
+// tree of images
+class DrawCellRow implements Function<ArrayList<Cell>, WorldImage> {
+  // Applies this function to the row of cells
+  public WorldImage apply(ArrayList<Cell> row) {
+    return new Utils().besideAll(new ArrayUtils().map(row, new DrawCell()));
+  }
+}
+
+// Function Class that places one image beside another
+class BesideImages implements BinaryOperator<WorldImage> {
+  // Applies this function to the left and right images
+  public WorldImage apply(WorldImage left, WorldImage right) {
+    return new BesideImage(left, right);
+  }
+}
+
+// Function Class that places one image above another
+class AboveImages implements BinaryOperator<WorldImage> {
+  // Applies this function to the top and bottom images
+  public WorldImage apply(WorldImage top, WorldImage bottom) {
+    return new AboveImage(top, bottom);
   }
 }
 
@@ -926,109 +2485,278 @@ class DoesThisCellHaveAPlayer implements Function<Cell, Boolean> {
 /*
  * PlayLevel Template Class that represents a World for a Sokoban level
  * 
- * Fields: Board board
+ * Fields: Board board UndoLog history int moves Viewport view int version
+ * ArrayDeque<String> input boolean keyApplied
  * 
  * Methods: WorldScene makeScene() World onTick() World onKeyEvent(String key)
+ * PlayLevel drainInput() PlayLevel requeued(ArrayDeque<String> input, boolean
+ * keyApplied) World settle() boolean play() double tickRate()
  * 
  * Methods on Fields: board.getImages() board.render() board.levelWon()
  * board.movePlayerUp() board.movePlayerDown() board.movePlayerRight()
  * board.movePlayerLeft()
  */
+// The game only changes when a key is pressed, so each world keeps a version
+// number that goes up by one with every change. A tick that finds the version
+// already checked returns the same world without checking for a win or loss
+// again, and makeScene hands back the scene it made for that version.
+//
+// The first move or undo key after a tick is applied as it arrives, so the
+// clock can tick slowly while the game is idle. Keys that follow it before the
+// next tick are queued, and the tick applies them in one go, so keys that
+// repeat faster than frames are drawn (or a replay sent as keys) cost one new
+// scene per tick. The moves in between are still kept in the UndoLog. Each
+// world has its own queue, which is never changed once the world is made:
+// queuing a key makes a world with the same board, version and scene and a
+// longer queue, so the worlds a caller already holds stay as they were.
 class PlayLevel extends World {
+  static final double DEFAULT_TICK_RATE = 0.1; // seconds between ticks
 
-  ArrayList<Board> moveList; // List of previous board states
+  // Shows a message once the level can no longer be won. Turn it on by
+  // running with -Dsokoban.showStuck=true.
+  static boolean showStuck = Boolean.getBoolean("sokoban.showStuck");
+
+  UndoLog history; // Changes made by previous moves
   int moves; // Number of moves
   Board board; // Board being rendered in the world
+  Viewport view; // Part of the board shown in the scene
+  int version; // Number of changes made since the level started
+  int checkedVersion; // Version last checked for a win or loss, or -1
+  WorldScene scene; // Scene made for the version, or null
+  ArrayDeque<String> input; // Move and undo keys not yet applied, never changed
+  boolean keyApplied; // Whether a key was applied at once since the last tick
 
   // Convenience Constructor
   PlayLevel(Board board) {
-    this.board = board;
-    this.moveList = new ArrayList<Board>();
-    this.moves = 0;
+    this(board, new UndoLog(), 0);
   }
 
   // Convenience Constructor
-  PlayLevel(Board board, ArrayList<Board> moveList, int moves) {
+  PlayLevel(Board board, UndoLog history, int moves) {
+    this(board, history, moves, new Viewport());
+  }
+
+  // Convenience Constructor for the start of a level
+  PlayLevel(Board board, UndoLog history, int moves, Viewport view) {
+    this(board, history, moves, view, 0, new ArrayDeque<String>(), false);
+  }
+
+  // Default Constructor
+  PlayLevel(Board board, UndoLog history, int moves, Viewport view, int version,
+      ArrayDeque<String> input, boolean keyApplied) {
     this.board = board;
-    this.moveList = moveList;
+    this.history = history;
     this.moves = moves;
+    this.view = view;
+    this.version = version;
+    this.checkedVersion = -1;
+    this.scene = null;
+    this.input = input;
+    this.keyApplied = keyApplied;
+  }
+
+  // Returns the seconds between ticks, which can be set with
+  // -Dsokoban.tickRate=<seconds>
+  static double tickRate() {
+    return Double.parseDouble(
+        System.getProperty("sokoban.tickRate", Double.toString(PlayLevel.DEFAULT_TICK_RATE)));
+  }
+
+  // Opens a window playing this level, ticking at the configured rate
+  boolean play() {
+    ImageCache.warm();
+    return this.bigBang(800, 800, PlayLevel.tickRate());
   }
 
-  // Makes the initial scene
+  // Makes the scene, or returns the one already made for this version
   public WorldScene makeScene() {
-    return new WorldScene(800, 800).placeImageXY(this.board.render(), 400, 400).placeImageXY(
-        new TextImage("Moves: " + Integer.toString(this.moves), 80, FontStyle.BOLD, Color.BLACK),
-        400, 60);
+    if (this.scene == null) {
+      this.scene = this.view.place(this.board, new WorldScene(800, 800)).placeImageXY(
+          new TextImage("Moves: " + Integer.toString(this.moves), 80, FontStyle.BOLD,
+              Color.BLACK),
+          400, 60);
+      if (PlayLevel.showStuck && this.board.isStuck()) {
+        this.scene = this.scene.placeImageXY(new TextImage("Stuck! Press u to undo", 40,
+            FontStyle.BOLD, Color.RED), 400, 740);
+      }
+    }
+    return this.scene;
   }
 
-  // Remakes world every tick
+  // Applies the queued keys, then ends the level if it has been won or lost.
+  // A tick with no keys queued and nothing new to check returns this world.
   public World onTick() {
+    PlayLevel current = this.drainInput();
+    if (current.keyApplied) {
+      current = current.requeued(current.input, false);
+    }
+    return current.settle();
+  }
+
+  // Returns the finished level if this version of the game has been won or
+  // lost, or else this world. Each version is checked only once.
+  public World settle() {
+    if (this.checkedVersion == this.version) {
+      return this;
+    }
+    this.checkedVersion = this.version;
     if (this.board.levelWon()) {
-      return new FinishedLevel(this.board, "You Won!", Color.GREEN, this.moves);
+      return new FinishedLevel(this.board, "You Won!", Color.GREEN, this.moves, this.view);
     }
     else if (!this.board.hasAPlayer()) {
-      return new FinishedLevel(this.board, "You Lost!", Color.RED, this.moves);
+      return new FinishedLevel(this.board, "You Lost!", Color.RED, this.moves, this.view);
+    }
+    else {
+      return this;
+    }
+  }
+
+  // Returns the next version of this world with the given board, moves and
+  // view
+  PlayLevel changed(Board board, int moves, Viewport view) {
+    return new PlayLevel(board, this.history, moves, view, this.version + 1, this.input,
+        this.keyApplied);
+  }
+
+  // Returns this world with the given keys queued in place of its own and the
+  // given record of whether a key was applied since the last tick. The board
+  // is the same, so the version, its check and its scene carry over.
+  PlayLevel requeued(ArrayDeque<String> input, boolean keyApplied) {
+    PlayLevel level = new PlayLevel(this.board, this.history, this.moves, this.view,
+        this.version, input, keyApplied);
+    level.checkedVersion = this.checkedVersion;
+    level.scene = this.scene;
+    return level;
+  }
+
+  // Queues the given moves, written as in Simulator (U, D, L and R, and Z to
+  // undo), and applies them, for playing back moves found by a solver
+  PlayLevel replay(String moves) {
+    String[] keys = { "up", "down", "left", "right" };
+    ArrayDeque<String> input = new ArrayDeque<String>(this.input);
+    for (int i = 0; i < moves.length(); i += 1) {
+      char move = moves.charAt(i);
+      if (move == 'z' || move == 'Z') {
+        input.add("u");
+      }
+      else {
+        input.add(keys[Simulator.direction(move)]);
+      }
+    }
+    return this.requeued(input, this.keyApplied).drainInput();
+  }
+
+  // Applies every queued move and undo key in order, recording each move in
+  // the UndoLog, and returns one world for the board they end on, with an
+  // empty queue (or this world if none were queued). Stops early, dropping
+  // the rest, once a move wins or loses the level.
+  PlayLevel drainInput() {
+    if (this.input.isEmpty()) {
+      return this;
+    }
+    Board board = this.board;
+    int moves = this.moves;
+    boolean over = false;
+    Iterator<String> keys = this.input.iterator();
+    while (!over && keys.hasNext()) {
+      String key = keys.next();
+      Board newBoard = board;
+      if (key.equals("u")) {
+        if (!this.history.isEmpty()) {
+          newBoard = board.undoLastMove(this.history);
+          moves += 1;
+        }
+      }
+      else {
+        newBoard = board.movePlayer(Direction.ofKey(key).ordinal());
+        Posn newPlayerLoc = newBoard.playerLoc;
+        Posn oldPlayerLoc = board.playerLoc;
+        if (newPlayerLoc.x != oldPlayerLoc.x || newPlayerLoc.y != oldPlayerLoc.y) {
+          this.history.push(newBoard.lastMove, board.playerCell());
+          moves += 1;
+        }
+        over = newBoard != board && (newBoard.levelWon() && !board.levelWon()
+            || !newBoard.hasAPlayer());
+      }
+      board = newBoard;
+    }
+    if (board == this.board) {
+      return this.requeued(new ArrayDeque<String>(), this.keyApplied);
     }
     else {
-      return new PlayLevel(this.board, this.moveList, this.moves);
+      return new PlayLevel(board, this.history, moves, this.view, this.version + 1,
+          new ArrayDeque<String>(), this.keyApplied);
     }
   }
 
-  // Handles key press events
+  // Handles key press events. The first move or undo since the last tick is
+  // applied at once, ending the level if it wins or loses, and the rest are
+  // queued for the next tick, in a new world sharing this one's scene. The
+  // keys for the view apply any queued keys first and take effect at once. A
+  // key that changes nothing returns this world, keeping its scene.
   public World onKeyEvent(String key) {
     /* See String class */
 
-    Board newBoard = this.board;
-    if (key.equals("up")) {
-      newBoard = this.board.movePlayerUp();
+    if (key.equals("up") || key.equals("down") || key.equals("right") || key.equals("left")
+        || key.equals("u")) {
+      ArrayDeque<String> input = new ArrayDeque<String>(this.input);
+      input.add(key);
+      if (this.keyApplied || input.size() > 1) {
+        return this.requeued(input, this.keyApplied);
+      }
+      PlayLevel current = this.requeued(input, true).drainInput();
+      if (current.board == this.board) {
+        return this;
+      }
+      else if (current.board.levelWon() && !this.board.levelWon()
+          || !current.board.hasAPlayer()) {
+        return current.settle();
+      }
+      else {
+        return current;
+      }
     }
-    else if (key.equals("down")) {
-      newBoard = this.board.movePlayerDown();
+    PlayLevel current = this.drainInput();
+    if (key.equals("=") || key.equals("+")) {
+      return current.changed(current.board, current.moves, current.view.zoomIn());
     }
-    else if (key.equals("right")) {
-      newBoard = this.board.movePlayerRight();
+    else if (key.equals("-")) {
+      return current.changed(current.board, current.moves, current.view.zoomOut());
     }
-    else if (key.equals("left")) {
-      newBoard = this.board.movePlayerLeft();
+    else if (key.equals("w")) {
+      return current.scroll(-1, 0);
     }
-    else if (key.equals("u")) {
-      return this.undo();
+    else if (key.equals("s")) {
+      return current.scroll(1, 0);
     }
-
-    Posn newPlayerLoc = newBoard.playerLoc;
-    Posn oldPlayerLoc = this.board.playerLoc;
-    if (newPlayerLoc.x != oldPlayerLoc.x || newPlayerLoc.y != oldPlayerLoc.y) {
-      this.moveList.add(this.board);
-      this.moves += 1;
+    else if (key.equals("a")) {
+      return current.scroll(0, -1);
+    }
+    else if (key.equals("d")) {
+      return current.scroll(0, 1);
+    }
+    else if (key.equals("c")) {
+      return current.changed(current.board, current.moves, current.view.recenter());
+    }
+    else {
+      return current;
     }
-    return new PlayLevel(newBoard, this.moveList, this.moves);
+  }
+
+  // Scrolls the view the given number of rows and columns away from the player
+  public World scroll(int rows, int cols) {
+    return this.changed(this.board, this.moves, this.view.scroll(rows, cols, this.board));
   }
 
   // Performs the undo function by reverting the world into its previous board
-  // state
+  // state, touching only the cells the last move changed
   public World undo() {
-    if (this.moveList.size() > 0) {
-      int lastIndex = this.moveList.size() - 1;
-      Board recentBoard = this.moveList.get(lastIndex);
-      ArrayList<ArrayList<Cell>> recentCells = recentBoard.cells;
-      ArrayList<ArrayList<Cell>> newCells = new ArrayList<ArrayList<Cell>>();
-
-      // Performs a deep copy to avoid undesired mutation of boards
-      for (ArrayList<Cell> row : recentCells) {
-        ArrayList<Cell> newRow = new ArrayList<Cell>();
-        for (Cell cell : row) {
-          newRow.add(cell);
-        }
-        newCells.add(newRow);
-      }
-
-      Board newBoard = new Board(newCells);
-      this.moveList.remove(lastIndex);
-      this.moves += 1;
-      return new PlayLevel(newBoard, this.moveList, this.moves);
+    if (!this.history.isEmpty()) {
+      Board newBoard = this.board.undoLastMove(this.history);
+      return this.changed(newBoard, this.moves + 1, this.view);
     }
     else {
-      return new PlayLevel(this.board, this.moveList, this.moves);
+      return this;
     }
   }
 }
@@ -1039,18 +2767,25 @@ class FinishedLevel extends World {
   String message;
   Color color;
   int moves;
+  Viewport view; // Part of the board shown in the scene
 
   // Convenience constructor
   FinishedLevel(Board board, String message, Color color, int moves) {
+    this(board, message, color, moves, new Viewport());
+  }
+
+  // Default constructor
+  FinishedLevel(Board board, String message, Color color, int moves, Viewport view) {
     this.board = board;
     this.message = message;
     this.color = color;
     this.moves = moves;
+    this.view = view;
   }
 
   // Renders world, which contains message on top of board.
   public WorldScene makeScene() {
-    return new WorldScene(800, 800).placeImageXY(this.board.render(), 400, 400)
+    return this.view.place(this.board, new WorldScene(800, 800))
         .placeImageXY(new TextImage(this.message, 80, FontStyle.BOLD, this.color), 400, 400)
         .placeImageXY(new TextImage("Moves: " + Integer.toString(this.moves), 80, FontStyle.BOLD,
             Color.BLACK), 400, 60);
@@ -1058,6 +2793,124 @@ class FinishedLevel extends World {
 
 }
 
+// The part of a board shown in a scene. A board that fits in the scene is
+// shown whole. A bigger one (or one scrolled away from the player) is shown
+// through a camera that follows the player, and only the cells in view, plus
+// a margin, are drawn, so a frame costs the same however big the level is.
+class Viewport {
+  static final double[] ZOOMS = { 0.25, 0.5, 0.75, 1.0, 1.5, 2.0 };
+  static final int DEFAULT_ZOOM = 3; // index of 1.0 in ZOOMS
+  static final int CELL_SIZE = 60; // size of a cell in pixels when not zoomed
+  static final int MARGIN = 1; // cells drawn past each edge of the scene
+
+  int width; // width of the scene in pixels
+  int height; // height of the scene in pixels
+  int zoom; // index in ZOOMS of how much the board is scaled
+  int scrollRow; // rows the camera is moved from the player
+  int scrollCol; // columns the camera is moved from the player
+
+  // Convenience constructor for an 800x800 scene, not zoomed or scrolled
+  Viewport() {
+    this(800, 800, Viewport.DEFAULT_ZOOM, 0, 0);
+  }
+
+  // Default constructor
+  Viewport(int width, int height, int zoom, int scrollRow, int scrollCol) {
+    this.width = width;
+    this.height = height;
+    this.zoom = zoom;
+    this.scrollRow = scrollRow;
+    this.scrollCol = scrollCol;
+  }
+
+  // Returns how much the board is scaled
+  double scale() {
+    return Viewport.ZOOMS[this.zoom];
+  }
+
+  // Returns this view zoomed in one level, if it can be
+  Viewport zoomIn() {
+    return new Viewport(this.width, this.height, Math.min(this.zoom + 1, ZOOMS.length - 1),
+        this.scrollRow, this.scrollCol);
+  }
+
+  // Returns this view zoomed out one level, if it can be
+  Viewport zoomOut() {
+    return new Viewport(this.width, this.height, Math.max(this.zoom - 1, 0), this.scrollRow,
+        this.scrollCol);
+  }
+
+  // Returns this view scrolled by the given number of rows and columns. The
+  // camera is kept over the given board.
+  Viewport scroll(int rows, int cols, Board board) {
+    BoardGrid grid = board.grid();
+    Posn center = this.center(board);
+    int row = Math.max(0, Math.min(grid.height - 1, center.x + rows));
+    int col = Math.max(0, Math.min(grid.width - 1, center.y + cols));
+    return new Viewport(this.width, this.height, this.zoom,
+        this.scrollRow + row - center.x, this.scrollCol + col - center.y);
+  }
+
+  // Returns this view with the camera back on the player
+  Viewport recenter() {
+    return new Viewport(this.width, this.height, this.zoom, 0, 0);
+  }
+
+  // Returns the (row, column) of the cell the camera is over: the player's
+  // (or the middle of the board if there is no player) moved by the scroll,
+  // kept on the board
+  Posn center(Board board) {
+    BoardGrid grid = board.grid();
+    int row = grid.height / 2;
+    int col = grid.width / 2;
+    if (board.hasAPlayer()) {
+      row = board.playerLoc.x;
+      col = board.playerLoc.y;
+    }
+    row = Math.max(0, Math.min(grid.height - 1, row + this.scrollRow));
+    col = Math.max(0, Math.min(grid.width - 1, col + this.scrollCol));
+    return new Posn(row, col);
+  }
+
+  // Determines if the whole of the given grid fits in the scene and the
+  // camera isn't scrolled, in which case the board is shown whole
+  boolean showsWhole(BoardGrid grid) {
+    double cellSize = Viewport.CELL_SIZE * this.scale();
+    return this.scrollRow == 0 && this.scrollCol == 0 && grid.width * cellSize <= this.width
+        && grid.height * cellSize <= this.height;
+  }
+
+  // Places the part of the given board in view on the given scene
+  WorldScene place(Board board, WorldScene scene) {
+    BoardGrid grid = board.grid();
+    double scale = this.scale();
+    if (this.showsWhole(grid)) {
+      WorldImage image = board.render();
+      if (this.zoom != Viewport.DEFAULT_ZOOM) {
+        image = new ScaleImage(image, scale);
+      }
+      return scene.placeImageXY(image, this.width / 2, this.height / 2);
+    }
+    Posn center = this.center(board);
+    double cellSize = Viewport.CELL_SIZE * scale;
+    int halfRows = (int) Math.ceil(this.height / cellSize / 2) + Viewport.MARGIN;
+    int halfCols = (int) Math.ceil(this.width / cellSize / 2) + Viewport.MARGIN;
+    int top = Math.max(0, center.x - halfRows);
+    int bottom = Math.min(grid.height, center.x + halfRows + 1);
+    int left = Math.max(0, center.y - halfCols);
+    int right = Math.min(grid.width, center.y + halfCols + 1);
+    WorldImage window = new Utils().drawWindow(grid, top, left, bottom - top, right - left);
+    if (this.zoom != Viewport.DEFAULT_ZOOM) {
+      window = new ScaleImage(window, scale);
+    }
+    // Places the window so the middle of the center cell is in the middle of
+    // the scene
+    double x = this.width / 2.0 + ((right - left) / 2.0 - (center.y - left + 0.5)) * cellSize;
+    double y = this.height / 2.0 + ((bottom - top) / 2.0 - (center.x - top + 0.5)) * cellSize;
+    return scene.placeImageXY(window, (int) Math.round(x), (int) Math.round(y));
+  }
+}
+
 //Examples Class
 class ExamplesSokobans {
   // Testing library output was used to verify constructor correctness,
@@ -1128,9 +2981,9 @@ class ExamplesSokobans {
 
   // test for sameColorBeneath
   boolean testSameColorBeneath(Tester t) {
-    return t.checkExpect(new Wall().sameColorTargetBeneath("r"), false)
-        && t.checkExpect(new Trophy("r").sameColorTargetBeneath("r"), true)
-        && t.checkExpect(new Trophy("r").sameColorTargetBeneath("b"), false);
+    return t.checkExpect(new Wall().sameColorTargetBeneath(ItemColor.RED), false)
+        && t.checkExpect(new Trophy("r").sameColorTargetBeneath(ItemColor.RED), true)
+        && t.checkExpect(new Trophy("r").sameColorTargetBeneath(ItemColor.BLUE), false);
   }
 
   // test for GroundCell accept method
@@ -1288,10 +3141,10 @@ class ExamplesSokobans {
 
   // test for andmap
   boolean testAndMap(Tester t) {
-    return t.checkExpect(new ArrayUtils().andMap(example.cells, new CompletedRow()), false)
-        && t.checkExpect(new ArrayUtils().andMap(board2.cells, new CompletedRow()), false)
-        && t.checkExpect(new ArrayUtils().andMap(completedBoard.cells, new CompletedRow()), true)
-        && t.checkExpect(new ArrayUtils().andMap(almostCompletedBoard.cells, new CompletedRow()),
+    return t.checkExpect(new ArrayUtils().andMap(example.cells(), new CompletedRow()), false)
+        && t.checkExpect(new ArrayUtils().andMap(board2.cells(), new CompletedRow()), false)
+        && t.checkExpect(new ArrayUtils().andMap(completedBoard.cells(), new CompletedRow()), true)
+        && t.checkExpect(new ArrayUtils().andMap(almostCompletedBoard.cells(), new CompletedRow()),
             false);
   }
 
@@ -1322,9 +3175,9 @@ class ExamplesSokobans {
         + "WW_gWWWW\n" + "_WW_W___\n" + "__WWW___";
 
     Board boardNoPlayer = new Board(exampleLevelContentsNoPlayer, exampleLevelGround);
-    return t.checkExpect(new ArrayUtils().getIndexIf(example.cells, new RowContainsPlayer()), 3)
-        && t.checkExpect(new ArrayUtils().getIndexIf(boardNoPlayer.cells, new RowContainsPlayer()),
-            -1);
+    return t.checkExpect(new ArrayUtils().getIndexIf(example.cells(), new RowContainsPlayer()), 3)
+        && t.checkExpect(
+            new ArrayUtils().getIndexIf(boardNoPlayer.cells(), new RowContainsPlayer()), -1);
   }
 
   // test for initialize cells. (Exception testing at the end)
@@ -1368,8 +3221,8 @@ class ExamplesSokobans {
         + "WW_gWWWW\n" + "_WW_W___\n" + "__WWW___";
 
     Board havePlayer = new Board(exampleLevelContents, exampleLevelGround);
-    return t.checkExpect(new CompletedRow().apply(havePlayer.cells.get(2)), true)
-        && t.checkExpect(new CompletedRow().apply(havePlayer.cells.get(3)), false);
+    return t.checkExpect(new CompletedRow().apply(havePlayer.cells().get(2)), true)
+        && t.checkExpect(new CompletedRow().apply(havePlayer.cells().get(3)), false);
   }
 
   // test for completedCell class apply
@@ -1390,8 +3243,8 @@ class ExamplesSokobans {
         + "WW_gWWWW\n" + "_WW_W___\n" + "__WWW___";
 
     Board havePlayer = new Board(exampleLevelContents, exampleLevelGround);
-    return t.checkExpect(new RowContainsPlayer().apply(havePlayer.cells.get(3)), true)
-        && t.checkExpect(new RowContainsPlayer().apply(havePlayer.cells.get(2)), false);
+    return t.checkExpect(new RowContainsPlayer().apply(havePlayer.cells().get(3)), true)
+        && t.checkExpect(new RowContainsPlayer().apply(havePlayer.cells().get(2)), false);
   }
 
   // test for DoesThisCellHaveAPlayer function object
@@ -1473,9 +3326,7 @@ class ExamplesSokobans {
     return t.checkExpect(
         new DrawColumn().apply(drawThis,
             new RectangleImage(25, 25, OutlineMode.SOLID, Color.WHITE)),
-        new AboveImage(
-            new ArrayUtils().foldr(drawThis, new DrawRow(),
-                new RectangleImage(0, 0, OutlineMode.SOLID, Color.WHITE)),
+        new AboveImage(new DrawCell().apply(new Cell(new BlankContent(), new BlankGround())),
             new RectangleImage(25, 25, OutlineMode.SOLID, Color.WHITE)));
   }
 
@@ -1497,10 +3348,9 @@ class ExamplesSokobans {
     ArrayList<ArrayList<Cell>> boardOfCells = new ArrayList<ArrayList<Cell>>();
     boardOfCells.add(listOfCells);
     return t.checkExpect(new Utils().drawCells(boardOfCells),
-        new AboveImage(
-            new BesideImage(new DrawCell().apply(new Cell(new BlankContent(), new BlankGround())),
-                new RectangleImage(0, 0, OutlineMode.SOLID, Color.WHITE)),
-            new RectangleImage(0, 0, OutlineMode.SOLID, Color.WHITE)));
+        new DrawCell().apply(new Cell(new BlankContent(), new BlankGround())))
+        && t.checkExpect(new Utils().drawCells(new ArrayList<ArrayList<Cell>>()),
+            new RectangleImage(0, 0, OutlineMode.SOLID, Color.WHITE));
   }
 
   // test for render
@@ -1511,10 +3361,8 @@ class ExamplesSokobans {
     cellsListBlank.add(listOfCells);
     Board boardWithCells = new Board(cellsListBlank);
     return t.checkExpect(boardWithCells.render(),
-        new AboveImage(
-            new BesideImage(new DrawCell().apply(new Cell(new BlankContent(), new BlankGround())),
-                new RectangleImage(0, 0, OutlineMode.SOLID, Color.WHITE)),
-            new RectangleImage(0, 0, OutlineMode.SOLID, Color.WHITE)));
+        new OverlayImage(new RectangleImage(60, 60, OutlineMode.SOLID, new Color(0, 0, 0, 0)),
+            new DrawGround().apply(new BlankGround())));
   }
 
   // Exceptions when drawing a board with uneven cell/ground contents
@@ -1529,6 +3377,19 @@ class ExamplesSokobans {
         "initializeCells", "exampleLevelGroundBad", "exampleLevelContentsBad");
   }
 
+  // Checks that the given world is a PlayLevel with the same board, moves,
+  // history and view as the given one. The version, the checks done and the
+  // scene made are bookkeeping, so they are left out.
+  boolean checkLevel(Tester t, World actual, PlayLevel expected) {
+    if (!t.checkExpect(actual instanceof PlayLevel, true)) {
+      return false;
+    }
+    PlayLevel level = (PlayLevel) actual;
+    return t.checkExpect(level.board, expected.board) && t.checkExpect(level.moves, expected.moves)
+        && t.checkExpect(level.history, expected.history)
+        && t.checkExpect(level.view, expected.view);
+  }
+
   // test for makeScene in PlayLevel
   boolean testMakeScene(Tester t) {
     return t.checkExpect(new PlayLevel(example).makeScene(),
@@ -1544,7 +3405,7 @@ class ExamplesSokobans {
     String exampleLevelContentsNoPlayer = "__WWW___\n" + "__W_WW__\n" + "WWWr_WWW\n" + "W_b_B__W\n"
         + "WW_gWWWW\n" + "_WW_W___\n" + "__WWW___";
     Board noPlayerBoard = new Board(exampleLevelContentsNoPlayer, exampleLevelGroundNoPlayer);
-    return t.checkExpect(new PlayLevel(example).onTick(), new PlayLevel(example))
+    return this.checkLevel(t, new PlayLevel(example).onTick(), new PlayLevel(example))
         && t.checkExpect(new PlayLevel(completedBoard).onTick(),
             new FinishedLevel(completedBoard, "You Won!", Color.GREEN, 0))
         && t.checkExpect(new PlayLevel(noPlayerBoard).onTick(),
@@ -1565,14 +3426,25 @@ class ExamplesSokobans {
     Board smallBoardLeft = new Board(exampleSmallContentsLeft, exampleSmallGround);
     Board smallBoardDown = new Board(exampleSmallContentsDown, exampleSmallGround);
 
-    ArrayList<Board> moveList = new ArrayList<Board>();
-    moveList.add(smallBoard);
-    return t.checkExpect(new PlayLevel(smallBoard).onKeyEvent("up"), new PlayLevel(smallBoard))
-        && t.checkExpect(new PlayLevel(smallBoard).onKeyEvent("right"), new PlayLevel(smallBoard))
-        && t.checkExpect(new PlayLevel(smallBoard).onKeyEvent("down"),
-            new PlayLevel(smallBoardDown, moveList, 1))
-        && t.checkExpect(new PlayLevel(smallBoard).onKeyEvent("left"),
-            new PlayLevel(smallBoardLeft, moveList, 1));
+    UndoLog historyDown = new UndoLog();
+    historyDown.push(smallBoard.movePlayerDown().lastMove, smallBoard.playerCell());
+    UndoLog historyLeft = new UndoLog();
+    historyLeft.push(smallBoard.movePlayerLeft().lastMove, smallBoard.playerCell());
+    PlayLevel level = new PlayLevel(smallBoard);
+    return t.checkExpect(((PlayLevel) level.onKeyEvent("down")).board.playerLoc, new Posn(2, 2))
+        && t.checkExpect(level.board, smallBoard)
+        && this.checkLevel(t,
+            ((PlayLevel) new PlayLevel(smallBoard).onKeyEvent("up")).drainInput(),
+            new PlayLevel(smallBoard))
+        && this.checkLevel(t,
+            ((PlayLevel) new PlayLevel(smallBoard).onKeyEvent("right")).drainInput(),
+            new PlayLevel(smallBoard))
+        && this.checkLevel(t,
+            ((PlayLevel) new PlayLevel(smallBoard).onKeyEvent("down")).drainInput(),
+            new PlayLevel(smallBoardDown, historyDown, 1))
+        && this.checkLevel(t,
+            ((PlayLevel) new PlayLevel(smallBoard).onKeyEvent("left")).drainInput(),
+            new PlayLevel(smallBoardLeft, historyLeft, 1));
   }
 
   // test for class FinishedLevel method's makeScene and onTick
@@ -1694,32 +3566,743 @@ class ExamplesSokobans {
     Board smallBoard = new Board(exampleSmallContents, exampleSmallGround);
 
     Board smallBoard1Move = smallBoard.movePlayerDown();
-    Board smallBoard2Move = smallBoard.movePlayerLeft();
+    Board smallBoard2Move = smallBoard1Move.movePlayerLeft();
 
-    ArrayList<Board> moveHistory2 = new ArrayList<Board>();
-    moveHistory2.add(smallBoard);
-    moveHistory2.add(smallBoard1Move);
+    UndoLog moveHistory2 = new UndoLog();
+    moveHistory2.push(smallBoard1Move.lastMove, smallBoard.playerCell());
+    moveHistory2.push(smallBoard2Move.lastMove, smallBoard1Move.playerCell());
+
+    UndoLog moveHistory1 = new UndoLog();
+    moveHistory1.push(smallBoard1Move.lastMove, smallBoard.playerCell());
+
+    UndoLog expectedHistory1 = new UndoLog();
+    expectedHistory1.push(smallBoard1Move.lastMove, smallBoard.playerCell());
 
-    ArrayList<Board> moveHistory1 = new ArrayList<Board>();
-    moveHistory1.add(smallBoard);
     PlayLevel twoMoves = new PlayLevel(smallBoard2Move, moveHistory2, 2);
-    PlayLevel twoMovesUndo = new PlayLevel(smallBoard1Move, moveHistory2, 3);
+    PlayLevel twoMovesUndo = new PlayLevel(smallBoard1Move, expectedHistory1, 3);
     PlayLevel oneMoves = new PlayLevel(smallBoard1Move, moveHistory1, 1);
-    PlayLevel oneMoveUndo = new PlayLevel(smallBoard, new ArrayList<Board>(), 2);
-    PlayLevel zeroMoves = new PlayLevel(smallBoard, new ArrayList<Board>(), 0);
-
-    return t.checkExpect(zeroMoves.undo(), zeroMoves) && t.checkExpect(oneMoves.undo(), oneMoveUndo)
-        && t.checkExpect(twoMoves.undo(), twoMovesUndo);
+    PlayLevel oneMoveUndo = new PlayLevel(smallBoard, new UndoLog(), 2);
+    PlayLevel zeroMoves = new PlayLevel(smallBoard, new UndoLog(), 0);
+
+    return this.checkLevel(t, zeroMoves.undo(), zeroMoves)
+        && this.checkLevel(t, oneMoves.undo(), oneMoveUndo)
+        && this.checkLevel(t, twoMoves.undo(), twoMovesUndo);
+
+  }
+
+  // test for the content and ground codes used by packed boards
+  boolean testCellCodes(Tester t) {
+    return t.checkExpect(CellCodes.contentCode('W'), CellCodes.WALL)
+        && t.checkExpect(CellCodes.contentCode('b'), (byte) (CellCodes.TROPHY + 2))
+        && t.checkExpect(CellCodes.contentCode('<'), (byte) (CellCodes.PLAYER + CellCodes.LEFT))
+        && t.checkExpect(CellCodes.contentCode('_'), CellCodes.BLANK)
+        && t.checkExpect(CellCodes.groundCode('Y'), (byte) (CellCodes.TARGET + 3))
+        && t.checkExpect(CellCodes.groundCode('I'), CellCodes.ICE)
+        && t.checkExpect(CellCodes.contentChar(CellCodes.contentCode('v')), 'v')
+        && t.checkExpect(CellCodes.groundChar(CellCodes.groundCode('G')), 'G')
+        && t.checkExpect(CellCodes.completedCell(CellCodes.contentCode('r'),
+            CellCodes.groundCode('R')), true)
+        && t.checkExpect(CellCodes.completedCell(CellCodes.contentCode('g'),
+            CellCodes.groundCode('R')), false)
+        && t.checkExpect(CellCodes.completedCell(CellCodes.BOX, CellCodes.groundCode('R')), false)
+        && t.checkExpect(CellCodes.completedCell(CellCodes.BOX, CellCodes.ICE), true);
+  }
+
+  // test for initializeGrid in Utils
+  boolean testInitializeGrid(Tester t) {
+    BoardGrid grid = new Utils().initializeGrid("W>\nrH", "_I\nR_");
+    Utils util = new Utils();
+    return t.checkExpect(grid.width, 2) && t.checkExpect(grid.height, 2)
+        && t.checkExpect(grid.contents, new byte[] { CellCodes.WALL,
+            (byte) (CellCodes.PLAYER + CellCodes.RIGHT), CellCodes.TROPHY, CellCodes.HOLE })
+        && t.checkExpect(grid.grounds, new byte[] { CellCodes.BLANK_GROUND, CellCodes.ICE,
+            CellCodes.TARGET, CellCodes.BLANK_GROUND })
+        && t.checkException(new IllegalArgumentException("Board rows must all be the same length"),
+            util, "initializeGrid", "WW\nW", "__\n_");
+  }
+
+  // test for gridFromCells in Utils
+  boolean testGridFromCells(Tester t) {
+    return t.checkExpect(new Utils().gridFromCells(board2.cells()), board2.grid())
+        && t.checkExpect(new Utils().gridFromCells(example.cells()), example.grid());
+  }
+
+  // test for the BoardGrid lookups
+  boolean testBoardGridLookups(Tester t) {
+    BoardGrid grid = board2.grid();
+    return t.checkExpect(grid.index(2, 1), 9)
+        && t.checkExpect(grid.inBounds(3, 3), true)
+        && t.checkExpect(grid.inBounds(4, 0), false)
+        && t.checkExpect(grid.contentAt(1, 2), CellCodes.BOX)
+        && t.checkExpect(grid.contentAt(-1, 0), CellCodes.WALL)
+        && t.checkExpect(grid.groundAt(0, 2), CellCodes.TARGET)
+        && t.checkExpect(grid.groundAt(0, 9), CellCodes.BLANK_GROUND)
+        && t.checkExpect(grid.findPlayer(), new Posn(1, 1))
+        && t.checkExpect(new Board("WW\nW_", "__\n__").grid().findPlayer(), new Posn(-1, -1));
+  }
+
+  // test for allTargetsCovered and allTargetsCoveredByScan in BoardGrid
+  boolean testAllTargetsCovered(Tester t) {
+    return t.checkExpect(example.grid().allTargetsCovered(), false)
+        && t.checkExpect(completedBoard.grid().allTargetsCovered(), true)
+        && t.checkExpect(almostCompletedBoard.grid().allTargetsCovered(), false)
+        && t.checkExpect(example.grid().allTargetsCoveredByScan(), false)
+        && t.checkExpect(completedBoard.grid().allTargetsCoveredByScan(), true);
+  }
+
+  // test for the running count of unsatisfied targets in BoardGrid
+  boolean testUnsatisfiedTargets(Tester t) {
+    Board start = new Board("WWWWWW\nW>g__W\nWWWWWW", "______\n___G__\n______");
+    Board covered = start.movePlayerRight();
+    Board uncovered = covered.movePlayerRight();
+    int coveredGreen = covered.grid().unsatisfiedTargets(ItemColor.GREEN);
+    int uncoveredGreen = uncovered.grid().unsatisfiedTargets(ItemColor.GREEN);
+    return t.checkExpect(example.grid().unsatisfiedTargets(ItemColor.RED), 1)
+        && t.checkExpect(example.grid().unsatisfiedTargets(ItemColor.GREEN), 1)
+        && t.checkExpect(example.grid().unsatisfiedTotal, 4)
+        && t.checkExpect(board2.grid().unsatisfiedTotal, 5)
+        && t.checkExpect(almostCompletedBoard.grid().unsatisfiedTotal, 1)
+        && t.checkExpect(coveredGreen, 0)
+        && t.checkExpect(covered.levelWon(), true)
+        && t.checkExpect(uncoveredGreen, 1)
+        && t.checkExpect(uncovered.levelWon(), false)
+        && t.checkExpect(start.levelWon(), false)
+        && t.checkExpect(covered.levelWon(), true);
+  }
+
+  // test that the win state stays in step with a full scan through moves and
+  // undos when checkWinState is on
+  boolean testCheckWinState(Tester t) {
+    boolean oldCheck = Board.checkWinState;
+    Board.checkWinState = true;
+    PlayLevel level = new PlayLevel(introLevelBoard);
+    String[] keys = { "down", "right", "up", "right", "down", "u", "left", "u", "u", "down" };
+    boolean agreed = true;
+    for (String key : keys) {
+      level = ((PlayLevel) level.onKeyEvent(key)).drainInput();
+      agreed = agreed && level.board.levelWon() == level.board.grid().allTargetsCoveredByScan();
+    }
+    Board.checkWinState = oldCheck;
+    return t.checkExpect(agreed, true);
+  }
+
+
+  // test for the cell views of a BoardGrid
+  boolean testBoardGridViews(Tester t) {
+    return t.checkExpect(board2.grid().cellView(5), new Cell(new Player(">"), new Target("Y")))
+        && t.checkExpect(board2.grid().cellView(10), new Cell(new Trophy("b"), new Target("G")))
+        && t.checkExpect(levelWithIce.grid().cellView(10),
+            new Cell(new BlankContent(), new Target("Y")))
+        && t.checkExpect(levelWithIce.grid().cellView(17), new Cell(new Hole(), new BlankGround()))
+        && t.checkExpect(levelWithIce.grid().groundView(11), new Ice())
+        && t.checkExpect(board2.cells(),
+            new Utils().initializeCells("WW_W\nW>BW\nW_bW\nWB_W", "__R_\n_Y__\n__G_\n_BB_"));
+  }
+
+  // test for the ContentCode and GroundCode visitors
+  boolean testCodeVisitors(Tester t) {
+    return t.checkExpect(new ContentCode().apply(new Wall()), CellCodes.WALL)
+        && t.checkExpect(new ContentCode().apply(new Trophy("y")), (byte) (CellCodes.TROPHY + 3))
+        && t.checkExpect(new ContentCode().apply(new Player("^")), CellCodes.PLAYER)
+        && t.checkExpect(new ContentCode().apply(new BlankContent()), CellCodes.BLANK)
+        && t.checkExpect(new ContentCode().apply(new Hole()), CellCodes.HOLE)
+        && t.checkExpect(new GroundCode().apply(new Target("G")), (byte) (CellCodes.TARGET + 1))
+        && t.checkExpect(new GroundCode().apply(new Ice()), CellCodes.ICE)
+        && t.checkExpect(new GroundCode().apply(new BlankGround()), CellCodes.BLANK_GROUND);
+  }
+
+  // test for drawGrid in Utils
+  boolean testDrawGrid(Tester t) {
+    Board noTrophies = new Board("WWWW\nW>BW\nWH_W", "____\n_RI_\n____");
+    return t.checkExpect(new Utils().drawGrid(noTrophies.grid()),
+        new Utils().drawCells(noTrophies.cells()));
+  }
+
+  // test for record, isEmpty, clear, redo and undo in MoveDelta
+  boolean testMoveDelta(Tester t) {
+    BoardGrid grid = new Utils().initializeGrid("W>_W", "____");
+    MoveDelta delta = new MoveDelta();
+    boolean emptyAtFirst = delta.isEmpty();
+    delta.record(1, (byte) (CellCodes.PLAYER + CellCodes.RIGHT), CellCodes.BLANK, 0, -1);
+    delta.record(2, CellCodes.BLANK, CellCodes.BOX, -1, 0);
+    delta.record(2, CellCodes.BOX, (byte) (CellCodes.PLAYER + CellCodes.RIGHT), 0, 0);
+    delta.redo(grid);
+    byte[] afterRedo = grid.contents.clone();
+    delta.undo(grid);
+    byte[] afterUndo = grid.contents.clone();
+    int sizeBeforeClear = delta.size;
+    delta.clear();
+    return t.checkExpect(emptyAtFirst, true)
+        && t.checkExpect(sizeBeforeClear, 2)
+        && t.checkExpect(afterRedo, new Utils().initializeGrid("W_>W", "____").contents)
+        && t.checkExpect(afterUndo, new Utils().initializeGrid("W>_W", "____").contents)
+        && t.checkExpect(delta.isEmpty(), true);
+  }
+
+  // test for reroot and advance in GridVersion
+  boolean testGridVersion(Tester t) {
+    BoardGrid grid = new Utils().initializeGrid("W>_W", "____");
+    GridVersion start = new GridVersion(grid);
+    MoveDelta delta = new MoveDelta();
+    new MoveEngine(grid, delta).movePlayer(0, 1, CellCodes.RIGHT);
+    GridVersion moved = start.advance(delta);
+    start.reroot();
+    byte[] atStart = grid.contents.clone();
+    boolean startIsRoot = start.next == null && moved.next == start;
+    moved.reroot();
+    return t.checkExpect(atStart, new Utils().initializeGrid("W>_W", "____").contents)
+        && t.checkExpect(startIsRoot, true)
+        && t.checkExpect(grid.contents, new Utils().initializeGrid("W_>W", "____").contents)
+        && t.checkExpect(moved.next, null)
+        && t.checkExpect(start.next, moved);
+  }
+
+  // test for movePlayer and slideItem in MoveEngine
+  boolean testMoveEngine(Tester t) {
+    BoardGrid walk = new Utils().initializeGrid("W>_W", "____");
+    MoveDelta walkDelta = new MoveDelta();
+    int walked = new MoveEngine(walk, walkDelta).movePlayer(0, 1, CellCodes.RIGHT);
+
+    BoardGrid blocked = new Utils().initializeGrid("W>W", "___");
+    MoveDelta blockedDelta = new MoveDelta();
+    int stayed = new MoveEngine(blocked, blockedDelta).movePlayer(0, 1, CellCodes.RIGHT);
+
+    BoardGrid hole = new Utils().initializeGrid("W>HW", "____");
+    int fell = new MoveEngine(hole, new MoveDelta()).movePlayer(0, 1, CellCodes.RIGHT);
+
+    BoardGrid ice = new Utils().initializeGrid("W>r___W", "___II__");
+    MoveDelta iceDelta = new MoveDelta();
+    MoveEngine iceEngine = new MoveEngine(ice, iceDelta);
+    int pushed = iceEngine.movePlayer(0, 1, CellCodes.RIGHT);
+
+    BoardGrid slide = new Utils().initializeGrid("WbH_W", "_II__");
+    boolean slidIntoHole = new MoveEngine(slide, new MoveDelta()).slideItem(0, 1, CellCodes.RIGHT);
+
+    return t.checkExpect(walked, 2) && t.checkExpect(walkDelta.size, 2)
+        && t.checkExpect(walk.contents, new Utils().initializeGrid("W_>W", "____").contents)
+        && t.checkExpect(stayed, 1) && t.checkExpect(blockedDelta.isEmpty(), true)
+        && t.checkExpect(fell, -1)
+        && t.checkExpect(hole.contents, new Utils().initializeGrid("W__W", "____").contents)
+        && t.checkExpect(pushed, 2) && t.checkExpect(iceDelta.size, 3)
+        && t.checkExpect(ice.contents, new Utils().initializeGrid("W_>__rW", "_______").contents)
+        && t.checkExpect(slidIntoHole, true)
+        && t.checkExpect(slide.contents, new Utils().initializeGrid("W___W", "_____").contents);
+  }
+
+  // test that moving a board never changes the board that was moved
+  boolean testMoveKeepsOldBoard(Tester t) {
+    Board start = new Board("WWWW\nW_>W\nW__W\nWWWW", "____\n____\n____\n____");
+    Board down = start.movePlayerDown();
+    Board left = start.movePlayerLeft();
+    Board downLeft = down.movePlayerLeft();
+    return t.checkExpect(start, new Board("WWWW\nW_>W\nW__W\nWWWW", "____\n____\n____\n____"))
+        && t.checkExpect(down, new Board("WWWW\nW__W\nW_vW\nWWWW", "____\n____\n____\n____"))
+        && t.checkExpect(left, new Board("WWWW\nW<_W\nW__W\nWWWW", "____\n____\n____\n____"))
+        && t.checkExpect(downLeft,
+            new Board("WWWW\nW__W\nW<_W\nWWWW", "____\n____\n____\n____"))
+        && t.checkExpect(start.movePlayerUp() == start, true);
+  }
+
+  // test for same in Board
+  boolean testBoardSame(Tester t) {
+    Board start = new Board("WWWW\nW_>W\nW__W\nWWWW", "____\n____\n____\n____");
+    Board down = start.movePlayerDown();
+    return t.checkExpect(start.same(down), false)
+        && t.checkExpect(down.same(down.movePlayerUp().movePlayerDown()), true)
+        && t.checkExpect(start.same(new Board(start.cells())), true)
+        && t.checkExpect(start.same(board2), false);
+  }
+
+  // test for push, pop, size, isEmpty and same in UndoLog
+  boolean testUndoLog(Tester t) {
+    Board start = new Board("WWWWW\nW>b_W\nWWWWW", "_____\n_____\n_____");
+    Board pushed = start.movePlayerRight();
+    UndoLog log = new UndoLog();
+    boolean emptyAtFirst = log.isEmpty();
+    log.push(pushed.lastMove, start.playerCell());
+    UndoLog same = new UndoLog();
+    same.push(pushed.lastMove, start.playerCell());
+    boolean sameBeforePop = log.same(same);
+    int sizeBeforePop = log.size();
+    MoveDelta undo = new MoveDelta();
+    int playerBefore = log.pop(undo);
+    return t.checkExpect(emptyAtFirst, true) && t.checkExpect(sizeBeforePop, 1)
+        && t.checkExpect(sameBeforePop, true)
+        && t.checkExpect(playerBefore, 6)
+        && t.checkExpect(undo.size, 3)
+        && t.checkExpect(log.isEmpty(), true)
+        && t.checkExpect(log.same(new UndoLog()), true)
+        && t.checkExpect(log.same(same), false);
+  }
+
+  // test for undoLastMove and applyDelta in Board
+  boolean testUndoLastMove(Tester t) {
+    Board start = new Board("WWWWW\nW>b_W\nWWWWW", "_____\n_____\n_____");
+    Board pushed = start.movePlayerRight();
+    UndoLog log = new UndoLog();
+    log.push(pushed.lastMove, start.playerCell());
+    Board undone = pushed.undoLastMove(log);
+    return t.checkExpect(pushed,
+        new Board("WWWWW\nW_>bW\nWWWWW", "_____\n_____\n_____"))
+        && t.checkExpect(undone, start)
+        && t.checkExpect(undone.playerLoc, new Posn(1, 1))
+        && t.checkExpect(log.isEmpty(), true)
+        && t.checkExpect(pushed, new Board("WWWWW\nW_>bW\nWWWWW", "_____\n_____\n_____"));
+  }
+
+  // test for playerCell and locationOf in Board
+  boolean testPlayerCell(Tester t) {
+    return t.checkExpect(board2.playerCell(), 5)
+        && t.checkExpect(board2.locationOf(5), new Posn(1, 1))
+        && t.checkExpect(board2.locationOf(-1), new Posn(-1, -1))
+        && t.checkExpect(new Board("WW\nW_", "__\n__").playerCell(), -1);
+  }
+
+  // test that a long session keeps only the changed cells of each move
+  boolean testUndoLogStaysSmall(Tester t) {
+    PlayLevel level = new PlayLevel(new Board("WWWW\nW>_W\nWWWW", "____\n____\n____"));
+    for (int i = 0; i < 1000; i += 1) {
+      level = ((PlayLevel) level.onKeyEvent("right").onKeyEvent("left")).drainInput();
+    }
+    return t.checkExpect(level.history.size(), 2000)
+        && t.checkExpect(level.history.changes, 4000)
+        && t.checkExpect(((PlayLevel) level.undo()).board.playerLoc, new Posn(1, 2));
+  }
+
+  // test for the ItemColor and Direction lookups
+  boolean testColorAndDirectionLookups(Tester t) {
+    return t.checkExpect(ItemColor.ofTrophy("g"), ItemColor.GREEN)
+        && t.checkExpect(ItemColor.ofTarget("Y"), ItemColor.YELLOW)
+        && t.checkExpect(Direction.ofPlayer("<"), Direction.LEFT)
+        && t.checkExpect(ItemColor.BLUE.ordinal(), CellCodes.TROPHY_CHARS.indexOf('b'))
+        && t.checkExpect(Direction.DOWN.ordinal(), CellCodes.DOWN)
+        && t.checkException(new IllegalArgumentException("Invalid trophy color"), ItemColor.RED,
+            "ofTrophy", "R")
+        && t.checkException(new IllegalArgumentException("Invalid target color"), ItemColor.RED,
+            "ofTarget", "rr")
+        && t.checkException(new IllegalArgumentException("Invalid player direction"),
+            Direction.UP, "ofPlayer", "x");
+  }
+
+  // test for the shared instances in CellViews
+  boolean testCellViews(Tester t) {
+    return t.checkExpect(CellViews.content(CellCodes.WALL) == CellViews.WALL, true)
+        && t.checkExpect(CellViews.content(CellCodes.contentCode('>')),
+            new Player(Direction.RIGHT))
+        && t.checkExpect(CellViews.player(Direction.RIGHT) == CellViews.player(Direction.RIGHT),
+            true)
+        && t.checkExpect(CellViews.trophy(ItemColor.GREEN), new Trophy("g"))
+        && t.checkExpect(CellViews.target(ItemColor.BLUE), new Target("B"))
+        && t.checkExpect(CellViews.ground(CellCodes.ICE) == CellViews.ICE, true)
+        && t.checkExpect(board2.grid().contentView(5) == CellViews.player(Direction.RIGHT), true)
+        && t.checkExpect(
+            board2.cells().get(0).get(0).content == board2.cells().get(1).get(0).content, true);
+  }
+
+  // test for the entities tracked by a BoardGrid
+  boolean testEntityTracking(Tester t) {
+    Board start = new Board("WWWWWWW\nW>b_BHW\nWWWWWWW", "_______\n_______\n_______");
+    Board pushed = start.movePlayerRight();
+    Board pushedAgain = pushed.movePlayerRight();
+    return t.checkExpect(start.grid().entityCount(), 3)
+        && t.checkExpect(start.grid().entityAt[8], 0)
+        && t.checkExpect(start.grid().entityAt[11], 2)
+        && t.checkExpect(start.grid().entityAt[12], -1)
+        && t.checkExpect(start.entityLocation(1), new Posn(1, 2))
+        && t.checkExpect(pushed.entityLocation(0), new Posn(1, 2))
+        && t.checkExpect(pushed.entityLocation(1), new Posn(1, 3))
+        && t.checkExpect(pushedAgain.entityLocation(0), new Posn(1, 2))
+        && t.checkExpect(pushedAgain.entityLocation(1), new Posn(1, 3))
+        && t.checkExpect(pushedAgain.entityLocation(2), new Posn(1, 4))
+        && t.checkExpect(start.entityLocation(1), new Posn(1, 2))
+        && t.checkExpect(start.grid().entityAt[9], 1);
+  }
+
+  // test that entities that fall into holes are no longer tracked, and come
+  // back when the move is undone
+  boolean testEntityIntoHole(Tester t) {
+    Board start = new Board("WWWWW\nW>bHW\nWWWWW", "_____\n_____\n_____");
+    Board pushed = start.movePlayerRight();
+    UndoLog log = new UndoLog();
+    log.push(pushed.lastMove, start.playerCell());
+    Posn gone = pushed.entityLocation(1);
+    Board undone = pushed.undoLastMove(log);
+    return t.checkExpect(gone, new Posn(-1, -1))
+        && t.checkExpect(pushed.entityLocation(0), new Posn(1, 2))
+        && t.checkExpect(undone.entityLocation(1), new Posn(1, 2))
+        && t.checkExpect(undone.entityLocation(0), new Posn(1, 1));
+  }
+
+  // test that the next player takes over when the one being moved falls into
+  // a hole, and that undoing the fall brings the first one back
+  boolean testTwoPlayers(Tester t) {
+    Board start = new Board("WWWWWWW\nW>_H>_W\nWWWWWWW", "_______\n_____R_\n_______");
+    Board fallen = start.movePlayerRight().movePlayerRight();
+    UndoLog history = new UndoLog();
+    PlayLevel level = new PlayLevel(start, history, 0);
+    World played = level.onKeyEvent("right").onKeyEvent("right").onTick();
+    return t.checkExpect(fallen.playerLoc, new Posn(1, 4))
+        && t.checkExpect(fallen.hasAPlayer(), true)
+        && t.checkExpect(fallen.movePlayerRight().playerLoc, new Posn(1, 5))
+        && t.checkExpect(played instanceof PlayLevel, true)
+        && t.checkExpect(((PlayLevel) played).board.playerLoc, new Posn(1, 4))
+        && t.checkExpect(((PlayLevel) played).board.undoLastMove(history).playerLoc,
+            new Posn(1, 2));
+  }
+
+  // test that findPlayer agrees with the player location carried by moves
+  boolean testPlayerCarriedForward(Tester t) {
+    Board moved = introLevelBoard.movePlayerDown().movePlayerRight().movePlayerRight();
+    return t.checkExpect(moved.playerLoc, moved.grid().findPlayer())
+        && t.checkExpect(levelWithIce.movePlayerLeft().playerLoc,
+            levelWithIce.movePlayerLeft().grid().findPlayer());
+  }
+
+  // Determines if every slide stop of the given grid matches a cell by cell
+  // walk
+  boolean slideStopsMatchWalk(BoardGrid grid) {
+    for (int direction = 0; direction < 4; direction += 1) {
+      for (int i = 0; i < grid.contents.length; i += 1) {
+        if (grid.slideStop(i, direction) != grid.slideStopByWalk(i, direction)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
 
+  // test for the slide stops of a BoardGrid
+  boolean testSlideStops(Tester t) {
+    BoardGrid grid = levelWithIce.grid();
+    return t.checkExpect(grid.slideStop(grid.index(2, 2), CellCodes.RIGHT), grid.index(2, 4))
+        && t.checkExpect(grid.slideStop(grid.index(2, 3), CellCodes.LEFT), grid.index(2, 2))
+        && t.checkExpect(grid.slideStop(grid.index(1, 3), CellCodes.RIGHT), grid.index(1, 4))
+        && t.checkExpect(grid.slideStop(grid.index(2, 3), CellCodes.UP), grid.index(1, 3))
+        && t.checkExpect(grid.slideStop(grid.index(1, 1), CellCodes.RIGHT), grid.index(1, 1))
+        && t.checkExpect(this.slideStopsMatchWalk(grid), true)
+        && t.checkExpect(this.slideStopsMatchWalk(levelWithIce.movePlayerLeft().grid()), true)
+        && t.checkExpect(this.slideStopsMatchWalk(levelWithIce.grid()), true);
+  }
+
+  // test that slides along a long stretch of ice end in the right places, and
+  // keep the slide stops up to date
+  boolean testLongSlide(Tester t) {
+    Board start = new Board("WWWWWWWWWW\nW>b______W\nWWWWWWWWWW",
+        "__________\n__IIIIII__\n__________");
+    Board pushed = start.movePlayerRight();
+    Board back = pushed.movePlayerLeft();
+    UndoLog log = new UndoLog();
+    log.push(pushed.lastMove, start.playerCell());
+    Board undone = pushed.undoLastMove(log);
+    return t.checkExpect(pushed.entityLocation(1), new Posn(1, 8))
+        && t.checkExpect(pushed.playerLoc, new Posn(1, 7))
+        && t.checkExpect(pushed.lastMove.size, 4)
+        && t.checkExpect(this.slideStopsMatchWalk(pushed.grid()), true)
+        && t.checkExpect(back.playerLoc, new Posn(1, 1))
+        && t.checkExpect(this.slideStopsMatchWalk(back.grid()), true)
+        && t.checkExpect(undone.playerLoc, new Posn(1, 1))
+        && t.checkExpect(undone.entityLocation(1), new Posn(1, 2))
+        && t.checkExpect(this.slideStopsMatchWalk(undone.grid()), true);
+  }
+
+  // test for the path a move reports
+  boolean testMoveTrace(Tester t) {
+    Board pushed = new Board("WWWWWWWWWW\nW>b______W\nWWWWWWWWWW",
+        "__________\n__IIIIII__\n__________").movePlayerRight();
+    MoveTrace path = pushed.lastPath;
+    MoveTrace intoHole = new Board("WWWWWWW\nW>b__HW\nWWWWWWW", "_______\n__III__\n_______")
+        .movePlayerRight().lastPath;
+    MoveTrace trace = new MoveTrace();
+    trace.add(0, 1, 2);
+    trace.add(0, 2, 5);
+    trace.add(1, 5, 6);
+    trace.fall(1, 6, 7);
+    return t.checkExpect(path.size, 2)
+        && t.checkExpect(path.entities[0], 1) && t.checkExpect(path.froms[0], 12)
+        && t.checkExpect(path.tos[0], 18) && t.checkExpect(path.fell[0], false)
+        && t.checkExpect(path.entities[1], 0) && t.checkExpect(path.froms[1], 11)
+        && t.checkExpect(path.tos[1], 17)
+        && t.checkExpect(intoHole.size, 2)
+        && t.checkExpect(intoHole.tos[0], 12) && t.checkExpect(intoHole.fell[0], true)
+        && t.checkExpect(intoHole.froms[1], 8) && t.checkExpect(intoHole.tos[1], 9)
+        && t.checkExpect(trace.size, 2) && t.checkExpect(trace.tos[0], 5)
+        && t.checkExpect(trace.fell[1], true)
+        && t.checkExpect(introLevelBoard.lastPath, null);
+  }
+
+  // test that a slide across a very long stretch of ice, pushing along the
+  // way, takes constant stack
+  boolean testVeryLongSlide(Tester t) {
+    int length = 200000;
+    StringBuilder contents = new StringBuilder("W>");
+    StringBuilder ground = new StringBuilder("__");
+    for (int i = 0; i < length; i += 1) {
+      if (i % 1000 == 999) {
+        contents.append("H");
+      }
+      else if (i % 1000 == 500) {
+        contents.append("B");
+      }
+      else {
+        contents.append("_");
+      }
+      ground.append("I");
+    }
+    contents.append("W");
+    ground.append("_");
+    Board slid = new Board(contents.toString(), ground.toString()).movePlayerRight();
+    Board slidAgain = slid.movePlayerRight();
+    return t.checkExpect(slid.playerLoc, new Posn(0, 502))
+        && t.checkExpect(slid.lastPath.size, 3)
+        && t.checkExpect(slid.lastPath.tos[0], 501)
+        && t.checkExpect(slid.lastPath.fell[1], true)
+        && t.checkExpect(slid.lastPath.tos[1], 1001)
+        && t.checkExpect(slidAgain.playerLoc, new Posn(0, 1502))
+        && t.checkExpect(slidAgain.lastPath.froms[0], 502)
+        && t.checkExpect(slidAgain.lastPath.tos[1], 2001);
+  }
+
+  // test for the shared images in ImageCache
+  boolean testImageCache(Tester t) {
+    return t.checkExpect(ImageCache.trophy(ItemColor.BLUE),
+        new FromFileImage("./images/TrophyB.png"))
+        && t.checkExpect(ImageCache.player(Direction.LEFT),
+            new FromFileImage("./images/Player<.png"))
+        && t.checkExpect(ImageCache.target(ItemColor.RED), new CircleImage(30, "solid", Color.RED))
+        && t.checkExpect(ImageCache.cell(CellCodes.BOX, CellCodes.ICE),
+            new OverlayImage(new FromFileImage("./images/Box.png"),
+                new FromFileImage("./images/Ice.png")))
+        && t.checkExpect(new DrawContent().apply(new Trophy("y")) == ImageCache
+            .trophy(ItemColor.YELLOW), true)
+        && t.checkExpect(new DrawContent().apply(new Wall()) == new DrawContent()
+            .apply(new Wall()), true)
+        && t.checkExpect(new DrawGround().apply(new Ice()) == ImageCache.ground(CellCodes.ICE),
+            true)
+        && t.checkExpect(ImageCache.warm(), ImageCache.CONTENTS.length * ImageCache.GROUNDS.length);
+  }
+
+  // test for drawing a board in layers with GridRenderer
+  boolean testGridRenderer(Tester t) {
+    Board start = new Board("WWWW\nW>_W\nW__W\nWWWW", "____\n_I__\n__R_\n____");
+    WorldImage first = start.render();
+    WorldImage again = start.render();
+    GridRenderer renderer = start.grid().renderer();
+    WorldImage[] rowsBefore = renderer.rows.clone();
+    Board moved = start.movePlayerRight();
+    WorldImage afterMove = moved.render();
+    WorldImage[] rowsAfter = renderer.rows.clone();
+    WorldImage backAgain = start.render();
+    boolean clean = !renderer.grid.anyDirtyRows;
+    return t.checkExpect(again == first, true)
+        && t.checkExpect(renderer.terrain, new GridRenderer(start.grid()).terrain)
+        && t.checkExpect(rowsAfter[0] == rowsBefore[0], true)
+        && t.checkExpect(rowsAfter[1] == rowsBefore[1], false)
+        && t.checkExpect(rowsAfter[2] == rowsBefore[2], true)
+        && t.checkExpect(afterMove, new GridRenderer(moved.grid()).image)
+        && t.checkExpect(backAgain, first)
+        && t.checkExpect(ImageCache.tile(CellCodes.WALL), ImageCache.CLEAR)
+        && t.checkExpect(ImageCache.terrain(CellCodes.BOX, CellCodes.ICE),
+            new FromFileImage("./images/Ice.png"))
+        && t.checkExpect(clean, true);
+  }
+
+  // test for foldBalanced and map in ArrayUtils
+  boolean testFoldBalanced(Tester t) {
+    ArrayList<String> letters = new ArrayList<String>();
+    letters.add("a");
+    letters.add("b");
+    letters.add("c");
+    letters.add("d");
+    letters.add("e");
+    BinaryOperator<String> bracket = (left, right) -> "(" + left + right + ")";
+    ArrayList<Integer> lengths = new ArrayUtils().map(letters, s -> s.length() + 1);
+    return t.checkExpect(new ArrayUtils().foldBalanced(letters, bracket, ""), "((ab)(c(de)))")
+        && t.checkExpect(new ArrayUtils().foldBalanced(new ArrayList<String>(), bracket, "x"), "x")
+        && t.checkExpect(lengths.get(4), 2) && t.checkExpect(lengths.size(), 5);
+  }
+
+  // test that wide boards are drawn as shallow image trees
+  boolean testBalancedDrawing(Tester t) {
+    StringBuilder wide = new StringBuilder();
+    StringBuilder ground = new StringBuilder();
+    for (int i = 0; i < 300; i += 1) {
+      wide.append("W");
+      ground.append("_");
+    }
+    BoardGrid grid = new Utils().initializeGrid(wide.toString(), ground.toString());
+    WorldImage image = new Utils().drawGrid(grid);
+    int depth = 0;
+    while (image instanceof BesideImage) {
+      image = ((BesideImage) image).top;
+      depth += 1;
+    }
+    ArrayList<WorldImage> three = new ArrayList<WorldImage>();
+    three.add(ImageCache.content(CellCodes.WALL));
+    three.add(ImageCache.content(CellCodes.BOX));
+    three.add(ImageCache.content(CellCodes.HOLE));
+    return t.checkExpect(depth, 8)
+        && t.checkExpect(new Utils().besideAll(three),
+            new BesideImage(ImageCache.content(CellCodes.WALL),
+                new BesideImage(ImageCache.content(CellCodes.BOX),
+                    ImageCache.content(CellCodes.HOLE))));
+  }
+
+  // test for showing a board through a Viewport
+  boolean testViewport(Tester t) {
+    StringBuilder contents = new StringBuilder();
+    StringBuilder ground = new StringBuilder();
+    for (int row = 0; row < 40; row += 1) {
+      for (int col = 0; col < 40; col += 1) {
+        if (row == 20 && col == 20) {
+          contents.append(">");
+        }
+        else {
+          contents.append("_");
+        }
+        ground.append("_");
+      }
+      if (row < 39) {
+        contents.append("\n");
+        ground.append("\n");
+      }
+    }
+    Board big = new Board(contents.toString(), ground.toString());
+    BoardGrid grid = big.grid();
+    Viewport view = new Viewport();
+    // 800 / 60 / 2 rounds up to 7 cells each way, plus a margin of 1
+    WorldImage window = new Utils().drawWindow(grid, 12, 12, 17, 17);
+    Viewport scrolled = view.scroll(-1, 100, big);
+    return t.checkExpect(view.showsWhole(grid), false)
+        && t.checkExpect(view.showsWhole(example.grid()), true)
+        && t.checkExpect(view.zoomOut().zoomOut().zoomOut().showsWhole(grid), true)
+        && t.checkExpect(view.place(big, new WorldScene(800, 800)),
+            new WorldScene(800, 800).placeImageXY(window, 400, 400))
+        && t.checkExpect(view.place(example, new WorldScene(800, 800)),
+            new WorldScene(800, 800).placeImageXY(example.render(), 400, 400))
+        && t.checkExpect(view.zoomOut().place(example, new WorldScene(800, 800)),
+            new WorldScene(800, 800).placeImageXY(new ScaleImage(example.render(), 0.75), 400,
+                400))
+        && t.checkExpect(scrolled.center(big), new Posn(19, 39))
+        && t.checkExpect(scrolled.scrollCol, 19)
+        && t.checkExpect(scrolled.recenter().center(big), new Posn(20, 20))
+        && t.checkExpect(view.zoomIn().zoomIn().zoomIn().zoom, 5)
+        && t.checkExpect(view.zoomOut().zoomOut().zoomOut().zoomOut().zoom, 0);
+  }
+
+  // test for the view keys in PlayLevel
+  boolean testViewKeys(Tester t) {
+    PlayLevel level = new PlayLevel(example);
+    return this.checkLevel(t, level.onKeyEvent("="),
+        new PlayLevel(example, new UndoLog(), 0, new Viewport().zoomIn()))
+        && this.checkLevel(t, level.onKeyEvent("-"),
+            new PlayLevel(example, new UndoLog(), 0, new Viewport().zoomOut()))
+        && this.checkLevel(t, level.onKeyEvent("d"),
+            new PlayLevel(example, new UndoLog(), 0, new Viewport(800, 800, 3, 0, 1)))
+        && this.checkLevel(t, ((PlayLevel) level.onKeyEvent("w")).onKeyEvent("c"), level)
+        && t.checkExpect(((PlayLevel) level.onKeyEvent("=")).version, 1);
+  }
+
+  // test that ticks and keys that change nothing reuse the world and its scene
+  boolean testChangeDrivenTicks(Tester t) {
+    PlayLevel level = new PlayLevel(new Board("WWWWW\nW>_rW\nWWWWW", "_____\n__R__\n_____"));
+    World ticked = level.onTick();
+    int checked = level.checkedVersion;
+    WorldScene scene = level.makeScene();
+    World idle = ticked.onTick();
+    // Worlds share their UndoLog, so this must come before the move below
+    World noUndo = level.onKeyEvent("u").onTick();
+    World blocked = level.onKeyEvent("left").onTick();
+    PlayLevel moved = (PlayLevel) level.onKeyEvent("right").onTick();
+    PlayLevel scrolled = (PlayLevel) moved.onKeyEvent("d");
+    Board almostWon = new Board("WWWWW\nW>r_W\nWWWWW", "_____\n___R_\n_____");
+    return t.checkExpect(ticked == level, true) && t.checkExpect(idle == level, true)
+        && t.checkExpect(checked, 0) && t.checkExpect(level.makeScene() == scene, true)
+        && t.checkExpect(blocked == level, true) && t.checkExpect(noUndo == level, true)
+        && t.checkExpect(level.onKeyEvent("x") == level, true)
+        && t.checkExpect(moved.version, 1) && t.checkExpect(moved.checkedVersion, 1)
+        && t.checkExpect(moved.moves, 1) && t.checkExpect(level.moves, 0)
+        && t.checkExpect(moved.makeScene() == scene, false)
+        && t.checkExpect(scrolled.version, 2) && t.checkExpect(scrolled.checkedVersion, -1)
+        && t.checkExpect(((PlayLevel) moved.onKeyEvent("u").onTick()).version, 2)
+        && t.checkExpect(new PlayLevel(almostWon).onKeyEvent("right").onTick(),
+            new FinishedLevel(almostWon.movePlayerRight(), "You Won!", Color.GREEN, 1))
+        && t.checkExpect(PlayLevel.tickRate(), PlayLevel.DEFAULT_TICK_RATE);
+  }
+
+  // test that the first key after a tick is applied at once and the keys after
+  // it are queued and applied together, one scene per tick
+  boolean testInputQueue(Tester t) {
+    PlayLevel level = new PlayLevel(new Board("WWWWWWW\nW>__bWW\nWWWWWWW",
+        "_______\n_____R_\n_______"));
+    PlayLevel first = (PlayLevel) level.onKeyEvent("right");
+    WorldScene scene = first.makeScene();
+    String[] keys = { "up", "right", "u", "right", "left" };
+    PlayLevel pending = first;
+    boolean queued = true;
+    for (String key : keys) {
+      pending = (PlayLevel) pending.onKeyEvent(key);
+      queued = queued && pending.board == first.board && pending.makeScene() == scene;
+    }
+    PlayLevel drained = (PlayLevel) pending.onTick();
+    // Worlds share their UndoLog, so its size must be read before later moves
+    int undoable = drained.history.size();
+    PlayLevel viewed = (PlayLevel) drained.onKeyEvent("right").onKeyEvent("c");
+    Board almostWon = new Board("WWWWW\nW>r_W\nWWWWW", "_____\n___R_\n_____");
+    PlayLevel winning = new PlayLevel(almostWon);
+    World won = winning.onKeyEvent("right").onKeyEvent("left").onTick();
+    // Queuing keys leaves the worlds already made as they were
+    return t.checkExpect(queued, true) && t.checkExpect(pending.input.size(), 5)
+        && t.checkExpect(first.input.isEmpty(), true) && t.checkExpect(level.input.isEmpty(), true)
+        && t.checkExpect(level.board.playerLoc, new Posn(1, 1))
+        && t.checkExpect(first.board.playerLoc, new Posn(1, 2))
+        && t.checkExpect(first.version, 1) && t.checkExpect(pending.version, 1)
+        && t.checkExpect(first.keyApplied, true) && t.checkExpect(drained.keyApplied, false)
+        && t.checkExpect(drained.board.playerLoc, new Posn(1, 2))
+        && t.checkExpect(drained.moves, 5) && t.checkExpect(undoable, 3)
+        && t.checkExpect(drained.version, 2) && t.checkExpect(drained.input.isEmpty(), true)
+        && t.checkExpect(viewed.board.playerLoc, new Posn(1, 3))
+        && t.checkExpect(viewed.version, 4) && t.checkExpect(viewed.moves, 6)
+        && t.checkExpect(won,
+            new FinishedLevel(almostWon.movePlayerRight(), "You Won!", Color.GREEN, 1))
+        && t.checkExpect(winning.input.isEmpty(), true)
+        && t.checkExpect(Direction.ofKey("left"), Direction.LEFT)
+        && t.checkException(new IllegalArgumentException("Invalid arrow key"), Direction.UP,
+            "ofKey", "x");
+  }
+
+  // test for playing back moves written as in Simulator
+  boolean testReplay(Tester t) {
+    Board start = new Board("WWWWWWW\nW>_r__W\nWWWWWWW", "_______\n_____R_\n_______");
+    PlayLevel replayed = new PlayLevel(start).replay("RRzRRR");
+    return t.checkExpect(replayed.moves, 5) && t.checkExpect(replayed.board.levelWon(), true)
+        && t.checkExpect(replayed.input.isEmpty(), true)
+        && t.checkExpect(replayed.board.grid(),
+            new Utils().initializeGrid("WWWWWWW\nW___>rW\nWWWWWWW", "_______\n_____R_\n_______"))
+        && t.checkException(new IllegalArgumentException("Invalid move character"),
+            new PlayLevel(start), "replay", "Rx");
+  }
+
+  // test for the stuck message in PlayLevel
+  boolean testStuckMessage(Tester t) {
+    Board stuck = new Board("WWWWWW\nWr___W\nW____W\nW_>__W\nWWWWWW",
+        "______\n______\n____R_\n______\n______");
+    boolean oldShow = PlayLevel.showStuck;
+    PlayLevel.showStuck = true;
+    WorldScene shown = new PlayLevel(stuck).makeScene();
+    PlayLevel.showStuck = false;
+    WorldScene hidden = new PlayLevel(stuck).makeScene();
+    PlayLevel.showStuck = oldShow;
+    return t.checkExpect(stuck.isStuck(), true)
+        && t.checkExpect(new Board(TerminalPlay.DEFAULT_CONTENTS, TerminalPlay.DEFAULT_GROUND)
+            .isStuck(), false)
+        && t.checkExpect(shown,
+            hidden.placeImageXY(new TextImage("Stuck! Press u to undo", 40, FontStyle.BOLD,
+                Color.RED), 400, 740));
   }
 
   // test for bigbang
   boolean testBigBang(Tester t) {
     PlayLevel w = new PlayLevel(levelWithIce);
-    int worldWidth = 800;
-    int worldHeight = 800;
-    double tickRate = 0.016;
-
-    return w.bigBang(worldWidth, worldHeight, tickRate);
+    return w.play();
   }
 }
\ No newline at end of file
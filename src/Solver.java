@@ -0,0 +1,329 @@
+import java.io.IOException;
+import java.util.Arrays;
+import javalib.funworld.World;
+import tester.*;
+
+// Finds the fewest moves that win a level, for checking that levels can be
+// won before they are shipped. Moves are counted the way PlayLevel counts
+// them, so a slide across ice is one move. The search is IDA*: a series of
+// depth-first searches, each allowed to go a little deeper than the last,
+// that play moves forward and undo them on one Simulator, so a state costs no
+// more memory than its place on the current path. States already reached
+// within a search are skipped: each is packed by a StateCodec into a few
+// longs and looked up in a StateTable, outside the Java heap. States
+// Deadlocks finds can't be won are skipped, and MatchingHeuristic estimates
+// how far each state is from winning.
+//
+// Moves are written as in Simulator (U, D, L and R).
+//
+// Run with: java Solver <contents file> <ground file> [most states to visit]
+class Solver {
+  // Outcomes of solving
+  static final int SOLVED = 0; // the fewest moves that win were found
+  static final int NO_SOLUTION = 1; // every state was tried and none wins
+  static final int GAVE_UP = 2; // the limit on states was reached first
+
+  static final long DEFAULT_MAX_NODES = 10000000; // states visited before giving up
+  static final int FOUND = -1; // returned by search once the level is won
+  static final int NONE = Integer.MAX_VALUE; // returned by search when nothing is left
+
+  Simulator sim; // the level, changed by each move tried and changed back after
+  StateCodec codec; // packs states for seen
+  long[] state; // the current state, packed
+  StateTable seen; // states reached in the current search
+  Deadlocks deadlocks; // finds states that can't be won, which are skipped
+  MatchingHeuristic estimator; // estimates the moves left from a state
+  int[] costs; // per move on the current path then color, that color's estimate
+  long maxNodes; // states visited before giving up
+  long nodes; // states visited so far
+  int[] path; // direction of each move on the current path
+  int[] bestPath; // moves to the state closest to winning so far
+  int bestLength; // number of moves in bestPath
+  int bestDistance; // heuristic of the state bestPath reaches
+  int status; // outcome once solve has been called, or -1 before
+  String solution; // moves that win, once solved
+
+  // Convenience constructor with the default limit on states
+  Solver(Board board) {
+    this(board, Solver.DEFAULT_MAX_NODES);
+  }
+
+  // Constructor for solving the given board, giving up after visiting the
+  // given number of states. The board itself is not changed.
+  Solver(Board board, long maxNodes) {
+    if (maxNodes < 1) {
+      throw new IllegalArgumentException("The solver must be allowed to visit a state");
+    }
+    this.sim = new Simulator(board.grid().copy(), board.playerCell());
+    this.codec = new StateCodec(this.sim.grid, this.sim.playerCell);
+    this.state = new long[this.codec.words];
+    this.seen = new StateTable(this.codec.words, StateTable.DEFAULT_MAX_BYTES);
+    this.deadlocks = this.sim.grid.deadlocks();
+    this.estimator = new MatchingHeuristic(this.sim.grid);
+    this.costs = new int[64 * ItemColor.values().length];
+    this.maxNodes = maxNodes;
+    this.nodes = 0;
+    this.path = new int[64];
+    this.bestPath = new int[0];
+    this.bestLength = 0;
+    this.bestDistance = this.heuristic(0);
+    this.status = -1;
+    this.solution = null;
+  }
+
+  // Returns a lower bound on the number of moves still needed to win from the
+  // current state, which is the given number of moves from the start, or
+  // MatchingHeuristic.UNREACHABLE if it can't be won (see MatchingHeuristic).
+  // Past the start, only the colors whose trophies the last move changed are
+  // paired again; the rest are copied from the state before.
+  int heuristic(int moves) {
+    int colors = ItemColor.values().length;
+    int base = moves * colors;
+    if (base + colors > this.costs.length) {
+      this.costs = Arrays.copyOf(this.costs, this.costs.length * 2);
+    }
+    int total = 0;
+    int needed = 0;
+    for (int color = 0; color < colors; color += 1) {
+      int cost;
+      if (moves == 0 || this.estimator.touches(this.sim.delta, color)) {
+        cost = this.estimator.colorCost(this.sim.grid, color);
+      }
+      else {
+        cost = this.costs[base - colors + color];
+      }
+      this.costs[base + color] = cost;
+      if (cost == MatchingHeuristic.UNREACHABLE) {
+        total = MatchingHeuristic.UNREACHABLE;
+      }
+      else if (total != MatchingHeuristic.UNREACHABLE) {
+        total = this.estimator.combine(total, cost);
+      }
+      if (cost > 0) {
+        needed |= 1 << color;
+      }
+    }
+    return this.estimator.addWalk(total, this.sim.grid, this.sim.playerCell, needed);
+  }
+
+  // Returns the fewest moves that win the level, or null if it can't be won
+  // or the limit on states was reached first (see status)
+  String solve() {
+    if (this.status != -1) {
+      return this.solution;
+    }
+    int bound = this.heuristic(0);
+    int result = Solver.NONE;
+    if (this.sim.status() == Simulator.ONGOING && !this.deadlocked()) {
+      result = this.search(0, bound);
+      while (result != Solver.FOUND && result != Solver.NONE && this.nodes < this.maxNodes) {
+        bound = result;
+        this.seen.clear();
+        result = this.search(0, bound);
+      }
+    }
+    if (this.sim.status() == Simulator.WON) {
+      this.status = Solver.SOLVED;
+      this.solution = Solver.moveString(this.path, this.sim.history.size());
+    }
+    else if (this.nodes >= this.maxNodes) {
+      this.status = Solver.GAVE_UP;
+    }
+    else {
+      this.status = Solver.NO_SOLUTION;
+    }
+    this.sim.reset();
+    return this.solution;
+  }
+
+  // Tries every move from the current state, which is the given number of
+  // moves from the start, as long as the moves so far plus the heuristic
+  // stay within the given bound. Returns FOUND with the winning state left on
+  // the simulator, or else the smallest bound that would let the search get
+  // further (NONE if nothing would).
+  int search(int moves, int bound) {
+    int distance = this.heuristic(moves);
+    if (distance == MatchingHeuristic.UNREACHABLE) {
+      return Solver.NONE;
+    }
+    if (moves + distance > bound) {
+      return moves + distance;
+    }
+    if (this.sim.status() == Simulator.WON) {
+      return Solver.FOUND;
+    }
+    if (this.nodes >= this.maxNodes) {
+      return Solver.NONE;
+    }
+    this.codec.encode(this.sim.grid, this.sim.playerCell, this.state, 0);
+    if (this.seen.visit(this.state, 0, moves) == StateTable.SEEN) {
+      return Solver.NONE;
+    }
+    this.nodes += 1;
+    if (distance < this.bestDistance) {
+      this.bestDistance = distance;
+      this.bestPath = Arrays.copyOf(this.path, moves);
+      this.bestLength = moves;
+    }
+    if (moves == this.path.length) {
+      this.path = Arrays.copyOf(this.path, moves * 2);
+    }
+    int next = Solver.NONE;
+    for (int direction = 0; direction < 4; direction += 1) {
+      if (this.sim.move(direction)) {
+        int status = this.sim.status();
+        if (status == Simulator.WON || status == Simulator.ONGOING && !this.deadlocked()) {
+          this.path[moves] = direction;
+          int result = this.search(moves + 1, bound);
+          if (result == Solver.FOUND) {
+            return Solver.FOUND;
+          }
+          next = Math.min(next, result);
+        }
+        this.sim.undo();
+      }
+    }
+    return next;
+  }
+
+  // Determines if the current state can't be won
+  boolean deadlocked() {
+    return this.deadlocks.isDeadlocked(this.sim.grid, this.sim.playerCell);
+  }
+
+  // Returns the moves to the state closest to winning found so far (the one
+  // with the lowest heuristic), for when the level wasn't solved
+  String bestFound() {
+    if (this.solution != null) {
+      return this.solution;
+    }
+    return Solver.moveString(this.bestPath, this.bestLength);
+  }
+
+  // Returns the given number of directions as move characters
+  static String moveString(int[] directions, int length) {
+    StringBuilder moves = new StringBuilder();
+    for (int i = 0; i < length; i += 1) {
+      moves.append("UDLR".charAt(directions[i]));
+    }
+    return moves.toString();
+  }
+
+  // Solves the level in the given files (contents then ground) and prints the
+  // moves that win it
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2 && args.length != 3) {
+      System.out.println("Usage: java Solver <contents file> <ground file> [most states to visit]");
+      return;
+    }
+    long maxNodes = Solver.DEFAULT_MAX_NODES;
+    if (args.length == 3) {
+      maxNodes = Long.parseLong(args[2]);
+    }
+    Board board = new Board(TerminalPlay.readLevel(args[0]), TerminalPlay.readLevel(args[1]));
+    Solver solver = new Solver(board, maxNodes);
+    String moves = solver.solve();
+    if (solver.status == Solver.SOLVED) {
+      System.out.println("Solved in " + moves.length() + " moves: " + moves);
+    }
+    else if (solver.status == Solver.NO_SOLUTION) {
+      System.out.println("No solution");
+    }
+    else {
+      System.out.println("Gave up after " + solver.nodes + " states; closest: "
+          + solver.bestFound());
+    }
+  }
+}
+
+// Examples for Solver
+class ExamplesSolver {
+  // test for solving small levels, with ice, holes, boxes and colors
+  boolean testSolve(Tester t) {
+    Board push = new Board("WWWWWW\nW>_r_W\nWWWWWW", "______\n____R_\n______");
+    Board slide = new Board("WWWWWWW\nW>r___W\nWWWWWWW", "_______\n__IIIR_\n_______");
+    Board hole = new Board("WWWWWWWW\nW>BH_r_W\nWWWWWWWW", "________\n______R_\n________");
+    Board colors = new Board("WWWWWW\nW____W\nW_gb_W\nW_>__W\nWWWWWW",
+        "______\n_GB___\n______\n______\n______");
+    Board boxOnTarget = new Board("WWWWW\nW>B_W\nWWWWW", "_____\n__B__\n_____");
+    return t.checkExpect(new Solver(push).solve(), "RR")
+        && t.checkExpect(new Solver(slide).solve(), "R")
+        && t.checkExpect(new Solver(hole).solve(), "RRRR")
+        && t.checkExpect(new Solver(colors).solve(), "RURULDLDLU")
+        && t.checkExpect(new Solver(boxOnTarget).solve(), null);
+  }
+
+  // test that solutions win when played back, through Simulator and PlayLevel
+  boolean testSolutionPlaysBack(Tester t) {
+    Board level = new Board("WWWWWWW\nW_>___W\nW_rW_HW\nW__I__W\nW___b_W\nWWWWWWW",
+        "_______\n_____R_\n_______\n___I___\n_B_____\n_______");
+    Solver solver = new Solver(level);
+    String moves = solver.solve();
+    Simulator sim = new Simulator(level.grid().copy());
+    String[] keys = { "up", "down", "left", "right" };
+    World play = new PlayLevel(level);
+    for (int i = 0; i < moves.length(); i += 1) {
+      play = play.onKeyEvent(keys[Simulator.direction(moves.charAt(i))]);
+    }
+    World end = play.onTick();
+    return t.checkExpect(solver.status, Solver.SOLVED)
+        && t.checkExpect(sim.run(moves), Simulator.WON)
+        && t.checkExpect(sim.moves, moves.length())
+        && t.checkExpect(end instanceof FinishedLevel, true)
+        && t.checkExpect(((FinishedLevel) end).message, "You Won!")
+        && t.checkExpect(level.levelWon(), false);
+  }
+
+  // test that the first level of the game is solved in the fewest moves
+  boolean testSolveIntroLevel(Tester t) {
+    Board intro = new Board(TerminalPlay.DEFAULT_CONTENTS, TerminalPlay.DEFAULT_GROUND);
+    Solver solver = new Solver(intro);
+    String moves = solver.solve();
+    return t.checkExpect(moves.length(), 34)
+        && t.checkExpect(new Simulator(intro.grid().copy()).run(moves), Simulator.WON);
+  }
+
+  // test for levels that can't be won and for giving up
+  boolean testNoSolutionAndGivingUp(Tester t) {
+    Board stuck = new Board("WWWWW\nW>_rW\nWWWWW", "_____\n_R___\n_____");
+    Board lost = new Board("WWWWWW\nW>Hr_W\nWWWWWW", "______\n____R_\n______");
+    Board far = new Board("WWWWWWWWWW\nW>_______W\nW_r______W\nW________W\nWWWWWWWWWW",
+        "__________\n__________\n__________\n________R_\n__________");
+    Solver stuckSolver = new Solver(stuck);
+    Solver lostSolver = new Solver(lost);
+    Solver farSolver = new Solver(far, 20);
+    return t.checkExpect(stuckSolver.solve(), null)
+        && t.checkExpect(stuckSolver.status, Solver.NO_SOLUTION)
+        && t.checkExpect(lostSolver.solve(), null)
+        && t.checkExpect(lostSolver.status, Solver.NO_SOLUTION)
+        && t.checkExpect(farSolver.solve(), null)
+        && t.checkExpect(farSolver.status, Solver.GAVE_UP)
+        && t.checkExpect(farSolver.nodes, 20L)
+        && t.checkExpect(new Solver(far).solve().length() > 0, true)
+        && t.checkExpect(new Solver(new Board("WWW\nW>W\nWWW", "___\n___\n___")).solve(), "")
+        && t.checkConstructorException(
+            new IllegalArgumentException("The solver must be allowed to visit a state"),
+            "Solver", stuck, 0L);
+  }
+
+  // test that the Zobrist hash is kept up to date by moves and undos, and
+  // doesn't depend on which way the player faces
+  boolean testZobristHash(Tester t) {
+    Simulator sim = new Simulator("WWWWWWW\nW>_b__W\nW__HW_W\nWWWWWWW",
+        "_______\n_____B_\n__I____\n_______");
+    long start = sim.grid.hash;
+    sim.run("RRD");
+    long moved = sim.grid.hash;
+    BoardGrid fresh = new Utils().initializeGrid(sim.contents(),
+        "_______\n_____B_\n__I____\n_______");
+    sim.undo();
+    sim.undo();
+    long undone = sim.grid.hash;
+    return t.checkExpect(moved, fresh.hash) && t.checkExpect(moved == start, false)
+        && t.checkExpect(undone, new Utils().initializeGrid("WWWWWWW\nW_>b__W\nW__HW_W\nWWWWWWW",
+            "_______\n_____B_\n__I____\n_______").hash)
+        && t.checkExpect(new Utils().initializeGrid("W>", "__").hash,
+            new Utils().initializeGrid("W^", "__").hash)
+        && t.checkExpect(CellCodes.zobrist(CellCodes.BLANK, 5), 0L);
+  }
+}
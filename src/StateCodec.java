@@ -0,0 +1,624 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import tester.*;
+
+// Packs the parts of a level's state that can change into a few longs, so a
+// solver can keep hundreds of millions of states without a heap object for
+// each. Only the cells the player's area of the level covers can ever
+// change, and each gets one bit in each of these bitsets:
+// - one per color of trophy the level starts with, and one for boxes
+// - one for the holes the level starts with, set while a hole is still open
+// The cell the player stands in (or stands in for it, see PushSolver) goes
+// first, as its place among those cells plus 1, so no state packs to all
+// zeros. Everything else (walls, ground, items out of the player's reach)
+// never changes and is kept once, as the base the states are unpacked onto.
+class StateCodec {
+  int[] domain; // cells that can change, in order
+  int[] slots; // per cell, its place in domain, or -1
+  int[] layerOf; // per content code, the bitset of items with that code, or -1
+  int layers; // number of item bitsets
+  int[] holeCells; // cells in domain with a hole at the start
+  int playerBits; // bits holding the player's cell
+  int words; // longs per state
+  byte[] base; // the start contents with the player, items and holes taken out of domain
+  byte playerCode; // content code of the player
+  byte[] scratch; // contents being unpacked, so only one thread can decode at a time
+
+  // Constructor for packing states of the given grid's level, with the
+  // player in the given cell
+  StateCodec(BoardGrid grid, int player) {
+    int size = grid.contents.length;
+    this.slots = new int[size];
+    Arrays.fill(this.slots, -1);
+    // The player's area: every cell it or an item pushed by it could reach
+    int[] cells = new int[size];
+    int count = 1;
+    cells[0] = player;
+    this.slots[player] = 0;
+    for (int head = 0; head < count; head += 1) {
+      for (int direction = 0; direction < 4; direction += 1) {
+        int next = grid.neighbor(cells[head], direction);
+        if (next != -1 && this.slots[next] == -1 && grid.contents[next] != CellCodes.WALL
+            && !CellCodes.isPlayer(grid.contents[next])) {
+          this.slots[next] = count;
+          cells[count] = next;
+          count += 1;
+        }
+      }
+    }
+    Arrays.sort(cells, 0, count);
+    this.domain = Arrays.copyOf(cells, count);
+    int holes = 0;
+    this.layerOf = new int[16];
+    Arrays.fill(this.layerOf, -1);
+    this.layers = 0;
+    for (int i = 0; i < count; i += 1) {
+      this.slots[this.domain[i]] = i;
+      byte content = grid.contents[this.domain[i]];
+      if (CellCodes.canBePushed(content) && this.layerOf[content] == -1) {
+        this.layerOf[content] = this.layers;
+        this.layers += 1;
+      }
+      if (content == CellCodes.HOLE) {
+        holes += 1;
+      }
+    }
+    this.holeCells = new int[holes];
+    this.base = grid.contents.clone();
+    holes = 0;
+    for (int cell : this.domain) {
+      if (grid.contents[cell] == CellCodes.HOLE) {
+        this.holeCells[holes] = cell;
+        holes += 1;
+      }
+      this.base[cell] = CellCodes.BLANK;
+    }
+    this.playerBits = 32 - Integer.numberOfLeadingZeros(count);
+    this.words = (this.playerBits + this.layers * count + holes + 63) / 64;
+    this.playerCode = grid.contents[player];
+    this.scratch = new byte[size];
+  }
+
+  // Constructor for a copy of the given codec, sharing its tables (which
+  // never change) but with scratch space of its own
+  StateCodec(StateCodec codec) {
+    this.domain = codec.domain;
+    this.slots = codec.slots;
+    this.layerOf = codec.layerOf;
+    this.layers = codec.layers;
+    this.holeCells = codec.holeCells;
+    this.playerBits = codec.playerBits;
+    this.words = codec.words;
+    this.base = codec.base;
+    this.playerCode = codec.playerCode;
+    this.scratch = new byte[codec.scratch.length];
+  }
+
+  // Returns a copy of this codec for another thread to use
+  StateCodec copy() {
+    return new StateCodec(this);
+  }
+
+  // Packs the given grid, with the given cell for the player, into the given
+  // array starting at the given place
+  void encode(BoardGrid grid, int player, long[] out, int offset) {
+    for (int i = 0; i < this.words; i += 1) {
+      out[offset + i] = 0;
+    }
+    int count = this.domain.length;
+    int slot = this.slots[player] + 1;
+    for (int bit = 0; bit < this.playerBits; bit += 1) {
+      if ((slot >>> bit & 1) != 0) {
+        StateCodec.setBit(out, offset, bit);
+      }
+    }
+    for (int i = 0; i < count; i += 1) {
+      int layer = this.layerOf[grid.contents[this.domain[i]]];
+      if (layer != -1) {
+        StateCodec.setBit(out, offset, this.playerBits + layer * count + i);
+      }
+    }
+    int holeStart = this.playerBits + this.layers * count;
+    for (int i = 0; i < this.holeCells.length; i += 1) {
+      if (grid.contents[this.holeCells[i]] == CellCodes.HOLE) {
+        StateCodec.setBit(out, offset, holeStart + i);
+      }
+    }
+  }
+
+  // Unpacks the state at the given place in the given array onto the given
+  // grid, with the player in the given cell
+  void decode(long[] in, int offset, BoardGrid grid, int player) {
+    System.arraycopy(this.base, 0, this.scratch, 0, this.base.length);
+    int count = this.domain.length;
+    for (int code = 0; code < this.layerOf.length; code += 1) {
+      int layer = this.layerOf[code];
+      if (layer != -1) {
+        for (int i = 0; i < count; i += 1) {
+          if (StateCodec.bit(in, offset, this.playerBits + layer * count + i)) {
+            this.scratch[this.domain[i]] = (byte) code;
+          }
+        }
+      }
+    }
+    int holeStart = this.playerBits + this.layers * count;
+    for (int i = 0; i < this.holeCells.length; i += 1) {
+      if (StateCodec.bit(in, offset, holeStart + i)) {
+        this.scratch[this.holeCells[i]] = CellCodes.HOLE;
+      }
+    }
+    this.scratch[player] = this.playerCode;
+    grid.load(this.scratch);
+  }
+
+  // Returns the player's cell in the state at the given place in the given
+  // array
+  int player(long[] in, int offset) {
+    int slot = 0;
+    for (int bit = 0; bit < this.playerBits; bit += 1) {
+      if (StateCodec.bit(in, offset, bit)) {
+        slot |= 1 << bit;
+      }
+    }
+    return this.domain[slot - 1];
+  }
+
+  // Sets the given bit of the state at the given place in the given array
+  static void setBit(long[] state, int offset, int bit) {
+    state[offset + (bit >>> 6)] |= 1L << bit;
+  }
+
+  // Determines if the given bit of the state at the given place in the given
+  // array is set
+  static boolean bit(long[] state, int offset, int bit) {
+    return (state[offset + (bit >>> 6)] >>> bit & 1) != 0;
+  }
+}
+
+// Set of packed states (see StateCodec), each stored with the fewest moves
+// it was reached in, kept in direct ByteBuffers outside the Java heap so the
+// garbage collector never has to look through it. States go in an
+// open-addressed table: a state is looked for in a few slots from the one
+// its hash picks, and goes in the first that is free. The table doubles as
+// it fills, up to a limit on memory (see DEFAULT_MAX_BYTES). Once at the
+// limit, a state that finds no free slot replaces the one reached in the
+// most moves among those slots, if that is at least as many as its own, on
+// the grounds that states near the start stand for the most search below
+// them. Otherwise the state isn't stored, and visit says so. A replaced or
+// unstored state may later be searched again, which costs time but never a
+// wrong answer. A table can also keep a long with each state, such as where
+// the caller keeps more about it.
+//
+// Direct buffers count against the JVM's -XX:MaxDirectMemorySize, which is
+// the heap size unless set.
+class StateTable {
+  // Memory the table may grow to, which can be set with
+  // -Dsokoban.tableBytes=<bytes>
+  static final long DEFAULT_MAX_BYTES = Long.getLong("sokoban.tableBytes", 256L << 20);
+  static final int PROBES = 8; // slots a state is looked for in
+  static final int CHUNK_BYTES = 1 << 30; // most bytes in one buffer
+  static final int NEW = 0; // visit stored the state, or a fewer number of moves for it
+  static final int SEEN = 1; // visit found the state already reached in as few moves
+  static final int UNSTORED = 2; // visit found the state not stored and no room for it
+
+  int words; // longs per state
+  int entryBytes; // bytes per slot: the generation, the moves, the state and any value
+  boolean values; // whether a value is kept with each state
+  long maxSlots; // most slots the memory limit allows
+  long capacity; // number of slots, a power of two
+  int chunkShift; // slots per buffer, as a power of two
+  ByteBuffer[] chunks; // the slots
+  int generation; // stamp of the slots in use; others count as empty
+  long size; // number of states stored
+  long replaced; // number of states replaced for lack of room
+
+  // Convenience constructor for a table without values
+  StateTable(int words, long maxBytes) {
+    this(words, maxBytes, false);
+  }
+
+  // Constructor for an empty table of states of the given number of longs,
+  // growing to at most the given number of bytes, keeping a value with each
+  // state if asked to
+  StateTable(int words, long maxBytes, boolean values) {
+    this.words = words;
+    this.values = values;
+    this.entryBytes = 8 + 8 * words;
+    if (values) {
+      this.entryBytes += 8;
+    }
+    if (maxBytes < (long) this.entryBytes * StateTable.PROBES) {
+      throw new IllegalArgumentException("The table must have room for a few states");
+    }
+    this.maxSlots = Long.highestOneBit(maxBytes / this.entryBytes);
+    this.chunkShift = 63 - Long.numberOfLeadingZeros(StateTable.CHUNK_BYTES / this.entryBytes);
+    this.generation = 1;
+    this.size = 0;
+    this.replaced = 0;
+    this.allocate(Math.min(this.maxSlots, 1024));
+  }
+
+  // Makes empty slots, the given number of them
+  void allocate(long slots) {
+    this.capacity = slots;
+    long perChunk = 1L << this.chunkShift;
+    int count = (int) ((slots + perChunk - 1) / perChunk);
+    this.chunks = new ByteBuffer[count];
+    for (int i = 0; i < count; i += 1) {
+      int bytes = (int) (Math.min(slots, perChunk) * this.entryBytes);
+      this.chunks[i] = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+  }
+
+  // Returns the buffer holding the given slot
+  ByteBuffer chunk(long slot) {
+    return this.chunks[(int) (slot >>> this.chunkShift)];
+  }
+
+  // Returns where the given slot starts in its buffer
+  int at(long slot) {
+    return (int) (slot & ((1L << this.chunkShift) - 1)) * this.entryBytes;
+  }
+
+  // Returns the hash of the state at the given place in the given array
+  long hash(long[] state, int offset) {
+    return StateTable.hash(state, offset, this.words);
+  }
+
+  // Returns the hash of the state of the given number of longs at the given
+  // place in the given array
+  static long hash(long[] state, int offset, int words) {
+    long hash = 0;
+    for (int i = 0; i < words; i += 1) {
+      hash = Long.rotateLeft((hash ^ state[offset + i]) * 0x9E3779B97F4A7C15L, 31);
+    }
+    hash = (hash ^ hash >>> 33) * 0xFF51AFD7ED558CCDL;
+    hash = (hash ^ hash >>> 33) * 0xC4CEB9FE1A85EC53L;
+    return hash ^ hash >>> 33;
+  }
+
+  // Determines if the given slot holds the state at the given place in the
+  // given array
+  boolean holds(long slot, long[] state, int offset) {
+    ByteBuffer chunk = this.chunk(slot);
+    int at = this.at(slot) + 8;
+    for (int i = 0; i < this.words; i += 1) {
+      if (chunk.getLong(at + 8 * i) != state[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Stores the state at the given place in the given array, reached in the
+  // given number of moves, with the given value, in the given slot
+  void write(long slot, long[] state, int offset, int moves, long value) {
+    ByteBuffer chunk = this.chunk(slot);
+    int at = this.at(slot);
+    chunk.putInt(at, this.generation);
+    chunk.putInt(at + 4, moves);
+    for (int i = 0; i < this.words; i += 1) {
+      chunk.putLong(at + 8 + 8 * i, state[offset + i]);
+    }
+    if (this.values) {
+      chunk.putLong(at + 8 + 8 * this.words, value);
+    }
+  }
+
+  // Convenience method for visiting a state without a value
+  int visit(long[] state, int offset, int moves) {
+    return this.visit(state, offset, moves, 0);
+  }
+
+  // Records that the state at the given place in the given array was reached
+  // in the given number of moves. Returns SEEN if it was already reached in
+  // as few moves, UNSTORED if it wasn't but the table is full and every slot
+  // it could replace holds a state reached in fewer moves, and NEW otherwise.
+  // The given value is kept with the state whenever it returns NEW.
+  int visit(long[] state, int offset, int moves, long value) {
+    if (this.size * 2 >= this.capacity && this.capacity < this.maxSlots) {
+      this.grow();
+    }
+    long hash = this.hash(state, offset);
+    long victim = -1;
+    int victimMoves = -1;
+    for (int probe = 0; probe < StateTable.PROBES; probe += 1) {
+      long slot = (hash + probe) & (this.capacity - 1);
+      ByteBuffer chunk = this.chunk(slot);
+      int at = this.at(slot);
+      if (chunk.getInt(at) != this.generation) {
+        this.write(slot, state, offset, moves, value);
+        this.size += 1;
+        return StateTable.NEW;
+      }
+      int stored = chunk.getInt(at + 4);
+      if (this.holds(slot, state, offset)) {
+        if (moves < stored) {
+          this.write(slot, state, offset, moves, value);
+          return StateTable.NEW;
+        }
+        return StateTable.SEEN;
+      }
+      if (stored > victimMoves) {
+        victim = slot;
+        victimMoves = stored;
+      }
+    }
+    if (this.capacity < this.maxSlots) {
+      this.grow();
+      return this.visit(state, offset, moves, value);
+    }
+    if (victimMoves < moves) {
+      return StateTable.UNSTORED;
+    }
+    this.write(victim, state, offset, moves, value);
+    this.replaced += 1;
+    return StateTable.NEW;
+  }
+
+  // Determines if the state at the given place in the given array is stored
+  boolean contains(long[] state, int offset) {
+    return this.get(state, offset) != -1;
+  }
+
+  // Returns the fewest moves the state at the given place in the given array
+  // was reached in, or -1 if it isn't stored
+  int get(long[] state, int offset) {
+    long slot = this.find(state, offset);
+    if (slot == -1) {
+      return -1;
+    }
+    return this.chunk(slot).getInt(this.at(slot) + 4);
+  }
+
+  // Returns the value kept with the state at the given place in the given
+  // array, or -1 if it isn't stored
+  long value(long[] state, int offset) {
+    long slot = this.find(state, offset);
+    if (slot == -1) {
+      return -1;
+    }
+    return this.chunk(slot).getLong(this.at(slot) + 8 + 8 * this.words);
+  }
+
+  // Returns the slot holding the state at the given place in the given
+  // array, or -1 if it isn't stored
+  long find(long[] state, int offset) {
+    long hash = this.hash(state, offset);
+    for (int probe = 0; probe < StateTable.PROBES; probe += 1) {
+      long slot = (hash + probe) & (this.capacity - 1);
+      if (this.chunk(slot).getInt(this.at(slot)) != this.generation) {
+        return -1;
+      }
+      if (this.holds(slot, state, offset)) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  // Doubles the number of slots, moving the states stored into the new ones
+  void grow() {
+    ByteBuffer[] oldChunks = this.chunks;
+    long oldCapacity = this.capacity;
+    long perChunk = 1L << this.chunkShift;
+    this.allocate(oldCapacity * 2);
+    this.size = 0;
+    long[] state = new long[this.words];
+    for (long slot = 0; slot < oldCapacity; slot += 1) {
+      ByteBuffer chunk = oldChunks[(int) (slot / perChunk)];
+      int at = (int) (slot % perChunk) * this.entryBytes;
+      if (chunk.getInt(at) == this.generation) {
+        for (int i = 0; i < this.words; i += 1) {
+          state[i] = chunk.getLong(at + 8 + 8 * i);
+        }
+        long value = 0;
+        if (this.values) {
+          value = chunk.getLong(at + 8 + 8 * this.words);
+        }
+        this.visit(state, 0, chunk.getInt(at + 4), value);
+      }
+    }
+  }
+
+  // Removes every state, by moving on to a new generation of slots
+  void clear() {
+    this.generation += 1;
+    this.size = 0;
+  }
+}
+
+// States in the order they were added, each with the index of the state it
+// was reached from and a number saying how, kept in direct ByteBuffers
+// outside the Java heap like StateTable. A buffer is added each time the
+// last one fills, so nothing is ever copied as the list grows.
+class StateList {
+  static final int CHUNK_BYTES = 1 << 20; // most bytes in one buffer
+
+  int words; // longs per state
+  int entryBytes; // bytes per state: the state, its parent and how it was reached
+  int chunkShift; // states per buffer, as a power of two
+  ByteBuffer[] chunks; // the states, with null for buffers not yet needed
+  long size; // number of states
+
+  // Constructor for an empty list of states of the given number of longs
+  StateList(int words) {
+    this.words = words;
+    this.entryBytes = 8 * words + 12;
+    this.chunkShift = 31 - Integer.numberOfLeadingZeros(StateList.CHUNK_BYTES / this.entryBytes);
+    this.chunks = new ByteBuffer[16];
+    this.size = 0;
+  }
+
+  // Returns the buffer holding the given state
+  ByteBuffer chunk(long index) {
+    return this.chunks[(int) (index >>> this.chunkShift)];
+  }
+
+  // Returns where the given state starts in its buffer
+  int at(long index) {
+    return (int) (index & ((1L << this.chunkShift) - 1)) * this.entryBytes;
+  }
+
+  // Adds the state at the given place in the given array, reached from the
+  // state at the given index (-1 for none) as the given number says, and
+  // returns its index
+  long add(long[] state, int offset, long parent, int via) {
+    int chunkIndex = (int) (this.size >>> this.chunkShift);
+    if (chunkIndex == this.chunks.length) {
+      this.chunks = Arrays.copyOf(this.chunks, chunkIndex * 2);
+    }
+    if (this.chunks[chunkIndex] == null) {
+      this.chunks[chunkIndex] = ByteBuffer.allocateDirect(this.entryBytes << this.chunkShift)
+          .order(ByteOrder.nativeOrder());
+    }
+    ByteBuffer chunk = this.chunks[chunkIndex];
+    int at = this.at(this.size);
+    for (int i = 0; i < this.words; i += 1) {
+      chunk.putLong(at + 8 * i, state[offset + i]);
+    }
+    chunk.putLong(at + 8 * this.words, parent);
+    chunk.putInt(at + 8 * this.words + 8, via);
+    this.size += 1;
+    return this.size - 1;
+  }
+
+  // Copies the state at the given index to the given place in the given array
+  void get(long index, long[] out, int offset) {
+    ByteBuffer chunk = this.chunk(index);
+    int at = this.at(index);
+    for (int i = 0; i < this.words; i += 1) {
+      out[offset + i] = chunk.getLong(at + 8 * i);
+    }
+  }
+
+  // Returns the index of the state the given state was reached from, or -1
+  long parent(long index) {
+    return this.chunk(index).getLong(this.at(index) + 8 * this.words);
+  }
+
+  // Returns the number saying how the given state was reached
+  int via(long index) {
+    return this.chunk(index).getInt(this.at(index) + 8 * this.words + 8);
+  }
+}
+
+// Examples for StateCodec, StateTable and StateList
+class ExamplesStateCodec {
+  String contents = "WWWWWWW\nW>bH__W\nW__B__W\nWWWWWWW\nWg_WWWW";
+  String ground = "_______\n_______\n_R__I__\n_______\n_______";
+
+  // test for packing and unpacking states
+  boolean testCodec(Tester t) {
+    Simulator sim = new Simulator(this.contents, this.ground);
+    StateCodec codec = new StateCodec(sim.grid, sim.playerCell);
+    long[] start = new long[codec.words];
+    codec.encode(sim.grid, sim.playerCell, start, 0);
+    sim.run("R");
+    long[] moved = new long[codec.words + 1];
+    codec.encode(sim.grid, sim.playerCell, moved, 1);
+    BoardGrid grid = new Utils().initializeGrid(this.contents, this.ground);
+    codec.decode(moved, 1, grid, codec.player(moved, 1));
+    String after = new Simulator(grid).contents();
+    codec.decode(start, 0, grid, codec.player(start, 0));
+    // 10 cells, so 4 bits for the player, 2 bitsets of items and 1 hole
+    return t.checkExpect(codec.domain.length, 10) && t.checkExpect(codec.playerBits, 4)
+        && t.checkExpect(codec.layers, 2) && t.checkExpect(codec.words, 1)
+        && t.checkExpect(after, "WWWWWWW\nW_>___W\nW__B__W\nWWWWWWW\nWg_WWWW")
+        && t.checkExpect(codec.player(moved, 1), 9)
+        && t.checkExpect(new Simulator(grid).contents(), this.contents)
+        && t.checkExpect(grid.hash, new Utils().initializeGrid(this.contents, this.ground).hash)
+        && t.checkExpect(start[0] == moved[1], false);
+  }
+
+  // test for storing states, replacing them once full and clearing them
+  boolean testStateTable(Tester t) {
+    StateTable table = new StateTable(2, 1 << 20);
+    long[] state = { 42, 7 };
+    int first = table.visit(state, 0, 5);
+    int again = table.visit(state, 0, 5);
+    int shorter = table.visit(state, 0, 3);
+    int longer = table.visit(state, 0, 4);
+    boolean allNew = true;
+    long[] many = new long[2];
+    for (long i = 1; i <= 5000; i += 1) {
+      many[0] = i;
+      allNew = allNew && table.visit(many, 0, 1) == StateTable.NEW;
+    }
+    long grown = table.capacity;
+    boolean found = table.contains(state, 0) && !table.contains(new long[] { 42, 8 }, 0);
+    int moves = table.get(state, 0);
+    table.clear();
+    return t.checkExpect(first, StateTable.NEW) && t.checkExpect(again, StateTable.SEEN)
+        && t.checkExpect(shorter, StateTable.NEW) && t.checkExpect(longer, StateTable.SEEN)
+        && t.checkExpect(allNew, true) && t.checkExpect(found, true) && t.checkExpect(moves, 3)
+        && t.checkExpect(grown, 16384L) && t.checkExpect(table.size, 0L)
+        && t.checkExpect(table.contains(state, 0), false)
+        && t.checkExpect(table.visit(state, 0, 9), StateTable.NEW)
+        && t.checkConstructorException(
+            new IllegalArgumentException("The table must have room for a few states"),
+            "StateTable", 2, 100L);
+  }
+
+  // test that a full table replaces the states reached in the most moves
+  boolean testReplacement(Tester t) {
+    StateTable table = new StateTable(1, 24 * 8);
+    long[] state = new long[1];
+    for (long i = 1; i <= 8; i += 1) {
+      state[0] = i;
+      table.visit(state, 0, (int) i);
+    }
+    long[] deep = { 100 };
+    long[] shallow = { 200 };
+    int deepNew = table.visit(deep, 0, 50);
+    int shallowNew = table.visit(shallow, 0, 0);
+    state[0] = 8;
+    return t.checkExpect(table.capacity, 8L) && t.checkExpect(table.size, 8L)
+        && t.checkExpect(deepNew, StateTable.UNSTORED)
+        && t.checkExpect(table.contains(deep, 0), false)
+        && t.checkExpect(shallowNew, StateTable.NEW)
+        && t.checkExpect(table.contains(shallow, 0), true)
+        && t.checkExpect(table.contains(state, 0), false) && t.checkExpect(table.replaced, 1L);
+  }
+
+  // test that the value kept with each state follows it as the table grows
+  // and as the state is reached in fewer moves
+  boolean testValues(Tester t) {
+    StateTable table = new StateTable(1, 1L << 20, true);
+    long[] state = new long[1];
+    for (long i = 1; i <= 3000; i += 1) {
+      state[0] = i;
+      table.visit(state, 0, 5, i * 10);
+    }
+    state[0] = 7;
+    int again = table.visit(state, 0, 5, 1);
+    int shorter = table.visit(state, 0, 2, 2);
+    long moved = table.value(new long[] { 2999 }, 0);
+    return t.checkExpect(table.entryBytes, 24) && t.checkExpect(table.capacity > 1024, true)
+        && t.checkExpect(moved, 29990L) && t.checkExpect(again, StateTable.SEEN)
+        && t.checkExpect(shorter, StateTable.NEW) && t.checkExpect(table.value(state, 0), 2L)
+        && t.checkExpect(table.get(state, 0), 2)
+        && t.checkExpect(table.value(new long[] { 3001 }, 0), -1L);
+  }
+
+  // test that states and their records come back as added, across buffers
+  boolean testStateList(Tester t) {
+    StateList list = new StateList(3);
+    long[] state = new long[4];
+    for (long i = 0; i < 100000; i += 1) {
+      state[1] = i;
+      state[3] = -i;
+      list.add(state, 1, i - 1, (int) i * 4 + 2);
+    }
+    long[] out = new long[3];
+    list.get(70000, out, 0);
+    // 36 bytes a state puts 16384 in each buffer
+    return t.checkExpect(list.size, 100000L) && t.checkExpect(list.chunkShift, 14)
+        && t.checkExpect(list.chunks[6] != null, true)
+        && t.checkExpect(list.chunks[7], null)
+        && t.checkExpect(out[0], 70000L) && t.checkExpect(out[2], -70000L)
+        && t.checkExpect(list.parent(0), -1L) && t.checkExpect(list.parent(70000), 69999L)
+        && t.checkExpect(list.via(99999), 399998);
+  }
+}
@@ -0,0 +1,330 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import javalib.worldimages.Posn;
+import tester.*;
+
+// A text front-end for playing a level in a terminal (for example over SSH),
+// which starts without opening a window. The board is drawn with the same
+// characters a level is written in, with ice and targets shown as background
+// colors. After the first frame only the cells a move or undo changed are
+// drawn again, using escape codes to move the cursor to them. Moves and undos
+// go through the same Board and UndoLog as PlayLevel.
+//
+// To start quickly, nothing here starts up AWT, and text is put together with
+// StringBuilders rather than string +, whose first use costs tens of
+// milliseconds of setup.
+//
+// Run with: java TerminalPlay [contents file] [ground file]
+class TerminalPlay {
+  static final String ESC = "\u001b[";
+
+  // Level played when no level files are given
+  static final String DEFAULT_CONTENTS = "__WWWWW_\n" + "WWW___W_\n" + "W_>b__W_\n"
+      + "WWW_g_W_\n" + "W_WWy_W_\n" + "W_W___WW\n" + "Wr_bgr_W\n" + "W______W\n" + "WWWWWWWW";
+  static final String DEFAULT_GROUND = "________\n" + "________\n" + "_B______\n" + "_____G__\n"
+      + "_R______\n" + "____Y___\n" + "___B__R_\n" + "____G___\n" + "________";
+
+  // Background color escape codes for each ground code (see CellCodes)
+  static final String[] BACKGROUNDS = { "", "46", "41", "42", "44", "43" };
+
+  Board board; // Board being played
+  UndoLog history; // Changes made by previous moves
+  int moves; // Number of moves
+
+  // Constructor for TerminalPlay
+  TerminalPlay(Board board) {
+    this.board = board;
+    this.history = new UndoLog();
+    this.moves = 0;
+  }
+
+  // Handles a key ("up", "down", "left", "right" or "u" to undo) the way
+  // PlayLevel does. Returns the changes it made to the board, or null if it
+  // made none.
+  MoveDelta onKey(String key) {
+    Board newBoard = this.board;
+    if (key.equals("up")) {
+      newBoard = this.board.movePlayerUp();
+    }
+    else if (key.equals("down")) {
+      newBoard = this.board.movePlayerDown();
+    }
+    else if (key.equals("right")) {
+      newBoard = this.board.movePlayerRight();
+    }
+    else if (key.equals("left")) {
+      newBoard = this.board.movePlayerLeft();
+    }
+    else if (key.equals("u")) {
+      if (this.history.isEmpty()) {
+        return null;
+      }
+      this.board = this.board.undoLastMove(this.history);
+      this.moves += 1;
+      return this.board.lastMove;
+    }
+
+    Posn newPlayerLoc = newBoard.playerLoc;
+    Posn oldPlayerLoc = this.board.playerLoc;
+    if (newPlayerLoc.x != oldPlayerLoc.x || newPlayerLoc.y != oldPlayerLoc.y) {
+      this.history.push(newBoard.lastMove, this.board.playerCell());
+      this.moves += 1;
+    }
+    Board oldBoard = this.board;
+    this.board = newBoard;
+    if (newBoard == oldBoard) {
+      return null;
+    }
+    else {
+      return newBoard.lastMove;
+    }
+  }
+
+  // Returns the text for the cell at the given index: its content character
+  // (or its ground character if it has no content) over its ground's color
+  String cellText(BoardGrid grid, int index) {
+    byte content = grid.contents[index];
+    byte ground = grid.grounds[index];
+    char symbol;
+    if (content != CellCodes.BLANK) {
+      symbol = CellCodes.contentChar(content);
+    }
+    else if (ground != CellCodes.BLANK_GROUND) {
+      symbol = CellCodes.groundChar(ground);
+    }
+    else {
+      symbol = ' ';
+    }
+    String background = BACKGROUNDS[ground];
+    if (background.isEmpty()) {
+      return String.valueOf(symbol);
+    }
+    else {
+      return new StringBuilder(ESC).append(background).append('m').append(symbol).append(ESC)
+          .append("0m").toString();
+    }
+  }
+
+  // Returns the escape code that moves the cursor to the given row and column
+  // of the board
+  String moveCursor(int row, int col) {
+    return new StringBuilder(ESC).append(row + 1).append(';').append(col + 1).append('H')
+        .toString();
+  }
+
+  // Returns the line under the board showing the number of moves
+  String status() {
+    return new StringBuilder(this.moveCursor(this.board.grid().height + 1, 0)).append(ESC)
+        .append("2KMoves: ").append(this.moves).toString();
+  }
+
+  // Returns the text that clears the terminal and draws the whole board
+  String drawAll() {
+    BoardGrid grid = this.board.grid();
+    StringBuilder text = new StringBuilder(ESC + "2J" + ESC + "?25l");
+    for (int row = 0; row < grid.height; row += 1) {
+      text.append(this.moveCursor(row, 0));
+      for (int col = 0; col < grid.width; col += 1) {
+        text.append(this.cellText(grid, grid.index(row, col)));
+      }
+    }
+    return text.append(this.status()).toString();
+  }
+
+  // Returns the text that draws only the given changed cells of the board
+  String drawChanged(MoveDelta delta) {
+    BoardGrid grid = this.board.grid();
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < delta.size; i += 1) {
+      int cell = delta.cells[i];
+      text.append(this.moveCursor(cell / grid.width, cell % grid.width))
+          .append(this.cellText(grid, cell));
+    }
+    return text.append(this.status()).toString();
+  }
+
+  // Reads one keystroke from the given raw terminal input: "up", "down",
+  // "left" or "right" for the arrow keys, "u", "q" for q, Ctrl-C or the end
+  // of the input, and "" for anything else
+  static String readKey(InputStream in) throws IOException {
+    int c = in.read();
+    if (c == -1 || c == 'q' || c == 3) {
+      return "q";
+    }
+    else if (c == 'u') {
+      return "u";
+    }
+    else if (c == 27 && in.read() == '[') {
+      int arrow = in.read();
+      if (arrow == 'A') {
+        return "up";
+      }
+      else if (arrow == 'B') {
+        return "down";
+      }
+      else if (arrow == 'C') {
+        return "right";
+      }
+      else if (arrow == 'D') {
+        return "left";
+      }
+    }
+    return "";
+  }
+
+  // Plays the level, reading keys from the given input and drawing on the
+  // given output until the level is won or lost or the player quits
+  void run(InputStream in, PrintStream out) throws IOException {
+    out.print(this.drawAll());
+    out.flush();
+    String message = "";
+    String key = TerminalPlay.readKey(in);
+    while (!key.equals("q")) {
+      MoveDelta changed = this.onKey(key);
+      if (changed != null) {
+        out.print(this.drawChanged(changed));
+        out.flush();
+      }
+      if (this.board.levelWon()) {
+        message = "You Won!";
+        key = "q";
+      }
+      else if (!this.board.hasAPlayer()) {
+        message = "You Lost!";
+        key = "q";
+      }
+      else {
+        key = TerminalPlay.readKey(in);
+      }
+    }
+    out.print(new StringBuilder(this.moveCursor(this.board.grid().height + 2, 0)).append(message)
+        .append(ESC).append("?25h\r\n"));
+    out.flush();
+  }
+
+  // Runs the given stty settings on the terminal, returning what it prints
+  static String stty(String settings) throws IOException, InterruptedException {
+    Process process = new ProcessBuilder("sh", "-c",
+        new StringBuilder("stty ").append(settings).append(" < /dev/tty").toString()).start();
+    String output = new String(process.getInputStream().readAllBytes()).trim();
+    process.waitFor();
+    return output;
+  }
+
+  // Plays the level in the given files (contents then ground), or the default
+  // level, in this terminal
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Board board;
+    if (args.length == 2) {
+      board = new Board(TerminalPlay.readLevel(args[0]), TerminalPlay.readLevel(args[1]));
+    }
+    else {
+      board = new Board(DEFAULT_CONTENTS, DEFAULT_GROUND);
+    }
+    TerminalPlay game = new TerminalPlay(board);
+    if (System.console() == null) {
+      game.run(System.in, System.out);
+    }
+    else {
+      // Raw mode hands over each key as it is pressed, without echoing it
+      String saved = TerminalPlay.stty("-g");
+      TerminalPlay.stty("raw -echo");
+      try {
+        game.run(System.in, System.out);
+      }
+      finally {
+        TerminalPlay.stty(saved);
+      }
+    }
+  }
+
+  // Reads a level file, without the line break at its end
+  static String readLevel(String file) throws IOException {
+    String text = new String(Files.readAllBytes(Paths.get(file))).replace("\r", "");
+    while (text.endsWith("\n")) {
+      text = text.substring(0, text.length() - 1);
+    }
+    return text;
+  }
+}
+
+// Examples for TerminalPlay
+class ExamplesTerminalPlay {
+  Board level = new Board("WWWWW\nW>r_W\nW___W\nWWWWW", "_____\n___R_\n__I__\n_____");
+
+  // test for drawing cells
+  boolean testCellText(Tester t) {
+    BoardGrid grid = this.level.grid();
+    TerminalPlay game = new TerminalPlay(this.level);
+    return t.checkExpect(game.cellText(grid, 0), "W")
+        && t.checkExpect(game.cellText(grid, 6), ">")
+        && t.checkExpect(game.cellText(grid, 8), "\u001b[41mR\u001b[0m")
+        && t.checkExpect(game.cellText(grid, 11), " ")
+        && t.checkExpect(game.cellText(grid, 12), "\u001b[46mI\u001b[0m")
+        && t.checkExpect(game.moveCursor(2, 3), "\u001b[3;4H");
+  }
+
+  // test for drawing the whole board and only the changed cells
+  boolean testDraw(Tester t) {
+    TerminalPlay game = new TerminalPlay(this.level);
+    String all = game.drawAll();
+    MoveDelta changed = game.onKey("right");
+    return t.checkExpect(all.startsWith("\u001b[2J\u001b[?25l\u001b[1;1HWWWWW\u001b[2;1HW>r"),
+        true)
+        && t.checkExpect(all.endsWith("\u001b[6;1H\u001b[2KMoves: 0"), true)
+        && t.checkExpect(game.drawChanged(changed),
+            "\u001b[2;4H\u001b[41mr\u001b[0m\u001b[2;3H>\u001b[2;2H \u001b[6;1H\u001b[2KMoves: 1");
+  }
+
+  // test for moves and undos, which follow PlayLevel
+  boolean testOnKey(Tester t) {
+    TerminalPlay game = new TerminalPlay(this.level);
+    MoveDelta blocked = game.onKey("up");
+    MoveDelta ignored = game.onKey("x");
+    MoveDelta noUndo = game.onKey("u");
+    MoveDelta moved = game.onKey("down");
+    Posn afterMove = game.board.playerLoc;
+    MoveDelta undone = game.onKey("u");
+    return t.checkExpect(blocked, null) && t.checkExpect(ignored, null)
+        && t.checkExpect(noUndo, null) && t.checkExpect(moved.size, 2)
+        && t.checkExpect(afterMove, new Posn(2, 1)) && t.checkExpect(undone.size, 2)
+        && t.checkExpect(game.board, this.level) && t.checkExpect(game.moves, 2);
+  }
+
+  // test for reading keys from raw terminal input
+  boolean testReadKey(Tester t) {
+    InputStream in = new ByteArrayInputStream("\u001b[A\u001b[D\u001b[Bu\u001b[Cxq".getBytes());
+    try {
+      return t.checkExpect(TerminalPlay.readKey(in), "up")
+          && t.checkExpect(TerminalPlay.readKey(in), "left")
+          && t.checkExpect(TerminalPlay.readKey(in), "down")
+          && t.checkExpect(TerminalPlay.readKey(in), "u")
+          && t.checkExpect(TerminalPlay.readKey(in), "right")
+          && t.checkExpect(TerminalPlay.readKey(in), "")
+          && t.checkExpect(TerminalPlay.readKey(in), "q")
+          && t.checkExpect(TerminalPlay.readKey(in), "q");
+    }
+    catch (IOException e) {
+      return t.checkExpect(e, null);
+    }
+  }
+
+  // test for playing a level to the end
+  boolean testRun(Tester t) {
+    TerminalPlay game = new TerminalPlay(this.level);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try {
+      game.run(new ByteArrayInputStream("\u001b[C\u001b[C".getBytes()), new PrintStream(output));
+    }
+    catch (IOException e) {
+      return t.checkExpect(e, null);
+    }
+    return t.checkExpect(game.moves, 1)
+        && t.checkExpect(output.toString().endsWith("You Won!\u001b[?25h\r\n"), true);
+  }
+}